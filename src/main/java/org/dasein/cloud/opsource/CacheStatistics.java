@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hit, miss, load time, eviction and size counters for one of the provider's caches. Every cache registers its
+ * statistics here under a unique name; they can be read through {@link #getAll()} or over JMX.
+ */
+public class CacheStatistics implements CacheStatisticsMXBean {
+    static private final Logger logger = OpSource.getLogger(CacheStatistics.class);
+
+    static public final String JMX_DOMAIN = "org.dasein.cloud.opsource";
+
+    static private final long[] LOAD_TIME_BUCKETS = { 10L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L };
+
+    /**
+     * Counts the entries a cache currently holds for the statistics' name.
+     */
+    static public interface EntryCounter {
+        public long countEntries();
+    }
+
+    static private final ConcurrentHashMap<String, CacheStatistics> statistics = new ConcurrentHashMap<String, CacheStatistics>();
+
+    /**
+     * Returns the statistics registered under the name, creating and registering them with JMX on first use.
+     * The entry counter of the first caller wins.
+     */
+    static public @Nonnull CacheStatistics getInstance(@Nonnull String name, @Nullable EntryCounter counter) {
+        CacheStatistics stats = statistics.get(name);
+
+        if( stats == null ) {
+            CacheStatistics created = new CacheStatistics(name, counter);
+
+            stats = statistics.putIfAbsent(name, created);
+            if( stats == null ) {
+                stats = created;
+                register(created);
+            }
+        }
+        return stats;
+    }
+
+    static public @Nullable CacheStatistics get(@Nonnull String name) {
+        return statistics.get(name);
+    }
+
+    static public @Nonnull Collection<CacheStatistics> getAll() {
+        return Collections.unmodifiableCollection(new ArrayList<CacheStatistics>(statistics.values()));
+    }
+
+    static private void register(@Nonnull CacheStatistics stats) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Cache,name=" + ObjectName.quote(stats.getName()));
+
+            if( !server.isRegistered(name) ) {
+                server.registerMBean(stats, name);
+            }
+        }
+        catch( Exception e ) {
+            // statistics stay readable through getAll() even where JMX is locked down
+            logger.warn("Unable to register cache statistics for " + stats.getName() + " with JMX: " + e.getMessage());
+        }
+    }
+
+    private final String       name;
+    private final EntryCounter counter;
+
+    private final AtomicLong hits          = new AtomicLong();
+    private final AtomicLong misses        = new AtomicLong();
+    private final AtomicLong loads         = new AtomicLong();
+    private final AtomicLong loadFailures  = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong evictions     = new AtomicLong();
+    private final AtomicLongArray loadTimes = new AtomicLongArray(LOAD_TIME_BUCKETS.length + 1);
+
+    private CacheStatistics(@Nonnull String name, @Nullable EntryCounter counter) {
+        this.name = name;
+        this.counter = counter;
+    }
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public void recordLoad(long millis, boolean succeeded) {
+        int bucket = 0;
+
+        while( bucket < LOAD_TIME_BUCKETS.length && millis > LOAD_TIME_BUCKETS[bucket] ) {
+            bucket++;
+        }
+        loadTimes.incrementAndGet(bucket);
+        totalLoadTime.addAndGet(millis);
+        loads.incrementAndGet();
+        if( !succeeded ) {
+            loadFailures.incrementAndGet();
+        }
+    }
+
+    public void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return (total == 0L ? 0.0 : ((double)h) / total);
+    }
+
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailures.get();
+    }
+
+    public double getAverageLoadTime() {
+        long count = loads.get();
+
+        return (count == 0L ? 0.0 : ((double)totalLoadTime.get()) / count);
+    }
+
+    public @Nonnull long[] getLoadTimeBucketBounds() {
+        return LOAD_TIME_BUCKETS.clone();
+    }
+
+    public @Nonnull long[] getLoadTimeHistogram() {
+        long[] histogram = new long[loadTimes.length()];
+
+        for( int i=0; i<histogram.length; i++ ) {
+            histogram[i] = loadTimes.get(i);
+        }
+        return histogram;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getEntryCount() {
+        return (counter == null ? 0L : counter.countEntries());
+    }
+
+    public void reset() {
+        hits.set(0L);
+        misses.set(0L);
+        loads.set(0L);
+        loadFailures.set(0L);
+        totalLoadTime.set(0L);
+        evictions.set(0L);
+        for( int i=0; i<loadTimes.length(); i++ ) {
+            loadTimes.set(i, 0L);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " [hits=" + getHitCount() + ", misses=" + getMissCount() + ", loads=" + getLoadCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+}
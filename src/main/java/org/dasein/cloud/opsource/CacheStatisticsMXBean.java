@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+/**
+ * JMX view of a {@link CacheStatistics}. Registered as <code>org.dasein.cloud.opsource:type=Cache,name=...</code>.
+ */
+public interface CacheStatisticsMXBean {
+    public String getName();
+
+    public long getHitCount();
+
+    public long getMissCount();
+
+    public double getHitRate();
+
+    public long getLoadCount();
+
+    public long getLoadFailureCount();
+
+    public double getAverageLoadTime();
+
+    /**
+     * @return inclusive upper bounds in milliseconds of each load time bucket but the last, which is open ended
+     */
+    public long[] getLoadTimeBucketBounds();
+
+    public long[] getLoadTimeHistogram();
+
+    public long getEvictionCount();
+
+    public long getEntryCount();
+
+    public void reset();
+}
@@ -21,16 +21,27 @@ package org.dasein.cloud.opsource;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.network.VLAN;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.StringWriter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Copyright (C) 2009-2012 enStratus Networks Inc
@@ -53,30 +64,252 @@ import java.util.HashMap;
 public class CallCache {
     Logger wire = OpSource.getLogger(CallCache.class);
 
+    /**
+     * System property holding the byte budget shared by every OpSource cache in the JVM.
+     */
+    static public final String MAXIMUM_WEIGHT_PROPERTY = "dasein.opsource.cache.maxBytes";
+    static public final long   DEFAULT_MAXIMUM_WEIGHT  = 16L * 1024L * 1024L;
+
+    /**
+     * Turns a freshly fetched response into the immutable value that gets cached. The document is only
+     * ever seen by the thread that loaded it, so parsers may walk it freely.
+     * @param <T> the cached value type
+     */
+    static public interface Parser<T> {
+        public @Nonnull T parse(@Nonnull Document doc) throws CloudException, InternalException;
+    }
+
+    /**
+     * Produces a value for a cache miss.
+     * @param <T> the cached value type
+     */
+    static public interface Loader<T> {
+        public @Nonnull T load() throws CloudException, InternalException;
+    }
+
+    /**
+     * Rewrites a cached value in place after a mutation whose effect is known, so the next read does not
+     * have to go back to the cloud.
+     */
+    static public interface Patch {
+        /**
+         * @return the value to keep caching, or <code>null</code> if the entry should be dropped instead
+         */
+        public @Nullable Object apply(@Nonnull Object value);
+    }
+
+    static private class Entry {
+        private final String resource;
+        private final Object value;
+        private final long   cachedAt;
+        private final long   weight;
+        /** Read from the catalog snapshot; served up to {@link #MAXIMUM_RESTORED_AGE} old until the first refresh replaces it */
+        private final boolean restored;
+
+        Entry(String resource, Object value, long cachedAt, long weight, boolean restored) {
+            this.resource = resource;
+            this.value = value;
+            this.cachedAt = cachedAt;
+            this.weight = weight;
+            this.restored = restored;
+        }
+    }
+
+    static private final Parser<List<DatacenterLimits>> DATACENTER_PARSER = new Parser<List<DatacenterLimits>>() {
+        public @Nonnull List<DatacenterLimits> parse(@Nonnull Document doc) {
+            return DatacenterLimits.parse(doc);
+        }
+    };
+
+    static private final Parser<List<NetworkWithLocation>> NETWORK_PARSER = new Parser<List<NetworkWithLocation>>() {
+        public @Nonnull List<NetworkWithLocation> parse(@Nonnull Document doc) {
+            return NetworkWithLocation.parse(doc);
+        }
+    };
+
     private static CallCache cache;
 
-    private HashMap<String, Document> cachedAPICalls;
+    /** Access-ordered, so iteration starts at the least recently used entry */
+    private final LinkedHashMap<String, Entry> cachedAPICalls;
+    /** Statistics of every resource this cache has served, keyed by resource name */
+    private final HashMap<String, CacheStatistics> statistics;
+    /** Loads currently in progress, so concurrent misses and refreshes of one key share a single fetch */
+    private final HashMap<String, FutureTask<Object>> loading;
 
-    private String NETWORK_WITH_LOCATION = "networkWithLocation";
-    private String DATACENTER_WITH_LIMITS = "datacenterWithLimits";
+    static public final String NETWORK_WITH_LOCATION = "networkWithLocation";
+    static public final String DATACENTER_WITH_LIMITS = "datacenterWithLimits";
+    static public final String VLANS = "vlans";
+    static public final String VM_PRODUCTS = "vmProduct";
+    static public final String ORG_ID = "orgId";
+    static public final String IMAGE_CATALOG = "imageCatalog";
+    /** Per-endpoint markers for endpoints an account cannot use; the value is the time to skip them until */
+    static public final String UNUSABLE_ENDPOINT = "unusableEndpoint";
+    /** Active machine images by image ID */
+    static public final String IMAGE_METADATA = "imageMetadata";
+    /** Number of servers in a region as reported by the last full listing */
+    static public final String SERVER_COUNT = "serverCount";
 
-    private long networkWithLocationCacheTime = 0L;
+    /** Age after which a value is refreshed in the background while the stale copy keeps being served */
     private long networkWithLocationThreshold;
-
-    private long datacenterWithLimitsCacheTime = 0L;
     private long datacenterWithLimitsThreshold;
+    /** Age after which a value is no longer served and callers block on a fresh fetch */
+    private long networkWithLocationExpiry;
+    private long datacenterWithLimitsExpiry;
+
+    /** Snapshot entries older than this are not restored at all; younger ones are served until their first refresh */
+    static private final long MAXIMUM_RESTORED_AGE = CalendarWrapper.DAY * 7L;
 
-    public static CallCache getInstance(){
+    private final CatalogStore catalog;
+    private boolean catalogSaveScheduled = false;
+
+    private long maximumWeight;
+    private long totalWeight   = 0L;
+    private long evictionCount = 0L;
+
+    public static synchronized CallCache getInstance(){
         if(cache == null){
             cache = new CallCache();
+            MutationBus.getInstance().addListener(cache.invalidator);
         }
         return cache;
     }
 
+    private final MutationBus.Listener invalidator = new MutationBus.Listener() {
+        public void mutated(@Nonnull OpSource provider, @Nonnull MutationBus.Mutation mutation, @Nullable String resourceId, @Nullable String relatedId) {
+            switch( mutation ) {
+                case VLAN_CREATED:
+                    // networkWithLocation lists every location, so the new network shows up in all regions of the account
+                    resetAccount(provider, NETWORK_WITH_LOCATION);
+                    resetAccount(provider, VLANS);
+                    break;
+                case VLAN_REMOVED:
+                    if(resourceId == null){
+                        resetAccount(provider, NETWORK_WITH_LOCATION);
+                        resetAccount(provider, VLANS);
+                    }
+                    else{
+                        Patch patch = withoutNetwork(resourceId);
+
+                        patchAccount(provider, NETWORK_WITH_LOCATION, patch);
+                        patchAccount(provider, VLANS, patch);
+                    }
+                    break;
+                case IMAGE_CAPTURED: case IMAGE_REMOVED:
+                    if(resourceId != null){
+                        resetAccount(provider, IMAGE_METADATA, resourceId);
+                    }
+                    break;
+                default:
+                    // nothing cached here is derived from firewall rules, NAT rules or load balancers
+                    break;
+            }
+        }
+    };
+
+    static private @Nonnull Patch withoutNetwork(@Nonnull final String networkId){
+        return new Patch() {
+            public @Nullable Object apply(@Nonnull Object value) {
+                if(!(value instanceof List)){
+                    return null;
+                }
+                ArrayList<Object> list = new ArrayList<Object>();
+
+                for(Object item : (List<?>)value){
+                    String id = null;
+
+                    if(item instanceof NetworkWithLocation){
+                        id = ((NetworkWithLocation)item).getId();
+                    }
+                    else if(item instanceof VLAN){
+                        id = ((VLAN)item).getProviderVlanId();
+                    }
+                    if(!networkId.equals(id)){
+                        list.add(item);
+                    }
+                }
+                // a plain ArrayList, as the loaders store, for callers that cast the cached list
+                return list;
+            }
+        };
+    }
+
     protected CallCache(){
-        cachedAPICalls = new HashMap();
+        cachedAPICalls = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+        statistics = new HashMap<String, CacheStatistics>();
+        loading = new HashMap<String, FutureTask<Object>>();
         networkWithLocationThreshold = 300000;//Timeouts set to five minutes
         datacenterWithLimitsThreshold = 300000;
+        networkWithLocationExpiry = 900000;
+        datacenterWithLimitsExpiry = 1800000;
+        maximumWeight = Long.getLong(MAXIMUM_WEIGHT_PROPERTY, DEFAULT_MAXIMUM_WEIGHT);
+        catalog = CatalogStore.getConfigured();
+        if(catalog != null){
+            restore();
+        }
+    }
+
+    private void restore(){
+        long now = System.currentTimeMillis();
+
+        try {
+            int count = 0;
+
+            for(CatalogStore.Record record : catalog.read()){
+                if(now - record.getCachedAt() > MAXIMUM_RESTORED_AGE){
+                    continue;
+                }
+                long weight = estimateWeight(record.getKey()) + estimateWeight(record.getValue());
+
+                synchronized( this ) {
+                    insert(record.getKey(), new Entry(record.getResource(), record.getValue(), record.getCachedAt(), weight, true));
+                }
+                count++;
+            }
+            if(wire.isDebugEnabled()){
+                wire.debug("Restored " + count + " catalog entries from " + catalog.getFile().getPath());
+            }
+        }
+        catch( IOException e ) {
+            wire.warn("Unable to read catalog snapshot " + catalog.getFile().getPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the catalog entries to the snapshot on the background pool. Must be called while holding the cache lock;
+     * saves requested while one is pending are folded into it.
+     */
+    private void scheduleCatalogSave(){
+        if(catalogSaveScheduled){
+            return;
+        }
+        catalogSaveScheduled = true;
+        try {
+            OpSourceExecutors.executeShared(OpSourceExecutors.Pool.BACKGROUND, new Runnable() {
+                public void run() {
+                    ArrayList<CatalogStore.Record> records = new ArrayList<CatalogStore.Record>();
+
+                    synchronized( CallCache.this ) {
+                        catalogSaveScheduled = false;
+                        for(Map.Entry<String, Entry> e : cachedAPICalls.entrySet()){
+                            Entry entry = e.getValue();
+
+                            if(CatalogStore.isCatalog(entry.resource)){
+                                records.add(new CatalogStore.Record(e.getKey(), entry.resource, entry.cachedAt, entry.value));
+                            }
+                        }
+                    }
+                    try {
+                        catalog.write(records);
+                    }
+                    catch( IOException e ) {
+                        wire.warn("Unable to write catalog snapshot " + catalog.getFile().getPath() + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e ) {
+            catalogSaveScheduled = false;
+        }
     }
 
     private Document getRealAPICall(OpSource provider, HashMap<Integer, Param> parameters, String resource, String regionServiceURL) throws CloudException, InternalException{
@@ -84,66 +317,497 @@ public class CallCache {
         return method.invoke();
     }
 
-    public Document getAPICall(String resource, OpSource provider, HashMap<Integer, Param> parameters, String regionServiceURL) throws CloudException, InternalException{
-        boolean timeElapsed = false;
+    private String getKey(OpSource provider, String resource, CacheLevel level) {
+        return getKey(provider, resource, null, level);
+    }
+
+    /**
+     * Keys of per-item entries end in <code>/id</code>; the entry still counts against the resource for statistics.
+     */
+    private String getKey(OpSource provider, String resource, @Nullable String id, CacheLevel level) {
+        ProviderContext ctx = provider.getContext();
+        StringBuilder key = new StringBuilder();
+
+        key.append(ctx.getEndpoint());
+        if(level.equals(CacheLevel.CLOUD_ACCOUNT) || level.equals(CacheLevel.REGION_ACCOUNT)){
+            key.append("-").append(ctx.getAccountNumber());
+        }
+        if(level.equals(CacheLevel.REGION) || level.equals(CacheLevel.REGION_ACCOUNT)){
+            key.append("-").append(ctx.getRegionId());
+        }
+        key.append("-").append(resource);
+        if(id != null){
+            key.append("/").append(id);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Prefix shared by the CLOUD_ACCOUNT and REGION_ACCOUNT keys of the provider's account.
+     */
+    private String getAccountPrefix(OpSource provider) {
+        ProviderContext ctx = provider.getContext();
+
+        return ctx.getEndpoint() + "-" + ctx.getAccountNumber() + "-";
+    }
 
-        java.util.Date now = new java.util.Date();
+    private long getThreshold(String resource) {
         if(resource.equals(NETWORK_WITH_LOCATION)){
-            if(now.getTime() > (networkWithLocationCacheTime + networkWithLocationThreshold)){
-                timeElapsed = true;
-                networkWithLocationCacheTime = now.getTime();
+            return networkWithLocationThreshold;
+        }
+        return datacenterWithLimitsThreshold;
+    }
+
+    private long getExpiry(String resource) {
+        if(resource.equals(NETWORK_WITH_LOCATION)){
+            return networkWithLocationExpiry;
+        }
+        return datacenterWithLimitsExpiry;
+    }
+
+    public @Nonnull List<DatacenterLimits> getDatacentersWithLimits(@Nonnull OpSource provider, @Nonnull String regionServiceURL) throws CloudException, InternalException{
+        HashMap<Integer, Param> parameters = new HashMap<Integer, Param>();
+        parameters.put(0, new Param(OpSource.LOCATION_BASE_PATH, null));
+        return getAPICall(DATACENTER_WITH_LIMITS, provider, parameters, regionServiceURL, DATACENTER_PARSER);
+    }
+
+    public @Nonnull List<NetworkWithLocation> getNetworksWithLocation(@Nonnull OpSource provider) throws CloudException, InternalException{
+        HashMap<Integer, Param> parameters = new HashMap<Integer, Param>();
+        parameters.put(0, new Param(NETWORK_WITH_LOCATION, null));
+        return getAPICall(NETWORK_WITH_LOCATION, provider, parameters, "", NETWORK_PARSER);
+    }
+
+    public @Nonnull <T> T getAPICall(final String resource, final OpSource provider, final HashMap<Integer, Param> parameters, final String regionServiceURL, final Parser<T> parser) throws CloudException, InternalException{
+        return get(provider, resource, CacheLevel.REGION_ACCOUNT, getThreshold(resource), getExpiry(resource), new Loader<T>() {
+            public @Nonnull T load() throws CloudException, InternalException {
+                if(wire.isDebugEnabled()){
+                    wire.debug("Getting real OpSource data: " + resource);
+                }
+                Document doc = getRealAPICall(provider, parameters, resource, regionServiceURL);
+                if(doc == null){
+                    throw new CloudException("No response received for " + resource);
+                }
+                if(wire.isDebugEnabled()){
+                    wire.debug(provider.convertDomToString(doc));
+                }
+                return parser.parse(doc);
             }
+        });
+    }
+
+    /**
+     * Returns the cached value for the resource at the given level, calling the loader when nothing is cached
+     * or the cached value is older than <code>timeout</code> milliseconds.
+     */
+    public @Nonnull <T> T get(@Nonnull OpSource provider, @Nonnull String resource, @Nonnull CacheLevel level, long timeout, @Nonnull Loader<T> loader) throws CloudException, InternalException{
+        return get(provider, resource, level, timeout, timeout, loader);
+    }
+
+    /**
+     * Returns the cached value for the resource at the given level. Values older than <code>refreshAfter</code>
+     * are still returned, but trigger a background reload; values older than <code>expireAfter</code> are
+     * discarded and the caller waits for the loader. Concurrent callers missing on the same key share one load.
+     * Entries restored from the catalog snapshot are served past <code>expireAfter</code>, up to
+     * {@link #MAXIMUM_RESTORED_AGE}, and are reloaded in the background the first time they are read.
+     */
+    @SuppressWarnings("unchecked")
+    public @Nonnull <T> T get(@Nonnull OpSource provider, @Nonnull String resource, @Nonnull CacheLevel level, long refreshAfter, long expireAfter, @Nonnull Loader<T> loader) throws CloudException, InternalException{
+        String key = getKey(provider, resource, level);
+        long now = System.currentTimeMillis();
+
+        synchronized( this ) {
+            Entry entry = cachedAPICalls.get(key);
+
+            // restored entries outlive their expiry so a worker starts without waiting on the network; the first use refreshes them
+            if(entry != null && (now <= (entry.cachedAt + expireAfter) || (entry.restored && now <= (entry.cachedAt + MAXIMUM_RESTORED_AGE)))){
+                getStatistics(resource).recordHit();
+                if(wire.isDebugEnabled()){
+                    wire.debug("Getting OpSource data from cache: " + key);
+                }
+                if(entry.restored || now > (entry.cachedAt + refreshAfter)){
+                    refresh(provider, key, resource, loader);
+                }
+                return (T)entry.value;
+            }
+            getStatistics(resource).recordMiss();
+        }
+        return (T)load(key, resource, loader);
+    }
+
+    /**
+     * Returns the cached value if there is one younger than <code>expireAfter</code> milliseconds. Never loads.
+     */
+    public @Nullable <T> T getIfPresent(@Nonnull OpSource provider, @Nonnull String resource, @Nonnull CacheLevel level, long expireAfter){
+        return this.<T>getIfPresent(provider, resource, null, level, expireAfter);
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized @Nullable <T> T getIfPresent(@Nonnull OpSource provider, @Nonnull String resource, @Nullable String id, @Nonnull CacheLevel level, long expireAfter){
+        Entry entry = cachedAPICalls.get(getKey(provider, resource, id, level));
+
+        if(entry == null || System.currentTimeMillis() > (entry.cachedAt + expireAfter)){
+            getStatistics(resource).recordMiss();
+            return null;
         }
-        else if (resource.equals(DATACENTER_WITH_LIMITS)){
-            if(now.getTime() > (datacenterWithLimitsCacheTime + datacenterWithLimitsThreshold)){
-                timeElapsed = true;
-                datacenterWithLimitsCacheTime = now.getTime();
+        getStatistics(resource).recordHit();
+        return (T)entry.value;
+    }
+
+    /**
+     * A load only stores its result while it is still the registered load for the key. Invalidating a key
+     * unregisters the load in flight, so a fetch that started before a mutation cannot put pre-mutation data back.
+     */
+    private @Nonnull FutureTask<Object> newLoad(final String key, final String resource, final Loader<?> loader){
+        final AtomicReference<FutureTask<Object>> self = new AtomicReference<FutureTask<Object>>();
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            public Object call() throws Exception {
+                long loadedAt = System.currentTimeMillis();
+                boolean loaded = false;
+
+                try {
+                    Object value = loader.load();
+
+                    loaded = true;
+                    synchronized( CallCache.this ) {
+                        if(loading.get(key) == self.get()){
+                            put(key, resource, value, loadedAt);
+                        }
+                    }
+                    return value;
+                }
+                finally {
+                    synchronized( CallCache.this ) {
+                        getStatistics(resource).recordLoad(System.currentTimeMillis() - loadedAt, loaded);
+                        if(loading.get(key) == self.get()){
+                            loading.remove(key);
+                        }
+                    }
+                }
+            }
+        });
+
+        self.set(task);
+        return task;
+    }
+
+    private @Nonnull Object load(String key, String resource, Loader<?> loader) throws CloudException, InternalException{
+        FutureTask<Object> task;
+        boolean owner = false;
+
+        synchronized( this ) {
+            task = loading.get(key);
+            if(task == null){
+                task = newLoad(key, resource, loader);
+                loading.put(key, task);
+                owner = true;
             }
         }
+        if(owner){
+            task.run();
+        }
+        try {
+            return task.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
 
-        Document doc;
-        if(!cachedAPICalls.containsKey(provider.getContext().getAccountNumber() + "-" + provider.getContext().getRegionId() + "-" + resource) || timeElapsed){
-            if(wire.isDebugEnabled()){
-                wire.debug("Getting real OpSource data: " + resource);
+            if(cause instanceof CloudException){
+                throw (CloudException)cause;
+            }
+            if(cause instanceof InternalException){
+                throw (InternalException)cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
             }
-            doc = getRealAPICall(provider, parameters, resource, regionServiceURL);
-            cachedAPICalls.put(provider.getContext().getAccountNumber() + "-" + provider.getContext().getRegionId() + "-" + resource, doc);
+            throw new InternalException(cause);
+        }
+    }
+
+    /**
+     * Must be called while holding the cache lock.
+     */
+    private void refresh(final OpSource provider, final String key, String resource, Loader<?> loader){
+        if(loading.containsKey(key)){
+            return;
+        }
+        final FutureTask<Object> task = newLoad(key, resource, loader);
+
+        loading.put(key, task);
+        try {
+            provider.getExecutors().execute(OpSourceExecutors.Pool.BACKGROUND, null, new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                        task.get();
+                    }
+                    catch( Throwable t ) {
+                        wire.warn("Background refresh of " + key + " failed: " + t.getMessage());
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e ) {
+            loading.remove(key);
         }
-        else{
+    }
+
+    public void put(@Nonnull OpSource provider, @Nonnull String resource, @Nonnull CacheLevel level, @Nonnull Object value){
+        put(provider, resource, null, level, value);
+    }
+
+    public void put(@Nonnull OpSource provider, @Nonnull String resource, @Nullable String id, @Nonnull CacheLevel level, @Nonnull Object value){
+        put(getKey(provider, resource, id, level), resource, value, System.currentTimeMillis());
+    }
+
+    private synchronized void put(String key, String resource, Object value, long cachedAt){
+        long weight = estimateWeight(key) + estimateWeight(value);
+
+        if(insert(key, new Entry(resource, value, cachedAt, weight, false)) && catalog != null && CatalogStore.isCatalog(resource)){
+            scheduleCatalogSave();
+        }
+    }
+
+    /**
+     * Must be called while holding the cache lock.
+     * @return false if the entry was too big to cache
+     */
+    private boolean insert(String key, Entry entry){
+        Entry old = cachedAPICalls.remove(key);
+
+        if(old != null){
+            totalWeight -= old.weight;
+        }
+        if(entry.weight > maximumWeight){
             if(wire.isDebugEnabled()){
-                wire.debug("Getting OpSource data from cache: " + provider.getContext().getAccountNumber() + "-" + provider.getContext().getRegionId() + "-" + resource);
+                wire.debug("Not caching " + key + ": " + entry.weight + " bytes exceeds the cache budget");
             }
-            doc = cachedAPICalls.get(provider.getContext().getAccountNumber() + "-" + provider.getContext().getRegionId() + "-" + resource);
+            return false;
+        }
+        cachedAPICalls.put(key, entry);
+        totalWeight += entry.weight;
+        evict();
+        return true;
+    }
+
+    private void evict(){
+        Iterator<Map.Entry<String, Entry>> it = cachedAPICalls.entrySet().iterator();
+
+        while(totalWeight > maximumWeight && it.hasNext()){
+            Entry eldest = it.next().getValue();
+
+            it.remove();
+            totalWeight -= eldest.weight;
+            evictionCount++;
+            getStatistics(eldest.resource).recordEviction();
+        }
+    }
+
+    /**
+     * Drops the cached value for the given resource in the provider's current account and region.
+     */
+    public void reset(@Nonnull OpSource provider, @Nonnull String resource){
+        reset(provider, resource, CacheLevel.REGION_ACCOUNT);
+    }
+
+    public synchronized void reset(@Nonnull OpSource provider, @Nonnull String resource, @Nonnull CacheLevel level){
+        String key = getKey(provider, resource, level);
+        Entry old = cachedAPICalls.remove(key);
+
+        if(old != null){
+            totalWeight -= old.weight;
         }
+        loading.remove(key);
+    }
+
+    /**
+     * Drops the values cached for the resource anywhere in the provider's account, whatever region or level
+     * they were cached at.
+     */
+    public void resetAccount(@Nonnull OpSource provider, @Nonnull String resource){
+        resetAccount(provider, resource, null);
+    }
+
+    /**
+     * Drops the values cached for the resource anywhere in the provider's account, limited to the item with the
+     * given ID when there is one.
+     */
+    public synchronized void resetAccount(@Nonnull OpSource provider, @Nonnull String resource, @Nullable String id){
+        String prefix = getAccountPrefix(provider);
+        Iterator<Map.Entry<String, Entry>> it = cachedAPICalls.entrySet().iterator();
 
-        if(wire.isDebugEnabled()){
-            try{
-                TransformerFactory transfac = TransformerFactory.newInstance();
-                Transformer trans = transfac.newTransformer();
-                trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-                trans.setOutputProperty(OutputKeys.INDENT, "yes");
+        while(it.hasNext()){
+            Map.Entry<String, Entry> e = it.next();
 
-                StringWriter sw = new StringWriter();
-                StreamResult result = new StreamResult(sw);
-                DOMSource source = new DOMSource(doc);
-                trans.transform(source, result);
-                String xmlString = sw.toString();
-                System.out.println(xmlString);
+            if(e.getKey().startsWith(prefix) && e.getValue().resource.equals(resource) && (id == null || e.getKey().endsWith("/" + id))){
+                it.remove();
+                totalWeight -= e.getValue().weight;
             }
-            catch(Exception ex){
-                ex.printStackTrace();
+        }
+        abandonLoads(prefix, resource);
+    }
+
+    /**
+     * Applies the patch to every value cached for the resource in the provider's account. Loads in flight
+     * are abandoned since they may have read the cloud before the change.
+     */
+    public synchronized void patchAccount(@Nonnull OpSource provider, @Nonnull String resource, @Nonnull Patch patch){
+        String prefix = getAccountPrefix(provider);
+        Iterator<Map.Entry<String, Entry>> it = cachedAPICalls.entrySet().iterator();
+
+        while(it.hasNext()){
+            Map.Entry<String, Entry> e = it.next();
+            Entry old = e.getValue();
+
+            if(!e.getKey().startsWith(prefix) || !old.resource.equals(resource)){
+                continue;
+            }
+            Object value = patch.apply(old.value);
+
+            totalWeight -= old.weight;
+            if(value == null){
+                it.remove();
+            }
+            else{
+                long weight = estimateWeight(e.getKey()) + estimateWeight(value);
+
+                e.setValue(new Entry(resource, value, old.cachedAt, weight, old.restored));
+                totalWeight += weight;
             }
         }
+        abandonLoads(prefix, resource);
+        evict();
+    }
+
+    private void abandonLoads(String prefix, String resource){
+        Iterator<String> it = loading.keySet().iterator();
+
+        while(it.hasNext()){
+            String key = it.next();
 
-        return doc;
+            if(key.startsWith(prefix) && (key.endsWith("-" + resource) || key.contains("-" + resource + "/"))){
+                it.remove();
+            }
+        }
     }
 
-    public void resetCacheTimer(String resource){
-        if(resource.equals(NETWORK_WITH_LOCATION)){
-            networkWithLocationCacheTime = 0L;
+    public synchronized void resetCacheTimer(String resource){
+        Iterator<Entry> it = cachedAPICalls.values().iterator();
+        while(it.hasNext()){
+            Entry entry = it.next();
+            if(entry.resource.equals(resource)){
+                it.remove();
+                totalWeight -= entry.weight;
+            }
+        }
+        abandonLoads("", resource);
+    }
+
+    public synchronized long getMaximumWeight(){
+        return maximumWeight;
+    }
+
+    /**
+     * Sets the approximate number of bytes all cached values may occupy, evicting least recently used
+     * entries if the cache is already above the new budget.
+     */
+    public synchronized void setMaximumWeight(long maximumWeight){
+        this.maximumWeight = maximumWeight;
+        evict();
+    }
+
+    public synchronized long getWeight(){
+        return totalWeight;
+    }
+
+    public synchronized int getSize(){
+        return cachedAPICalls.size();
+    }
+
+    public synchronized long getEvictionCount(){
+        return evictionCount;
+    }
+
+    public synchronized @Nonnull Map<String, Long> getEvictionCounts(){
+        HashMap<String, Long> counts = new HashMap<String, Long>();
+
+        for(CacheStatistics stats : statistics.values()){
+            if(stats.getEvictionCount() > 0L){
+                counts.put(stats.getName(), stats.getEvictionCount());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the statistics of every resource this cache has served so far
+     */
+    public synchronized @Nonnull Map<String, CacheStatistics> getStatistics(){
+        return new HashMap<String, CacheStatistics>(statistics);
+    }
+
+    /**
+     * Returns the statistics for the resource, registering them on first use. Must be called while holding the cache lock.
+     */
+    private @Nonnull CacheStatistics getStatistics(@Nonnull final String resource){
+        CacheStatistics stats = statistics.get(resource);
+
+        if(stats == null){
+            stats = CacheStatistics.getInstance(resource, new CacheStatistics.EntryCounter() {
+                public long countEntries() {
+                    return getEntryCount(resource);
+                }
+            });
+            statistics.put(resource, stats);
+        }
+        return stats;
+    }
+
+    public synchronized long getEntryCount(@Nonnull String resource){
+        long count = 0L;
+
+        for(Entry entry : cachedAPICalls.values()){
+            if(entry.resource.equals(resource)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Rough retained size of a cached value in bytes. Only the relative sizes matter, so the figures
+     * are approximations of a 64-bit JVM with compressed references.
+     */
+    static long estimateWeight(@Nullable Object value){
+        if(value == null){
+            return 0L;
+        }
+        if(value instanceof String){
+            return 40L + 2L * ((String)value).length();
+        }
+        if(value instanceof Number){
+            return 24L;
+        }
+        if(value instanceof Collection){
+            long weight = 32L;
+            for(Object item : (Collection<?>)value){
+                weight += 8L + estimateWeight(item);
+            }
+            return weight;
+        }
+        if(value instanceof DatacenterLimits){
+            DatacenterLimits limits = (DatacenterLimits)value;
+            return 32L + estimateWeight(limits.getLocation()) + estimateWeight(limits.getDisplayName()) + estimateWeight(limits.getCountry());
         }
-        else if(resource.equals(DATACENTER_WITH_LIMITS)){
-            datacenterWithLimitsCacheTime = 0L;
+        if(value instanceof NetworkWithLocation){
+            NetworkWithLocation network = (NetworkWithLocation)value;
+            return 32L + estimateWeight(network.getId()) + estimateWeight(network.getName()) + estimateWeight(network.getDescription()) + estimateWeight(network.getLocation()) + estimateWeight(network.getGateway());
         }
+        // a dasein model object with a handful of short strings and a tag map
+        return 512L;
     }
-}
\ No newline at end of file
+}
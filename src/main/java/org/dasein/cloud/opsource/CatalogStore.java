@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.ImageClass;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.MachineImageFormat;
+import org.dasein.cloud.compute.MachineImageState;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Megabyte;
+import org.dasein.util.uom.storage.Storage;
+
+/**
+ * Compact binary snapshot of the rarely changing catalog data in {@link CallCache}: the org ID, datacenter
+ * limits, VM products and the public image catalog. Records keep their cache keys, so they stay scoped by
+ * endpoint and account. The file is memory mapped for reading and replaced atomically on write.
+ */
+public class CatalogStore {
+    /**
+     * System property naming the snapshot file. No snapshot is read or written unless it is set.
+     */
+    static public final String CATALOG_PROPERTY = "dasein.opsource.catalogFile";
+
+    static private final int MAGIC   = 0x4F505343; // OPSC
+    static private final int VERSION = 2;
+
+    static private final byte STRING      = 1;
+    static private final byte DATACENTERS = 2;
+    static private final byte PRODUCTS    = 3;
+    static private final byte IMAGES      = 4;
+
+    static public class Record {
+        private final String key;
+        private final String resource;
+        private final long   cachedAt;
+        private final Object value;
+
+        public Record(@Nonnull String key, @Nonnull String resource, long cachedAt, @Nonnull Object value) {
+            this.key = key;
+            this.resource = resource;
+            this.cachedAt = cachedAt;
+            this.value = value;
+        }
+
+        public @Nonnull String getKey() {
+            return key;
+        }
+
+        public @Nonnull String getResource() {
+            return resource;
+        }
+
+        public long getCachedAt() {
+            return cachedAt;
+        }
+
+        public @Nonnull Object getValue() {
+            return value;
+        }
+    }
+
+    static public @Nullable CatalogStore getConfigured() {
+        String path = System.getProperty(CATALOG_PROPERTY);
+
+        if( path == null || path.length() < 1 ) {
+            return null;
+        }
+        return new CatalogStore(new File(path));
+    }
+
+    /**
+     * @return true if values cached for the resource belong in the snapshot
+     */
+    static public boolean isCatalog(@Nonnull String resource) {
+        return (resource.equals(CallCache.ORG_ID) || resource.equals(CallCache.DATACENTER_WITH_LIMITS)
+                || resource.equals(CallCache.IMAGE_CATALOG) || resource.startsWith(CallCache.VM_PRODUCTS));
+    }
+
+    private final File file;
+
+    public CatalogStore(@Nonnull File file) {
+        this.file = file;
+    }
+
+    public @Nonnull File getFile() {
+        return file;
+    }
+
+    public @Nonnull List<Record> read() throws IOException {
+        if( !file.exists() ) {
+            return Collections.emptyList();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+
+        try {
+            FileChannel channel = raf.getChannel();
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+        try {
+            if( buffer.getInt() != MAGIC ) {
+                throw new IOException(file.getPath() + " is not an OpSource catalog snapshot");
+            }
+            if( buffer.getInt() != VERSION ) {
+                return Collections.emptyList();
+            }
+            int count = buffer.getInt();
+            ArrayList<Record> records = new ArrayList<Record>(count);
+
+            for( int i=0; i<count; i++ ) {
+                String key = readString(buffer);
+                String resource = readString(buffer);
+                long cachedAt = buffer.getLong();
+                Object value = readValue(buffer);
+
+                if( key != null && resource != null && value != null ) {
+                    records.add(new Record(key, resource, cachedAt, value));
+                }
+            }
+            return records;
+        }
+        catch( BufferUnderflowException e ) {
+            throw new IOException(file.getPath() + " is truncated");
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the given records. Values of types the store does not know are skipped.
+     */
+    public void write(@Nonnull Collection<Record> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        int count = 0;
+
+        for( Record record : records ) {
+            byte[] value = writeValue(record.getValue());
+
+            if( value == null ) {
+                continue;
+            }
+            writeString(body, record.getKey());
+            writeString(body, record.getResource());
+            body.writeLong(record.getCachedAt());
+            body.write(value);
+            count++;
+        }
+        body.flush();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            bytes.writeTo(out);
+        }
+        finally {
+            out.close();
+        }
+        if( !tmp.renameTo(file) ) {
+            if( !file.delete() || !tmp.renameTo(file) ) {
+                tmp.delete();
+                throw new IOException("Unable to replace " + file.getPath());
+            }
+        }
+    }
+
+    private @Nullable byte[] writeValue(@Nonnull Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        if( value instanceof String ) {
+            out.writeByte(STRING);
+            writeString(out, (String)value);
+        }
+        else if( value instanceof List && !((List<?>)value).isEmpty() ) {
+            List<?> list = (List<?>)value;
+            Object first = list.get(0);
+
+            if( first instanceof DatacenterLimits ) {
+                out.writeByte(DATACENTERS);
+                out.writeInt(list.size());
+                for( Object item : list ) {
+                    DatacenterLimits limits = (DatacenterLimits)item;
+
+                    writeString(out, limits.getLocation());
+                    writeString(out, limits.getDisplayName());
+                    writeString(out, limits.getCountry());
+                    out.writeInt(limits.getMaxCpu());
+                    out.writeInt(limits.getMaxRamMb());
+                }
+            }
+            else if( first instanceof VirtualMachineProduct ) {
+                out.writeByte(PRODUCTS);
+                out.writeInt(list.size());
+                for( Object item : list ) {
+                    VirtualMachineProduct product = (VirtualMachineProduct)item;
+
+                    writeString(out, product.getProviderProductId());
+                    writeString(out, product.getName());
+                    writeString(out, product.getDescription());
+                    out.writeInt(product.getCpuCount());
+                    out.writeInt(product.getRamSize() == null ? 0 : product.getRamSize().intValue());
+                    out.writeInt(product.getRootVolumeSize() == null ? 0 : product.getRootVolumeSize().intValue());
+                    out.writeFloat(product.getStandardHourlyRate());
+                }
+            }
+            else if( first instanceof MachineImage ) {
+                out.writeByte(IMAGES);
+                out.writeInt(list.size());
+                for( Object item : list ) {
+                    MachineImage image = (MachineImage)item;
+
+                    writeString(out, image.getProviderMachineImageId());
+                    writeString(out, image.getName());
+                    writeString(out, image.getDescription());
+                    writeString(out, image.getProviderOwnerId());
+                    writeString(out, image.getProviderRegionId());
+                    writeString(out, image.getProviderDataCenterId());
+                    writeString(out, image.getSoftware());
+                    writeString(out, image.getKernelImageId());
+                    writeString(out, image.getPlatform() == null ? null : image.getPlatform().name());
+                    writeString(out, image.getArchitecture() == null ? null : image.getArchitecture().name());
+                    writeString(out, image.getImageClass() == null ? null : image.getImageClass().name());
+                    writeString(out, image.getCurrentState() == null ? null : image.getCurrentState().name());
+                    writeString(out, image.getStorageFormat() == null ? null : image.getStorageFormat().name());
+                    out.writeLong(image.getCreationTimestamp());
+
+                    Map<String,String> tags = image.getTags();
+
+                    out.writeInt(tags == null ? 0 : tags.size());
+                    if( tags != null ) {
+                        for( Map.Entry<String,String> tag : tags.entrySet() ) {
+                            writeString(out, tag.getKey());
+                            writeString(out, tag.getValue());
+                        }
+                    }
+                }
+            }
+            else {
+                return null;
+            }
+        }
+        else {
+            return null;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private @Nullable Object readValue(@Nonnull MappedByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+
+        switch( type ) {
+            case STRING:
+                return readString(buffer);
+            case DATACENTERS: {
+                int count = buffer.getInt();
+                ArrayList<DatacenterLimits> list = new ArrayList<DatacenterLimits>(count);
+
+                for( int i=0; i<count; i++ ) {
+                    String location = readString(buffer);
+                    String displayName = readString(buffer);
+                    String country = readString(buffer);
+                    int maxCpu = buffer.getInt();
+                    int maxRamMb = buffer.getInt();
+
+                    if( location != null ) {
+                        list.add(new DatacenterLimits(location, displayName, country, maxCpu, maxRamMb));
+                    }
+                }
+                return Collections.unmodifiableList(list);
+            }
+            case PRODUCTS: {
+                int count = buffer.getInt();
+                ArrayList<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>(count);
+
+                for( int i=0; i<count; i++ ) {
+                    VirtualMachineProduct product = new VirtualMachineProduct();
+
+                    product.setProviderProductId(readString(buffer));
+                    product.setName(readString(buffer));
+                    product.setDescription(readString(buffer));
+                    product.setCpuCount(buffer.getInt());
+                    product.setRamSize(new Storage<Megabyte>(buffer.getInt(), Storage.MEGABYTE));
+                    product.setRootVolumeSize(new Storage<Gigabyte>(buffer.getInt(), Storage.GIGABYTE));
+                    product.setStandardHourlyRate(buffer.getFloat());
+                    list.add(product);
+                }
+                return Collections.unmodifiableList(list);
+            }
+            case IMAGES: {
+                int count = buffer.getInt();
+                ArrayList<MachineImage> list = new ArrayList<MachineImage>(count);
+
+                for( int i=0; i<count; i++ ) {
+                    String imageId = readString(buffer);
+                    String name = readString(buffer);
+                    String description = readString(buffer);
+                    String ownerId = readString(buffer);
+                    String regionId = readString(buffer);
+                    String dataCenterId = readString(buffer);
+                    String software = readString(buffer);
+                    String kernelImageId = readString(buffer);
+                    // values written by a different dasein core are left unset; the background refresh replaces them
+                    Platform platform = toEnum(Platform.class, readString(buffer));
+                    Architecture architecture = toEnum(Architecture.class, readString(buffer));
+                    ImageClass imageClass = toEnum(ImageClass.class, readString(buffer));
+                    MachineImageState state = toEnum(MachineImageState.class, readString(buffer));
+                    MachineImageFormat format = toEnum(MachineImageFormat.class, readString(buffer));
+                    long createdAt = buffer.getLong();
+                    MachineImage image = MachineImage.getImageInstance(ownerId, regionId, imageId, imageClass, state, name, description, architecture, platform, format);
+
+                    image.createdAt(createdAt);
+                    if( dataCenterId != null ) {
+                        image.constrainedTo(dataCenterId);
+                    }
+                    if( software != null ) {
+                        image.withSoftware(software);
+                    }
+                    if( kernelImageId != null ) {
+                        image.setKernelImageId(kernelImageId);
+                    }
+                    HashMap<String,String> tags = new HashMap<String,String>();
+                    int tagCount = buffer.getInt();
+
+                    for( int j=0; j<tagCount; j++ ) {
+                        String key = readString(buffer);
+                        String value = readString(buffer);
+
+                        if( key != null && value != null ) {
+                            tags.put(key, value);
+                        }
+                    }
+                    image.setTags(tags);
+                    list.add(image);
+                }
+                return Collections.unmodifiableList(list);
+            }
+            default:
+                throw new IOException("Unknown record type " + type + " in " + file.getPath());
+        }
+    }
+
+    static private @Nullable <T extends Enum<T>> T toEnum(@Nonnull Class<T> type, @Nullable String name) {
+        if( name == null ) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        }
+        catch( IllegalArgumentException e ) {
+            return null;
+        }
+    }
+
+    static private void writeString(@Nonnull DataOutputStream out, @Nullable String value) throws IOException {
+        if( value == null ) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static private @Nullable String readString(@Nonnull MappedByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+
+        if( length < 0 ) {
+            return null;
+        }
+        if( length > buffer.remaining() ) {
+            throw new IOException("Catalog snapshot is truncated");
+        }
+        byte[] bytes = new byte[length];
+
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
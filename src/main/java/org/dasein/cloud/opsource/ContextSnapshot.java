@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.dasein.cloud.dc.Region;
+import org.dasein.cloud.network.VLAN;
+
+/**
+ * Immutable view of the account state every OpSource call depends on: the organization ID, the regions, the
+ * default region and VLAN, and the server products. Built by {@link OpSource#bootstrap()} and read without
+ * locking by the provider's hot paths, including <code>listRegions</code> and <code>listProducts</code>, for as
+ * long as the provider stays connected to the same context.
+ */
+public class ContextSnapshot {
+    static private final Logger logger = OpSource.getLogger(ContextSnapshot.class);
+
+    static @Nonnull String getScope(@Nonnull ProviderContext ctx) {
+        return ctx.getEndpoint() + "-" + ctx.getAccountNumber() + "-" + ctx.getRegionId();
+    }
+
+    /**
+     * Resolves the organization ID, then lists the regions, VLANs and products in parallel. Each lookup goes
+     * through the call cache, so a bootstrap also warms the entries later calls will read. The default VLAN is
+     * only looked up here; unlike {@link OpSource#getDefaultVlanId()}, a bootstrap never creates one.
+     */
+    static @Nonnull ContextSnapshot load(@Nonnull final OpSource provider) throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was set for this request");
+        }
+        long startedAt = System.currentTimeMillis();
+        String orgId = provider.getOrgId(provider.getEndpoint(ctx.getRegionId()));
+        OpSourceExecutors executors = provider.getExecutors();
+
+        Future<List<Region>> regions = executors.fork(new Callable<List<Region>>() {
+            public List<Region> call() throws Exception {
+                return new ArrayList<Region>(provider.getDataCenterServices().listRegions());
+            }
+        });
+        Future<List<VLAN>> vlans = executors.fork(new Callable<List<VLAN>>() {
+            public List<VLAN> call() throws Exception {
+                ArrayList<VLAN> list = new ArrayList<VLAN>();
+
+                for( VLAN vlan : provider.getNetworkServices().getVlanSupport().listVlans() ) {
+                    list.add(vlan);
+                }
+                return list;
+            }
+        });
+        Future<List<VirtualMachineProduct>> products = executors.fork(new Callable<List<VirtualMachineProduct>>() {
+            public List<VirtualMachineProduct> call() throws Exception {
+                ArrayList<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>();
+
+                // OpSource products do not depend on the architecture
+                for( VirtualMachineProduct product : provider.getComputeServices().getVirtualMachineSupport().listProducts(Architecture.I64) ) {
+                    list.add(product);
+                }
+                return list;
+            }
+        });
+
+        List<Region> regionList = await(regions);
+        List<VLAN> vlanList = await(vlans);
+        List<VirtualMachineProduct> productList = await(products);
+
+        String defaultRegionId = ctx.getRegionId();
+
+        if( defaultRegionId == null && !regionList.isEmpty() ) {
+            defaultRegionId = regionList.get(0).getProviderRegionId();
+        }
+        String defaultVlanId = null;
+
+        if( defaultRegionId != null ) {
+            for( VLAN vlan : vlanList ) {
+                if( defaultRegionId.equals(vlan.getProviderRegionId()) ) {
+                    defaultVlanId = vlan.getProviderVlanId();
+                    break;
+                }
+            }
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Bootstrapped " + getScope(ctx) + " in " + (System.currentTimeMillis() - startedAt) + "ms");
+        }
+        return new ContextSnapshot(getScope(ctx), orgId, regionList, defaultRegionId, defaultVlanId, productList);
+    }
+
+    /**
+     * Waits for a lookup and rethrows its failure as the cloud or internal exception the caller would have seen
+     * making the call itself.
+     */
+    static private @Nonnull <T> T await(@Nonnull Future<T> future) throws CloudException, InternalException {
+        try {
+            return future.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+
+    private final String scope;
+    private final String orgId;
+    private final List<Region> regions;
+    private final String defaultRegionId;
+    private final String defaultVlanId;
+    private final List<VirtualMachineProduct> products;
+
+    private ContextSnapshot(@Nonnull String scope, @Nonnull String orgId, @Nonnull List<Region> regions, @Nullable String defaultRegionId, @Nullable String defaultVlanId, @Nonnull List<VirtualMachineProduct> products) {
+        this.scope = scope;
+        this.orgId = orgId;
+        this.regions = Collections.unmodifiableList(regions);
+        this.defaultRegionId = defaultRegionId;
+        this.defaultVlanId = defaultVlanId;
+        this.products = Collections.unmodifiableList(products);
+    }
+
+    /**
+     * @return a copy of this snapshot without a default VLAN, for when that VLAN has been removed
+     */
+    @Nonnull ContextSnapshot withoutDefaultVlan() {
+        return new ContextSnapshot(scope, orgId, regions, defaultRegionId, null, products);
+    }
+
+    /**
+     * @return true if the snapshot was built for the context the provider is connected to now
+     */
+    public boolean isFor(@Nullable ProviderContext ctx) {
+        return (ctx != null && scope.equals(getScope(ctx)));
+    }
+
+    public @Nonnull String getOrgId() {
+        return orgId;
+    }
+
+    public @Nonnull List<Region> getRegions() {
+        return regions;
+    }
+
+    public @Nullable String getDefaultRegionId() {
+        return defaultRegionId;
+    }
+
+    /**
+     * @return the first VLAN in the default region at bootstrap, or <code>null</code> if there was none
+     */
+    public @Nullable String getDefaultVlanId() {
+        return defaultVlanId;
+    }
+
+    public @Nonnull List<VirtualMachineProduct> getProducts() {
+        return products;
+    }
+
+    @Override
+    public String toString() {
+        return scope + " [orgId=" + orgId + ", regions=" + regions.size() + ", defaultVlanId=" + defaultVlanId + ", products=" + products.size() + "]";
+    }
+}
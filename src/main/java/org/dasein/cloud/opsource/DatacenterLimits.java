@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Immutable view of a single <code>datacenterWithLimits</code> element. Instances are safe to share
+ * between threads and are what {@link CallCache} hands out instead of the raw DOM.
+ */
+public final class DatacenterLimits {
+    private final String location;
+    private final String displayName;
+    private final String country;
+    private final int    maxCpu;
+    private final int    maxRamMb;
+
+    public DatacenterLimits(@Nonnull String location, @Nullable String displayName, @Nullable String country, int maxCpu, int maxRamMb) {
+        this.location = location;
+        this.displayName = displayName;
+        this.country = country;
+        this.maxCpu = maxCpu;
+        this.maxRamMb = maxRamMb;
+    }
+
+    static public @Nonnull List<DatacenterLimits> parse(@Nonnull Document doc) {
+        ArrayList<DatacenterLimits> list = new ArrayList<DatacenterLimits>();
+        String sNS = "";
+        try{
+            sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
+        }
+        catch(IndexOutOfBoundsException ignore){
+            // ignore
+        }
+        NodeList blocks = doc.getElementsByTagName(sNS + "datacenterWithLimits");
+        if(blocks != null){
+            for(int i=0; i< blocks.getLength();i++){
+                DatacenterLimits limits = toLimits(blocks.item(i), sNS);
+                if(limits != null){
+                    list.add(limits);
+                }
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    static public @Nullable DatacenterLimits toLimits(@Nullable Node node, @Nonnull String nameSpace) {
+        if(node == null){
+            return null;
+        }
+        NodeList data = node.getChildNodes();
+
+        String location = null;
+        String displayName = null;
+        String country = null;
+        int maxCpu = 0;
+        int maxRamMb = 0;
+
+        for( int i=0; i<data.getLength(); i++ ) {
+            Node item = data.item(i);
+            if(item.getNodeType() == Node.TEXT_NODE || item.getFirstChild() == null) continue;
+
+            String value = item.getFirstChild().getNodeValue();
+            if( item.getNodeName().equals(nameSpace + "location") ) {
+                location = value;
+            }
+            else if( item.getNodeName().equals(nameSpace + "displayName") ) {
+                displayName = value;
+            }
+            else if( item.getNodeName().equals(nameSpace + "country") ) {
+                country = value;
+            }
+            else if( item.getNodeName().equals(nameSpace + "maxCpu") ) {
+                maxCpu = Integer.parseInt(value.trim());
+            }
+            else if( item.getNodeName().equals(nameSpace + "maxRamMb") ) {
+                maxRamMb = Integer.parseInt(value.trim());
+            }
+        }
+        if(location == null){
+            return null;
+        }
+        return new DatacenterLimits(location, displayName, country, maxCpu, maxRamMb);
+    }
+
+    public @Nonnull String getLocation() {
+        return location;
+    }
+
+    public @Nullable String getDisplayName() {
+        return displayName;
+    }
+
+    public @Nullable String getCountry() {
+        return country;
+    }
+
+    public int getMaxCpu() {
+        return maxCpu;
+    }
+
+    public int getMaxRamMb() {
+        return maxRamMb;
+    }
+
+    @Override
+    public String toString() {
+        return location + " [" + maxCpu + " CPU/" + maxRamMb + " MB]";
+    }
+}
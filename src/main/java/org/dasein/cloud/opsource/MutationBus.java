@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tells every cache holding OpSource state that a successful API call changed something in the cloud.
+ * Operations publish once the request has been accepted; listeners decide which of their entries to evict
+ * or patch. Listeners are called on the publishing thread and must not block.
+ */
+public class MutationBus {
+    static private final Logger logger = OpSource.getLogger(MutationBus.class);
+
+    static public enum Mutation {
+        VLAN_CREATED, VLAN_REMOVED,
+        FIREWALL_RULE_ADDED, FIREWALL_RULE_REMOVED,
+        ADDRESS_ASSIGNED, ADDRESS_RELEASED,
+        LOAD_BALANCER_CREATED, LOAD_BALANCER_REMOVED,
+        SERVER_CHANGED,
+        IMAGE_CAPTURED, IMAGE_REMOVED
+    }
+
+    static public interface Listener {
+        /**
+         * @param provider the provider whose context (endpoint, account, region) the mutation happened in
+         * @param mutation what changed
+         * @param resourceId the ID of the VLAN, firewall, address, load balancer, server or image that changed, if known
+         * @param relatedId the ID of the other party to the change (such as the server an address was assigned to), if any
+         */
+        public void mutated(@Nonnull OpSource provider, @Nonnull Mutation mutation, @Nullable String resourceId, @Nullable String relatedId);
+    }
+
+    static private final MutationBus bus = new MutationBus();
+
+    static public @Nonnull MutationBus getInstance() {
+        return bus;
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private MutationBus() { }
+
+    public void addListener(@Nonnull Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(@Nonnull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void publish(@Nonnull OpSource provider, @Nonnull Mutation mutation, @Nullable String resourceId) {
+        publish(provider, mutation, resourceId, null);
+    }
+
+    public void publish(@Nonnull OpSource provider, @Nonnull Mutation mutation, @Nullable String resourceId, @Nullable String relatedId) {
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Publishing " + mutation + " for " + resourceId);
+        }
+        for( Listener listener : listeners ) {
+            try {
+                listener.mutated(provider, mutation, resourceId, relatedId);
+            }
+            catch( RuntimeException e ) {
+                // a broken listener must never fail the operation that has already succeeded in the cloud
+                logger.warn("Cache listener failed on " + mutation + " for " + resourceId + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
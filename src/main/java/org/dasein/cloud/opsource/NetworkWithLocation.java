@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Immutable view of a single <code>network</code> element from a <code>networkWithLocation</code> listing.
+ */
+public final class NetworkWithLocation {
+    private final String id;
+    private final String name;
+    private final String description;
+    private final String location;
+    private final String gateway;
+
+    public NetworkWithLocation(@Nonnull String id, @Nullable String name, @Nullable String description, @Nullable String location, @Nullable String gateway) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.location = location;
+        this.gateway = gateway;
+    }
+
+    static public @Nonnull List<NetworkWithLocation> parse(@Nonnull Document doc) {
+        ArrayList<NetworkWithLocation> list = new ArrayList<NetworkWithLocation>();
+        String sNS = "";
+        try{
+            sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
+        }
+        catch(IndexOutOfBoundsException ignore){
+            // ignore
+        }
+        NodeList matches = doc.getElementsByTagName(sNS + "network");
+        if(matches != null){
+            for( int i=0; i<matches.getLength(); i++ ) {
+                NetworkWithLocation network = toNetwork(matches.item(i), sNS);
+                if(network != null){
+                    list.add(network);
+                }
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    static private @Nullable NetworkWithLocation toNetwork(@Nullable Node node, @Nonnull String nameSpace) {
+        if(node == null){
+            return null;
+        }
+        NodeList attributes = node.getChildNodes();
+
+        String id = null;
+        String name = null;
+        String description = null;
+        String location = null;
+        String gateway = null;
+
+        for( int i=0; i<attributes.getLength(); i++ ) {
+            Node attribute = attributes.item(i);
+            if(attribute.getNodeType() == Node.TEXT_NODE || attribute.getFirstChild() == null) continue;
+
+            String nodeName = attribute.getNodeName();
+            String value = attribute.getFirstChild().getNodeValue();
+
+            if( nodeName.equalsIgnoreCase(nameSpace + "id") ) {
+                id = value;
+            }
+            else if( nodeName.equalsIgnoreCase(nameSpace + "name") ) {
+                if( name == null ) {
+                    name = value;
+                }
+            }
+            else if( nodeName.equalsIgnoreCase(nameSpace + "description") ) {
+                description = value;
+            }
+            else if( nodeName.equalsIgnoreCase(nameSpace + "location") ) {
+                location = value;
+            }
+            else if( value != null && (nodeName.equalsIgnoreCase(nameSpace + "publicSnat") || nodeName.equalsIgnoreCase(nameSpace + "privateSnat") || nodeName.equalsIgnoreCase(nameSpace + "privateNet")) ) {
+                gateway = value;
+            }
+        }
+        if(id == null){
+            return null;
+        }
+        return new NetworkWithLocation(id, name, description, location, gateway);
+    }
+
+    public @Nonnull String getId() {
+        return id;
+    }
+
+    public @Nullable String getName() {
+        return name;
+    }
+
+    public @Nullable String getDescription() {
+        return description;
+    }
+
+    public @Nullable String getLocation() {
+        return location;
+    }
+
+    public @Nullable String getGateway() {
+        return gateway;
+    }
+
+    @Override
+    public String toString() {
+        return id + " (" + location + ")";
+    }
+}
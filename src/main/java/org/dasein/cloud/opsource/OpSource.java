@@ -50,8 +50,8 @@ import org.dasein.cloud.network.VLANSupport;
 import org.dasein.cloud.opsource.compute.OpSourceComputeServices;
 import org.dasein.cloud.opsource.network.OpSourceNetworkServices;
 import org.dasein.cloud.util.APITrace;
-import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
 
 import org.w3c.dom.Node;
@@ -87,7 +87,48 @@ public class OpSource extends AbstractCloud {
         return Logger.getLogger("dasein.cloud.opsource.wire." + getLastItem(cls.getPackage().getName()) + "." + getLastItem(cls.getName()));
     }
 
-    public OpSource(){}
+    /** every live provider, so a removed VLAN is forgotten by all providers connected to the same account and region */
+    static private final Set<OpSource> providers = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<OpSource, Boolean>()));
+
+    static {
+        MutationBus.getInstance().addListener(new MutationBus.Listener() {
+            public void mutated(@Nonnull OpSource provider, @Nonnull MutationBus.Mutation mutation, @Nullable String resourceId, @Nullable String relatedId) {
+                ProviderContext ctx = provider.getContext();
+
+                if( !mutation.equals(MutationBus.Mutation.VLAN_REMOVED) || resourceId == null || ctx == null ) {
+                    return;
+                }
+                String scope = ContextSnapshot.getScope(ctx);
+                ArrayList<OpSource> list;
+
+                synchronized( providers ) {
+                    list = new ArrayList<OpSource>(providers);
+                }
+                for( OpSource p : list ) {
+                    ProviderContext c = p.getContext();
+
+                    if( c != null && scope.equals(ContextSnapshot.getScope(c)) ) {
+                        p.forgetVlan(resourceId);
+                    }
+                }
+            }
+        });
+    }
+
+    public OpSource(){
+        providers.add(this);
+    }
+
+    private void forgetVlan(@Nonnull String vlanId) {
+        ContextSnapshot s = snapshot;
+
+        if( s != null && vlanId.equals(s.getDefaultVlanId()) ) {
+            snapshot = s.withoutDefaultVlan();
+        }
+        if( vlanId.equals(defaultVlanId) ) {
+            defaultVlanId = null;
+        }
+    }
 
     /** Request URL path */
     static public final String IMAGE_BASE_PATH             		= "image";
@@ -129,8 +170,57 @@ public class OpSource extends AbstractCloud {
     public String defaultVlanId = null;
     private String defaultRegionId = null;
     private String defaultAdminPasswordForVM = null;
+    private volatile ContextSnapshot snapshot = null;
+    private final OpSourceExecutors executors = new OpSourceExecutors(this);
+
+    /**
+     * @return the pools all background work of this provider runs on
+     */
+    public @Nonnull OpSourceExecutors getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Stops accepting background work; work already accepted holds the provider open until it is done.
+     */
+    @Override
+    public void close() {
+        executors.shutdown();
+        super.close();
+    }
 
-    private static HashMap<String, String> region2EndpointMap = new HashMap<String, String>();
+    /**
+     * Resolves the organization ID, regions, default VLAN and products for the current context in parallel
+     * and publishes them as an immutable snapshot. Calling this right after connecting is optional; without it
+     * each piece is looked up the first time a call needs it.
+     * @return the new snapshot
+     */
+    public @Nonnull ContextSnapshot bootstrap() throws CloudException, InternalException {
+        APITrace.begin(this, "Cloud.bootstrap");
+        try {
+            // listRegions and listProducts answer from the snapshot, so drop it to make them ask the cloud again
+            snapshot = null;
+            ContextSnapshot s = ContextSnapshot.load(this);
+
+            snapshot = s;
+            return s;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * @return the snapshot from the last {@link #bootstrap()}, or <code>null</code> if there was none for the current context
+     */
+    public @Nullable ContextSnapshot getContextSnapshot() {
+        ContextSnapshot s = snapshot;
+
+        if( s == null || !s.isFor(getContext()) ) {
+            return null;
+        }
+        return s;
+    }
 
     public String buildUrl(String command, boolean isDeployed, Map<Integer, Param> parameters) throws InternalException, CloudException {
         StringBuilder str = new StringBuilder();
@@ -287,7 +377,7 @@ public class OpSource extends AbstractCloud {
         if(image == null){
             throw new CloudException ("No such image");
         }
-        if(image.getProviderOwnerId() == this.getContext().getAccountNumber()){
+        if(getContext().getAccountNumber().equals(image.getProviderOwnerId())){
             return "/oec/"+ getOrgId(getEndpoint(getContext().getRegionId()))+"/image/"+ imageId;
         }else{
             return "/oec/base/image/"+ imageId;
@@ -299,6 +389,11 @@ public class OpSource extends AbstractCloud {
         defaultRegionId = getContext().getRegionId();
         //}
         if(defaultRegionId == null){
+            ContextSnapshot s = getContextSnapshot();
+
+            if(s != null && s.getDefaultRegionId() != null){
+                return s.getDefaultRegionId();
+            }
             ArrayList<Region> list =  (ArrayList<Region>) getDataCenterServices().listRegions();
             defaultRegionId = list.get(0).getProviderRegionId();
         }
@@ -310,6 +405,12 @@ public class OpSource extends AbstractCloud {
         if(defaultVlanId != null){
             return defaultVlanId;
         }
+        ContextSnapshot s = getContextSnapshot();
+
+        if(s != null && s.getDefaultVlanId() != null){
+            defaultVlanId = s.getDefaultVlanId();
+            return defaultVlanId;
+        }
         VLANSupport vlanSupport = getNetworkServices().getVlanSupport();
         ArrayList<VLAN> lists = (ArrayList<VLAN>) vlanSupport.listVlans();
         for(VLAN vlan: lists){
@@ -372,7 +473,10 @@ public class OpSource extends AbstractCloud {
     public String getEndpoint(String regionId){
         String endpoint = getContext().getEndpoint();
         if(regionId != null){
-            if(region2EndpointMap == null || !region2EndpointMap.containsKey(regionId)){
+            RegionEndpointRegistry registry = RegionEndpointRegistry.getInstance();
+
+            endpoint = registry.getEndpoint(this, regionId);
+            if(endpoint == null){
                 OpSourceLocation opsLocation = new OpSourceLocation(this);
                 try{
                     opsLocation.listRegions();
@@ -383,8 +487,8 @@ public class OpSource extends AbstractCloud {
                 catch(InternalException ex){
 
                 }
+                endpoint = registry.getEndpoint(this, regionId);
             }
-            endpoint = region2EndpointMap.get(regionId);
         }
         if(endpoint == null){
             return null;
@@ -408,38 +512,38 @@ public class OpSource extends AbstractCloud {
     }
 
 
-    public String getOrgId(String endpoint) throws InternalException,CloudException{
-        Cache<String> daseinCache = Cache.getInstance(this, "orgId", String.class, CacheLevel.CLOUD_ACCOUNT);
-        Collection<String> orgIds = (Collection<String>)daseinCache.get(getContext());
+    public String getOrgId(final String endpoint) throws InternalException,CloudException{
+        ContextSnapshot s = getContextSnapshot();
 
-        String orgId = "";
-        if(orgIds == null){
-            String url = endpoint + "/oec/0.9/myaccount";
-            HashMap<String,String> parameters = new HashMap<String,String>();
+        if(s != null){
+            return s.getOrgId();
+        }
+        return CallCache.getInstance().get(this, CallCache.ORG_ID, CacheLevel.CLOUD_ACCOUNT, CalendarWrapper.DAY, new CallCache.Loader<String>() {
+            public @Nonnull String load() throws CloudException, InternalException {
+                return fetchOrgId(endpoint);
+            }
+        });
+    }
 
-            parameters.put(Content_Type_Key, Content_Type_Value_Single_Para);
-            parameters.put(HTTP_Method_Key, "GET");
+    private @Nonnull String fetchOrgId(String endpoint) throws InternalException,CloudException{
+        String url = endpoint + "/oec/0.9/myaccount";
+        HashMap<String,String> parameters = new HashMap<String,String>();
 
-            OpSourceMethod method = new OpSourceMethod(this, url, parameters);
-            Document doc = method.invoke();
-            String sNS = "";
-            try{
-                sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
-            }
-            catch(IndexOutOfBoundsException ex){}
-            NodeList blocks = doc.getElementsByTagName(sNS + "orgId");
-            if(blocks != null){
-                orgId = blocks.item(0).getFirstChild().getNodeValue();
-                orgIds = new ArrayList<String>();
-                orgIds.add(orgId);
-                daseinCache.put(getContext(), orgIds);
+        parameters.put(Content_Type_Key, Content_Type_Value_Single_Para);
+        parameters.put(HTTP_Method_Key, "GET");
 
-            }else{
-                throw new CloudException("Can not load orgId information!!!");
-            }
+        OpSourceMethod method = new OpSourceMethod(this, url, parameters);
+        Document doc = method.invoke();
+        String sNS = "";
+        try{
+            sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
+        }
+        catch(IndexOutOfBoundsException ex){}
+        NodeList blocks = doc.getElementsByTagName(sNS + "orgId");
+        if(blocks != null && blocks.getLength() > 0){
+            return blocks.item(0).getFirstChild().getNodeValue();
         }
-        else orgId = daseinCache.get(getContext()).iterator().next();
-        return orgId;
+        throw new CloudException("Can not load orgId information!!!");
     }
 
     public String getBasicUrl() throws CloudException{
@@ -536,7 +640,7 @@ public class OpSource extends AbstractCloud {
     }
 
     public void setRegionEndpoint(String region, String endpoint){
-        region2EndpointMap.put(region, endpoint);
+        RegionEndpointRegistry.getInstance().setEndpoint(this, region, endpoint);
     }
 
     @Override
@@ -623,9 +727,9 @@ public class OpSource extends AbstractCloud {
                     try {
                         //Document doc = method.invoke();
                         //HashMap<Integer, Param> parameters = (HashMap)getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null);
-                        Document doc = CallCache.getInstance().getAPICall(LOCATION_BASE_PATH, this, new HashMap<Integer, Param>(), getRegionServiceUrl(null));
+                        List<DatacenterLimits> regions = CallCache.getInstance().getDatacentersWithLimits(this, getRegionServiceUrl(null));
                         if( logger.isDebugEnabled()) {
-                            logger.debug("Found regions: "+ convertDomToString(doc));
+                            logger.debug("Found regions: "+ regions);
                         }
                         return pk;
                     }
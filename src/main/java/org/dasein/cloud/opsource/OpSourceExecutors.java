@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.util.EnumMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorPopulator;
+
+/**
+ * Runs a provider's background work on a small set of named, bounded thread pools. The pools are shared by
+ * every provider in the JVM, since providers are usually created per request, and their idle threads die off.
+ * Each provider submits through its own instance, which holds the provider for the duration of every task and
+ * stops accepting work once the provider is closed; tasks already accepted run to completion.
+ * <p>
+ * Pool sizes and queue limits can be changed with the system properties
+ * <code>dasein.opsource.pool.&lt;pool&gt;.threads</code> and <code>dasein.opsource.pool.&lt;pool&gt;.queue</code>,
+ * where <code>&lt;pool&gt;</code> is the lower case pool name.
+ * </p>
+ */
+public class OpSourceExecutors {
+    static private final Logger logger = OpSource.getLogger(OpSourceExecutors.class);
+
+    static public final String PROPERTY_PREFIX = "dasein.opsource.pool.";
+
+    static private final long KEEP_ALIVE_SECONDS = 60L;
+
+    /** How long a task the pool could not take waits before it is handed over again */
+    static private final long RETRY_MILLIS = 5000L;
+
+    /**
+     * Tasks in one pool may wait on tasks of pools listed after it, never the other way round.
+     */
+    static public enum Pool {
+        /** configuration and alteration of servers after the call that started them has returned */
+        LIFECYCLE("Lifecycle", 4, 256),
+        /** cache refreshes, fleet listings and catalog saves */
+        BACKGROUND("Background", 2, 256),
+        /** listings streamed to the caller; these wait on fetches */
+        STREAMING("Streaming", 8, 512),
+        /** single API calls such as one page of a listing; these never wait on other tasks */
+        FETCH("Fetch", 8, 512);
+
+        private final String name;
+        private final int    threads;
+        private final int    queue;
+
+        private Pool(String name, int threads, int queue) {
+            this.name = name;
+            this.threads = threads;
+            this.queue = queue;
+        }
+
+        public @Nonnull String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return Math.max(1, Integer.getInteger(PROPERTY_PREFIX + name.toLowerCase() + ".threads", threads));
+        }
+
+        public int getQueueLimit() {
+            return Math.max(1, Integer.getInteger(PROPERTY_PREFIX + name.toLowerCase() + ".queue", queue));
+        }
+    }
+
+    static private final EnumMap<Pool, ThreadPoolExecutor> pools = new EnumMap<Pool, ThreadPoolExecutor>(Pool.class);
+
+    static private synchronized @Nonnull ThreadPoolExecutor getPool(@Nonnull final Pool pool) {
+        ThreadPoolExecutor executor = pools.get(pool);
+
+        if( executor == null ) {
+            executor = new ThreadPoolExecutor(pool.getThreads(), pool.getThreads(), KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(pool.getQueueLimit()), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r);
+
+                    t.setName("OpSource " + pool.getName() + " " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            pools.put(pool, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Runs JVM-wide work that belongs to no single provider, such as saving the catalog snapshot.
+     * @throws RejectedExecutionException if the pool's queue is full
+     */
+    static public @Nonnull Future<?> executeShared(@Nonnull Pool pool, @Nonnull Runnable task) {
+        return getPool(pool).submit(task);
+    }
+
+    static private ScheduledThreadPoolExecutor timer;
+
+    static private synchronized @Nonnull ScheduledThreadPoolExecutor getTimer() {
+        if( timer == null ) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r);
+
+                    t.setName("OpSource Timer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Runs JVM-wide work in the pool once the delay has passed. The single timer thread only hands the task to
+     * the pool, so no pool thread sits waiting for the delay; if the pool cannot take the task then, the hand-off
+     * is tried again after the same delay, but at least a second.
+     * @return the pending hand-off; cancelling it before the delay has passed keeps the task from running
+     */
+    static public @Nonnull Future<?> scheduleShared(@Nonnull final Pool pool, @Nonnull final Runnable task, final long delayMillis) {
+        return getTimer().schedule(new Runnable() {
+            public void run() {
+                try {
+                    executeShared(pool, task);
+                }
+                catch( RejectedExecutionException e ) {
+                    long retryMillis = Math.max(delayMillis, 1000L);
+
+                    logger.warn("The " + pool.getName() + " pool rejected a scheduled task, retrying in " + retryMillis + "ms: " + e.getMessage());
+                    scheduleShared(pool, task, retryMillis);
+                }
+            }
+        }, Math.max(0L, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels a hand-off returned by {@link #scheduleShared(Pool, Runnable, long)} and takes it off the timer's
+     * queue, so a long delay does not keep the task and everything it refers to alive until it has passed.
+     */
+    static public void cancelShared(@Nonnull Future<?> scheduled) {
+        scheduled.cancel(false);
+        if( scheduled instanceof Runnable ) {
+            getTimer().remove((Runnable)scheduled);
+        }
+    }
+
+    private final OpSource provider;
+    private volatile boolean shutdown = false;
+
+    OpSourceExecutors(@Nonnull OpSource provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Runs the task in the pool, holding the provider until it is done.
+     * @param name the name the worker thread carries while running the task, if any
+     * @throws RejectedExecutionException if the provider is closed or the pool's queue is full
+     */
+    public @Nonnull <T> Future<T> submit(@Nonnull Pool pool, @Nullable final String name, @Nonnull final Callable<T> task) {
+        if( shutdown ) {
+            throw new RejectedExecutionException("The provider has been closed");
+        }
+        provider.hold();
+        try {
+            return getPool(pool).submit(new Callable<T>() {
+                public T call() throws Exception {
+                    Thread thread = Thread.currentThread();
+                    String poolName = thread.getName();
+
+                    if( name != null ) {
+                        thread.setName(name);
+                    }
+                    try {
+                        return task.call();
+                    }
+                    finally {
+                        thread.setName(poolName);
+                        provider.release();
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e ) {
+            provider.release();
+            logger.warn("The " + pool.getName() + " pool rejected " + (name == null ? "a task" : name) + ": " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * @see #submit(Pool, String, Callable)
+     */
+    public @Nonnull Future<?> execute(@Nonnull Pool pool, @Nullable String name, @Nonnull final Runnable task) {
+        return submit(pool, name, new Callable<Object>() {
+            public Object call() throws Exception {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs the task in the pool like {@link #execute(Pool, String, Runnable)}, but if the pool's queue is full
+     * the task is handed over again later through {@link #scheduleShared(Pool, Runnable, long)} rather than
+     * rejected, so long work is neither lost nor run on the calling thread. The provider is held until the task
+     * has run.
+     * @throws RejectedExecutionException if the provider is closed
+     */
+    public void executeEventually(@Nonnull Pool pool, @Nullable final String name, @Nonnull final Runnable task) {
+        try {
+            execute(pool, name, task);
+            return;
+        }
+        catch( RejectedExecutionException e ) {
+            if( shutdown ) {
+                throw e;
+            }
+        }
+        provider.hold();
+        scheduleShared(pool, new Runnable() {
+            public void run() {
+                Thread thread = Thread.currentThread();
+                String poolName = thread.getName();
+
+                if( name != null ) {
+                    thread.setName(name);
+                }
+                try {
+                    task.run();
+                }
+                finally {
+                    thread.setName(poolName);
+                    provider.release();
+                }
+            }
+        }, RETRY_MILLIS);
+    }
+
+    /**
+     * Runs a single API call on the {@link Pool#FETCH} pool, or on the calling thread if the pool cannot take it,
+     * so callers fanning out never fail for lack of capacity.
+     */
+    public @Nonnull <T> Future<T> fork(@Nonnull Callable<T> call) {
+        try {
+            return submit(Pool.FETCH, null, call);
+        }
+        catch( RejectedExecutionException e ) {
+            FutureTask<T> inline = new FutureTask<T>(call);
+
+            inline.run();
+            return inline;
+        }
+    }
+
+    /**
+     * Streams the populator's results on the {@link Pool#STREAMING} pool. If the pool cannot take the work,
+     * the populator runs on the calling thread and the complete result is returned.
+     */
+    public @Nonnull <T> Iterable<T> stream(@Nonnull final JiteratorPopulator<T> populator) {
+        final Jiterator<T> iterator = new Jiterator<T>();
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    populator.populate(iterator);
+                    iterator.complete();
+                }
+                catch( Exception e ) {
+                    iterator.setLoadException(e);
+                }
+                catch( Throwable t ) {
+                    iterator.setLoadException(new RuntimeException(t));
+                }
+            }
+        };
+
+        try {
+            execute(Pool.STREAMING, null, task);
+        }
+        catch( RejectedExecutionException e ) {
+            task.run();
+        }
+        return iterator;
+    }
+
+    /**
+     * Stops accepting new tasks for this provider.
+     */
+    void shutdown() {
+        shutdown = true;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+}
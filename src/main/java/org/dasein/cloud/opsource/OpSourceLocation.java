@@ -27,7 +27,11 @@ import org.dasein.cloud.dc.DataCenter;
 import org.dasein.cloud.dc.DataCenterServices;
 import org.dasein.cloud.dc.Region;
 
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -36,6 +40,13 @@ import javax.annotation.Nonnull;
 
 public class OpSourceLocation implements DataCenterServices {
 	
+	static private final Logger logger = OpSource.getLogger(OpSourceLocation.class);
+
+    /** How long an endpoint that refused the account or answered without any locations for it is skipped */
+    static private final long UNAUTHORIZED_TTL = CalendarWrapper.DAY;
+    /** How long an endpoint that failed for any other reason, such as a timeout or a server error, is skipped */
+    static private final long TRANSIENT_TTL    = CalendarWrapper.MINUTE;
+
 	private OpSource provider = null;
 
 	OpSourceLocation(OpSource provider) {
@@ -123,6 +134,12 @@ public class OpSourceLocation implements DataCenterServices {
     public Collection<Region> listRegions() throws InternalException,CloudException {
         APITrace.begin(provider, "DC.listRegions");
         try{
+            ContextSnapshot s = provider.getContextSnapshot();
+
+            if(s != null){
+                // callers cast the result to ArrayList and may change it
+                return new ArrayList<Region>(s.getRegions());
+            }
             ArrayList<Region> list = new ArrayList <Region>();
 
             HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
@@ -136,69 +153,63 @@ public class OpSourceLocation implements DataCenterServices {
     			provider.buildUrl(null,true, parameters),
     			provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
 		    Document doc = method.invoke();*/
-                Document doc = CallCache.getInstance().getAPICall(OpSource.LOCATION_BASE_PATH, provider, parameters, "");
-                String sNS = "";
-                try{
-                    sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
-                }
-                catch(IndexOutOfBoundsException ex){}
-                NodeList blocks = doc.getElementsByTagName(sNS + "datacenterWithLimits");
-                if(blocks != null){
-                    for(int i=0; i< blocks.getLength();i++){
-                        Node item = blocks.item(i);
-                        Region region = toRegion(item, sNS);
-                        if(region != null){
-                            list.add(region);
-                            provider.setRegionEndpoint(region.getProviderRegionId(), provider.getContext().getEndpoint());
-                        }
-                    }
+                for(DatacenterLimits limits : CallCache.getInstance().getDatacentersWithLimits(provider, "")){
+                    Region region = toRegion(limits);
+                    list.add(region);
+                    provider.setRegionEndpoint(region.getProviderRegionId(), provider.getContext().getEndpoint());
                 }
             }
             else{
                 HashMap<String, ArrayList<String>> endpointMap = provider.getProivderEndpointMap();
                 ArrayList<String> currentCloudEndpoints = endpointMap.get(cloudName);
                 for(String endpoint : currentCloudEndpoints){
+                    String t = endpoint.toLowerCase();
+                    if(!(t.startsWith("http://") || t.startsWith("https://") || t.matches("^[a-z]+://.*"))){
+                        endpoint = "https://" + endpoint;
+                    }
+                    if(isUnusable(endpoint)){
+                        continue;
+                    }
+                    OpSourceMethod method = null;
                     try{
-                        String t = endpoint.toLowerCase();
-                        if(!(t.startsWith("http://") || t.startsWith("https://") || t.matches("^[a-z]+://.*"))){
-                            endpoint = "https://" + endpoint;
-                        }
-
-                        OpSourceMethod method = new OpSourceMethod(provider,
+                        method = new OpSourceMethod(provider,
                                 provider.buildUrlWithEndpoint(endpoint, null,true, parameters),
                                 provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
                         Document doc = method.invoke();
+                        /*
+                        Accounts legitimately don't have access to all the endpoints. Rather than a nice XML API error
+                        response, OpSource returns the default apache htaccess 401 page, which does not parse.
+                         */
+                        List<DatacenterLimits> limitsList = (doc == null ? Collections.<DatacenterLimits>emptyList() : DatacenterLimits.parse(doc));
 
-                        //Document doc = CallCache.getInstance().getAPICall(OpSource.LOCATION_BASE_PATH, provider, parameters, "");
-                        String sNS = "";
-                        try{
-                            sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
-                        }
-                        catch(IndexOutOfBoundsException ex){}
-                        NodeList blocks = doc.getElementsByTagName(sNS + "datacenterWithLimits");
-                        if(blocks != null){
-                            for(int i=0; i< blocks.getLength();i++){
-                                Node item = blocks.item(i);
-                                Region region = toRegion(item, sNS);
-                                if(region != null){
-                                    list.add(region);
-                                    provider.setRegionEndpoint(region.getProviderRegionId(), endpoint);
-                                }
+                        if(limitsList.isEmpty()){
+                            if(method.getStatus() == HttpStatus.SC_OK || isUnauthorized(method.getStatus(), doc)){
+                                markUnusable(endpoint, UNAUTHORIZED_TTL, "no locations available to this account");
+                            }
+                            else{
+                                logger.warn("Unable to list locations at " + endpoint + ": HTTP status " + method.getStatus());
+                                markUnusable(endpoint, TRANSIENT_TTL, "HTTP status " + method.getStatus());
                             }
+                            continue;
+                        }
+                        for(DatacenterLimits limits : limitsList){
+                            Region region = toRegion(limits);
+                            list.add(region);
+                            provider.setRegionEndpoint(region.getProviderRegionId(), endpoint);
                         }
                     }
                     catch(Exception ex){
-                        //System.out.println("OpSourceLocation error");
-                        //ex.printStackTrace();
-                    /*
-                    If this fails it is likely a 401 authentication error against the endpoint.
-                    Rather than getting a nice XML API error response however, OpSource returns the default apache htaccess 401 error
-                    so it fails to parse and throws an exception. We're not really interested in this exception as some accounts
-                    legitimately don't have access to all the endpoints.
-                     */
+                        if(method != null && isUnauthorized(method.getStatus(), null)){
+                            markUnusable(endpoint, UNAUTHORIZED_TTL, ex.getMessage());
+                        }
+                        else{
+                            logger.warn("Unable to list locations at " + endpoint + ": " + ex.getMessage());
+                            markUnusable(endpoint, TRANSIENT_TTL, ex.getMessage());
+                        }
                     }
                 }
             }
+            RegionEndpointRegistry.getInstance().persist();
             return list;
         }
         finally {
@@ -206,6 +217,42 @@ public class OpSourceLocation implements DataCenterServices {
         }
     }
 
+    /**
+     * @param doc the parsed error response, if any
+     * @return true if the endpoint refused the account, by HTTP status or by an <code>UNAUTHORIZED</code> result code
+     */
+    private boolean isUnauthorized(int status, Document doc){
+        if(status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN){
+            return true;
+        }
+        if(doc == null){
+            return false;
+        }
+        NodeList codes = doc.getElementsByTagNameNS("*", "resultCode");
+
+        for(int i=0; i<codes.getLength(); i++){
+            String code = codes.item(i).getTextContent();
+
+            if(code != null && code.trim().toUpperCase().contains("UNAUTHORIZED")){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isUnusable(String endpoint){
+        Long until = CallCache.getInstance().getIfPresent(provider, CallCache.UNUSABLE_ENDPOINT, endpoint, CacheLevel.CLOUD_ACCOUNT, UNAUTHORIZED_TTL);
+
+        return (until != null && System.currentTimeMillis() < until);
+    }
+
+    private void markUnusable(String endpoint, long ttl, String reason){
+        if(logger.isDebugEnabled()){
+            logger.debug("Skipping " + endpoint + " for " + (ttl / CalendarWrapper.MINUTE) + " minutes: " + reason);
+        }
+        CallCache.getInstance().put(provider, CallCache.UNUSABLE_ENDPOINT, endpoint, CacheLevel.CLOUD_ACCOUNT, System.currentTimeMillis() + ttl);
+    }
+
     public String getCloudNameFromEndpoint(){
         String endpoint = provider.getEndpoint(null);
         endpoint = endpoint.substring(endpoint.indexOf("://") + 3);
@@ -225,30 +272,21 @@ public class OpSourceLocation implements DataCenterServices {
     }
 
     public Region toRegion( Node region, String nameSpace) throws CloudException{
-        if(region == null){
+        DatacenterLimits limits = DatacenterLimits.toLimits(region, nameSpace);
+        if(limits == null){
             return null;
         }
+        return toRegion(limits);
+    }
 
-        NodeList data;
-
-        data = region.getChildNodes();
-
-        String country = "US";
-        Region r = new Region();
-        for( int i=0; i<data.getLength(); i++ ) {
-            Node item = data.item(i);
-            if(item.getNodeType() == Node.TEXT_NODE) continue;
-
-            if( item.getNodeName().equals(nameSpace + "location") ) {
-                r.setProviderRegionId(item.getFirstChild().getNodeValue());
-            }
-            else if( item.getNodeName().equals(nameSpace + "displayName") ) {
-                r.setName(item.getFirstChild().getNodeValue());
-            }
-            else if(item.getNodeName().equals(nameSpace + "country")){
-                country = item.getFirstChild().getNodeValue();
-            }
+    public @Nonnull Region toRegion(@Nonnull DatacenterLimits limits){
+        String country = limits.getCountry();
+        if(country == null){
+            country = "US";
         }
+        Region r = new Region();
+        r.setProviderRegionId(limits.getLocation());
+        r.setName(limits.getDisplayName());
         r.setActive(true);
         r.setAvailable(true);
 
@@ -19,19 +19,27 @@
 package org.dasein.cloud.opsource;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -60,6 +68,7 @@ import org.apache.http.client.params.AuthPolicy;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.AbstractHttpMessage;
 import org.apache.http.params.BasicHttpParams;
@@ -83,11 +92,58 @@ public class OpSourceMethod {
     static private final Logger logger = OpSource.getLogger(OpSourceMethod.class);
     static private final Logger wire   = OpSource.getWireLogger(OpSourceMethod.class);
 
+    /** an <code>id:</code> standing on its own in a result detail, not the tail of a word such as <code>guid:</code> */
+    static private final Pattern DETAIL_ID = Pattern.compile("\\bid:\\s*([0-9a-f-]+)", Pattern.CASE_INSENSITIVE);
+
 	private Map<String,String> parameters  = null;
 	private OpSource           provider    = null;
 	private String             endpoint    = null;
+	private long               responseLength = -1L;
+	private int                status = -1;
 
 	
+	/**
+	 * Consumes a successful response element by element; see {@link #stream(StreamHandler)}.
+	 */
+	static public interface StreamHandler {
+	    /**
+	     * Reads the response. The handler may stop before the end of the document; the rest is discarded.
+	     */
+	    public void handle(@Nonnull XMLStreamReader reader) throws CloudException, InternalException, XMLStreamException;
+	}
+
+	static private class CountingInputStream extends FilterInputStream {
+	    private long count = 0L;
+
+	    CountingInputStream(@Nonnull InputStream input) {
+	        super(input);
+	    }
+
+	    @Override
+	    public int read() throws IOException {
+	        int b = super.read();
+
+	        if( b >= 0 ) {
+	            count++;
+	        }
+	        return b;
+	    }
+
+	    @Override
+	    public int read(@Nonnull byte[] buffer, int offset, int length) throws IOException {
+	        int n = super.read(buffer, offset, length);
+
+	        if( n > 0 ) {
+	            count += n;
+	        }
+	        return n;
+	    }
+
+	    long getCount() {
+	        return count;
+	    }
+	}
+
 	static public class ParsedError {
         public int code;
         public String message;
@@ -99,6 +155,44 @@ public class OpSourceMethod {
         this.provider = provider;
 	}	
 
+    /**
+     * @return the number of bytes in the body of the last response as received, or -1 if none has been read
+     */
+    public long getResponseLength() {
+        return responseLength;
+    }
+
+    /**
+     * @return the HTTP status of the last response, or -1 if none was received
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    private void stream(@Nonnull StreamHandler handler, @Nonnull InputStream input) throws CloudException, InternalException {
+        CountingInputStream counted = new CountingInputStream(input);
+        XMLStreamReader reader = null;
+
+        try {
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(counted);
+            handler.handle(reader);
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            if( reader != null ) {
+                try { reader.close(); }
+                catch( XMLStreamException ignore ) { }
+            }
+            try { counted.close(); }
+            catch( IOException ignore ) { }
+            if( responseLength < 0L ) {
+                responseLength = counted.getCount();
+            }
+        }
+    }
+
     protected AbstractHttpMessage getMethod(String httpMethod,String urlStr) {
     	AbstractHttpMessage method = null;
         if(httpMethod.equals("GET")){
@@ -148,6 +242,18 @@ public class OpSourceMethod {
     }
     
 	public Document invoke() throws CloudException, InternalException {
+        return invoke(null);
+    }
+
+    /**
+     * Performs the request and hands a successful response to the handler as it arrives instead of building a
+     * document from it. Error responses are handled exactly as by {@link #invoke()}.
+     */
+    public void stream(@Nonnull StreamHandler handler) throws CloudException, InternalException {
+        invoke(handler);
+    }
+
+    private @Nullable Document invoke(@Nullable StreamHandler handler) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + OpSource.class.getName() + ".invoke()");
         }
@@ -219,6 +325,7 @@ public class OpSourceMethod {
                 APITrace.trace(provider, method.toString() + " " + urlStr);
                 httpResponse = httpclient.execute((HttpUriRequest) method);
                 status = httpResponse.getStatusLine().getStatusCode();
+                this.status = status;
                 if( wire.isDebugEnabled() ) {
                     wire.debug("invoke(): HTTP Status " + httpResponse.getStatusLine().getStatusCode() + " " +  httpResponse.getStatusLine().getReasonPhrase());
                 }                
@@ -243,9 +350,34 @@ public class OpSourceMethod {
                     parseError(status, "Empty entity");
                 }
 
-                String responseBody = EntityUtils.toString(entity);
+                String responseBody = null;
+                byte[] body = null;
+
+                // a streamed response is only read into memory when the wire log needs it
+                if( handler == null || status != HttpStatus.SC_OK || wire.isDebugEnabled() ) {
+                    // counted in bytes, like a streamed body, so both feed the same page size estimates
+                    body = EntityUtils.toByteArray(entity);
+                    Charset charset = ContentType.getOrDefault(entity).getCharset();
+
+                    if( body == null ) {
+                        body = new byte[0];
+                    }
+                    responseBody = new String(body, charset == null ? HTTP.DEF_CONTENT_CHARSET : charset);
+                    responseLength = body.length;
+                }
 
-        		if( status == HttpStatus.SC_OK ) {
+        		if( status == HttpStatus.SC_OK && handler != null ) {
+                    if( body != null ) {
+                        wire.debug(responseBody);
+                        // the raw bytes, so the parser reads the encoding from the prolog whatever the log level
+                        stream(handler, new ByteArrayInputStream(body));
+                    }
+                    else {
+                        stream(handler, entity.getContent());
+                    }
+                    return null;
+                }
+        		else if( status == HttpStatus.SC_OK ) {
                     InputStream input = null;
                     try {
                     	input = new ByteArrayInputStream(responseBody.getBytes("UTF-8"));
@@ -445,6 +577,52 @@ public class OpSourceMethod {
 		return null;		
 	}
 	
+	/**
+	 * Reads the ID of the resource a request created. Unlike {@link #getRequestResultId}, an envelope that does not
+	 * name the ID is not an error: the ID is taken from the <code>additionalInformation</code> entry with the given
+	 * name if there is one, otherwise from an <code>(id:...)</code> in the result detail.
+	 * @return the ID, or <code>null</code> if the request succeeded without naming one
+	 * @throws CloudException if the request failed
+	 */
+	public @Nullable String findRequestResultId(String action, Document doc, String resultTag, String resultDetailTag, String infoName) throws CloudException, InternalException{
+        if( !parseRequestResult(action, doc, resultTag, resultDetailTag) ) {
+            throw new CloudException(action + " fails " + "without explaination !!!");
+        }
+        String sNS = "";
+        try{
+            sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
+        }
+        catch(IndexOutOfBoundsException ex){}
+        NodeList infos = doc.getElementsByTagName(sNS + "additionalInformation");
+
+        for( int i=0; i<infos.getLength(); i++ ) {
+            Node info = infos.item(i);
+            Node name = (info.getAttributes() == null ? null : info.getAttributes().getNamedItem("name"));
+
+            if( name != null && infoName.equalsIgnoreCase(name.getNodeValue()) ) {
+                NodeList values = info.getChildNodes();
+
+                for( int j=0; j<values.getLength(); j++ ) {
+                    Node value = values.item(j);
+
+                    if( value.getNodeType() == Node.ELEMENT_NODE && value.getFirstChild() != null ) {
+                        return value.getFirstChild().getNodeValue().trim();
+                    }
+                }
+            }
+        }
+        NodeList details = doc.getElementsByTagName(sNS + resultDetailTag);
+
+        if( details.getLength() > 0 && details.item(0).getFirstChild() != null ) {
+            Matcher matcher = DETAIL_ID.matcher(details.item(0).getFirstChild().getNodeValue());
+
+            if( matcher.find() ) {
+                return matcher.group(1);
+            }
+        }
+        return null;
+	}
+
 	public boolean requestResult(String action, Document doc) throws CloudException, InternalException{
 		
         if( wire.isDebugEnabled() ) {
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Chooses the page size of a paged listing from what earlier pages of the same listing cost. Full pages feed
+ * smoothed estimates of the response time and size per item, and every page feeds a smoothed error rate. The
+ * next listing then asks for as many items as fit both the target response time and the response size limit,
+ * at most twice or half the current size at a time, and halves its pages while requests keep failing.
+ * <p>
+ * A listing addresses its pages by number, so the size is only chosen when a listing starts and stays fixed
+ * until it ends. The bounds and targets come from the system properties <code>dasein.opsource.pageSize.min</code>,
+ * <code>.max</code>, <code>.initial</code>, <code>.targetMillis</code> and <code>.maxBytes</code>. The
+ * maximum defaults to the 250 items the listings always asked for, and a listing starts at the maximum, so with
+ * the defaults the controller only ever shrinks pages and grows them back towards 250 after full, fast pages.
+ * Raise <code>.max</code> for endpoints known to honor larger pages to let it grow beyond that.
+ * </p>
+ */
+public class PageSizeController implements PageSizeControllerMXBean {
+    static private final Logger logger = OpSource.getLogger(PageSizeController.class);
+
+    static public final String PROPERTY_PREFIX = "dasein.opsource.pageSize.";
+
+    static private final int    DEFAULT_MINIMUM        = 25;
+    static private final int    DEFAULT_MAXIMUM        = 250;
+    static private final long   DEFAULT_TARGET_MILLIS  = 5000L;
+    static private final long   DEFAULT_MAX_BYTES      = 4000000L;
+
+    /** Weight of the newest observation in the smoothed estimates */
+    static private final double SMOOTHING = 0.3;
+
+    /** Error rate above which pages are halved regardless of the other estimates */
+    static private final double ERROR_RATE_LIMIT = 0.2;
+
+    /** Smallest relative change worth making, so the size does not drift on noise */
+    static private final double HYSTERESIS = 0.1;
+
+    static private final ConcurrentHashMap<String, PageSizeController> controllers = new ConcurrentHashMap<String, PageSizeController>();
+
+    /**
+     * @param name the listing and the scope it is read in, such as <code>serverWithState@NA1</code>
+     * @return the controller for the name, created and registered with JMX on first use
+     */
+    static public @Nonnull PageSizeController getInstance(@Nonnull String name) {
+        PageSizeController controller = controllers.get(name);
+
+        if( controller == null ) {
+            PageSizeController created = new PageSizeController(name);
+
+            controller = controllers.putIfAbsent(name, created);
+            if( controller == null ) {
+                controller = created;
+                register(created);
+            }
+        }
+        return controller;
+    }
+
+    static public @Nonnull Collection<PageSizeController> getAll() {
+        return Collections.unmodifiableCollection(new ArrayList<PageSizeController>(controllers.values()));
+    }
+
+    static private void register(@Nonnull PageSizeController controller) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(CacheStatistics.JMX_DOMAIN + ":type=PageSize,name=" + ObjectName.quote(controller.getName()));
+
+            if( !server.isRegistered(name) ) {
+                server.registerMBean(controller, name);
+            }
+        }
+        catch( Exception e ) {
+            logger.warn("Unable to register the page size controller for " + controller.getName() + " with JMX: " + e.getMessage());
+        }
+    }
+
+    static private long getLong(@Nonnull String property, long defaultValue) {
+        return Long.getLong(PROPERTY_PREFIX + property, defaultValue);
+    }
+
+    private final String name;
+    private final int    minimum;
+    private final int    maximum;
+    private final long   targetMillis;
+    private final long   maxBytes;
+
+    private int    pageSize;
+    private long   pages;
+    private long   failures;
+    private long   increases;
+    private long   decreases;
+    private double errorRate;
+    private double millisPerItem;
+    private double bytesPerItem;
+
+    private PageSizeController(@Nonnull String name) {
+        this.name = name;
+        minimum = (int)Math.max(1L, getLong("min", DEFAULT_MINIMUM));
+        maximum = (int)Math.max(minimum, getLong("max", DEFAULT_MAXIMUM));
+        targetMillis = Math.max(1L, getLong("targetMillis", DEFAULT_TARGET_MILLIS));
+        maxBytes = Math.max(1L, getLong("maxBytes", DEFAULT_MAX_BYTES));
+        pageSize = clamp((int)getLong("initial", DEFAULT_MAXIMUM));
+    }
+
+    private int clamp(int size) {
+        return Math.max(minimum, Math.min(maximum, size));
+    }
+
+    /**
+     * Records one page request.
+     * @param requestedSize the page size the request asked for
+     * @param itemCount the number of items the page held
+     * @param millis the time the request took
+     * @param bytes the size of the response body in bytes, or a negative number if unknown
+     * @param succeeded false if the request failed
+     */
+    public synchronized void record(int requestedSize, int itemCount, long millis, long bytes, boolean succeeded) {
+        pages++;
+        errorRate = smooth(errorRate, succeeded ? 0.0 : 1.0, pages == 1);
+        if( !succeeded ) {
+            failures++;
+            return;
+        }
+        // short pages carry the fixed cost of a request over too few items to say anything per item
+        if( itemCount > 0 && itemCount >= requestedSize ) {
+            boolean first = (millisPerItem == 0.0);
+
+            millisPerItem = smooth(millisPerItem, ((double)millis) / itemCount, first);
+            if( bytes >= 0L ) {
+                bytesPerItem = smooth(bytesPerItem, ((double)bytes) / itemCount, bytesPerItem == 0.0);
+            }
+        }
+    }
+
+    private double smooth(double current, double observed, boolean first) {
+        return (first ? observed : current + SMOOTHING * (observed - current));
+    }
+
+    /**
+     * @return the size the next listing should ask for, adjusted for what has been recorded since the last call
+     */
+    public synchronized int nextPageSize() {
+        int proposed = pageSize;
+
+        if( errorRate > ERROR_RATE_LIMIT ) {
+            proposed = pageSize / 2;
+        }
+        else if( millisPerItem > 0.0 ) {
+            double fit = targetMillis / millisPerItem;
+
+            if( bytesPerItem > 0.0 ) {
+                fit = Math.min(fit, maxBytes / bytesPerItem);
+            }
+            fit = Math.max(pageSize / 2.0, Math.min(pageSize * 2.0, fit));
+            if( Math.abs(fit - pageSize) >= pageSize * HYSTERESIS ) {
+                proposed = (int)fit;
+            }
+        }
+        proposed = clamp(proposed);
+        if( proposed != pageSize ) {
+            if( proposed > pageSize ) {
+                increases++;
+            }
+            else {
+                decreases++;
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Page size for " + name + " changed from " + pageSize + " to " + proposed + " (" + String.format("%.1f", millisPerItem) + "ms/item, " + String.format("%.0f", bytesPerItem) + " bytes/item, error rate " + String.format("%.2f", errorRate) + ")");
+            }
+            pageSize = proposed;
+        }
+        return pageSize;
+    }
+
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    /**
+     * @return the size last handed out, without adjusting it
+     */
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMinimumPageSize() {
+        return minimum;
+    }
+
+    public int getMaximumPageSize() {
+        return maximum;
+    }
+
+    public synchronized long getPageCount() {
+        return pages;
+    }
+
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized double getMillisPerItem() {
+        return millisPerItem;
+    }
+
+    public synchronized double getBytesPerItem() {
+        return bytesPerItem;
+    }
+
+    public synchronized long getIncreaseCount() {
+        return increases;
+    }
+
+    public synchronized long getDecreaseCount() {
+        return decreases;
+    }
+
+    public synchronized void reset() {
+        pages = 0L;
+        failures = 0L;
+        increases = 0L;
+        decreases = 0L;
+        errorRate = 0.0;
+        millisPerItem = 0.0;
+        bytesPerItem = 0.0;
+        pageSize = clamp((int)getLong("initial", DEFAULT_MAXIMUM));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + " [pageSize=" + pageSize + ", pages=" + pages + ", failures=" + failures + ", increases=" + increases + ", decreases=" + decreases + "]";
+    }
+}
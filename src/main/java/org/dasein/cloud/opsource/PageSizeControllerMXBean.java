@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+/**
+ * JMX view of a {@link PageSizeController}. Registered as <code>org.dasein.cloud.opsource:type=PageSize,name=...</code>.
+ */
+public interface PageSizeControllerMXBean {
+    public String getName();
+
+    public int getPageSize();
+
+    public int getMinimumPageSize();
+
+    public int getMaximumPageSize();
+
+    public long getPageCount();
+
+    public long getFailureCount();
+
+    /**
+     * @return the smoothed share of recent page requests that failed, between 0 and 1
+     */
+    public double getErrorRate();
+
+    /**
+     * @return the smoothed response time per item of recent full pages, or 0 if no full page has been read yet
+     */
+    public double getMillisPerItem();
+
+    /**
+     * @return the smoothed response size in bytes per item of recent full pages, or 0 if no full page has been read yet
+     */
+    public double getBytesPerItem();
+
+    public long getIncreaseCount();
+
+    public long getDecreaseCount();
+
+    public void reset();
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.util.Jiterator;
+
+/**
+ * Reads a paged OpSource listing. The first page is fetched on the calling thread; when it reports the total
+ * number of items, the remaining pages are fetched concurrently on the provider's fetch pool, at most
+ * {@link #FAN_OUT_PROPERTY} at a time per listing, and pushed to the iterator either in page order or as they
+ * arrive. Listings whose first page carries no total are read one page after another until a short page comes back,
+ * and so is the rest of a listing that grew while it was read, when the page the total said was last came back full.
+ */
+public class PagedListing<T> {
+    static private final Logger logger = OpSource.getLogger(PagedListing.class);
+
+    static public final String FAN_OUT_PROPERTY = "dasein.opsource.listing.fanOut";
+
+    static private final int DEFAULT_FAN_OUT = 4;
+
+    /**
+     * One page of a listing as returned by the cloud.
+     */
+    static public class Page<T> {
+        private final List<T> items;
+        private final int     itemCount;
+        private final int     totalCount;
+
+        /**
+         * @param items the parsed items
+         * @param itemCount the number of items the cloud says the page holds (its <code>pageCount</code>)
+         * @param totalCount the number of items in the whole listing (its <code>totalCount</code>), or -1 if not reported
+         */
+        public Page(@Nonnull List<T> items, int itemCount, int totalCount) {
+            this.items = items;
+            this.itemCount = itemCount;
+            this.totalCount = totalCount;
+        }
+
+        public @Nonnull List<T> getItems() {
+            return items;
+        }
+
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+    }
+
+    static public interface PageSource<T> {
+        /**
+         * Fetches and parses one page. Called concurrently for different pages.
+         * @param pageNumber the page to fetch, starting at 1
+         */
+        public @Nonnull Page<T> fetch(int pageNumber) throws CloudException, InternalException;
+    }
+
+    static private int getFanOut() {
+        return Math.max(1, Integer.getInteger(FAN_OUT_PROPERTY, DEFAULT_FAN_OUT));
+    }
+
+    private final OpSource      provider;
+    private final PageSource<T> source;
+    private final int           pageSize;
+    private final boolean       ordered;
+
+    /**
+     * @param provider the provider whose fetch pool the pages are read on
+     * @param source fetches single pages
+     * @param pageSize the page size the source requests
+     * @param ordered true to push items in page order, false to push each page as soon as it arrives
+     */
+    public PagedListing(@Nonnull OpSource provider, @Nonnull PageSource<T> source, int pageSize, boolean ordered) {
+        this.provider = provider;
+        this.source = source;
+        this.pageSize = pageSize;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Reads the whole listing into the iterator. Returns once every page has been pushed; if a page fails, the
+     * pages still outstanding are cancelled and the failure is thrown.
+     */
+    public void populate(@Nonnull Jiterator<T> iterator) throws CloudException, InternalException {
+        Page<T> first = source.fetch(1);
+
+        push(iterator, first.getItems());
+        if( first.getItemCount() < pageSize ) {
+            return;
+        }
+        if( first.getTotalCount() < 0 ) {
+            populateSequentially(iterator, 2);
+            return;
+        }
+        int pageCount = (first.getTotalCount() + pageSize - 1) / pageSize;
+        Page<T> last = first;
+
+        if( pageCount > 1 ) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Fetching " + (pageCount - 1) + " more pages of " + first.getTotalCount() + " items");
+            }
+            if( ordered ) {
+                last = populateInOrder(iterator, pageCount);
+            }
+            else {
+                last = populateAsCompleted(iterator, pageCount);
+            }
+        }
+        // items added while the listing ran push the tail past the page the total promised was the last
+        if( last.getItemCount() >= pageSize ) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("The listing grew past " + first.getTotalCount() + " items, reading on from page " + (pageCount + 1));
+            }
+            populateSequentially(iterator, pageCount + 1);
+        }
+    }
+
+    private void populateSequentially(@Nonnull Jiterator<T> iterator, int pageNumber) throws CloudException, InternalException {
+        Page<T> page;
+
+        do {
+            page = source.fetch(pageNumber++);
+            push(iterator, page.getItems());
+        } while( page.getItemCount() >= pageSize );
+    }
+
+    /**
+     * @return the page numbered <code>pageCount</code>
+     */
+    private @Nonnull Page<T> populateInOrder(@Nonnull Jiterator<T> iterator, int pageCount) throws CloudException, InternalException {
+        ArrayDeque<Future<Page<T>>> window = new ArrayDeque<Future<Page<T>>>();
+        int fanOut = getFanOut();
+        int nextPage = 2;
+        Page<T> page = null;
+
+        try {
+            while( nextPage <= pageCount && window.size() < fanOut ) {
+                window.add(start(nextPage++, null));
+            }
+            while( !window.isEmpty() ) {
+                page = await(window.poll());
+
+                if( nextPage <= pageCount ) {
+                    window.add(start(nextPage++, null));
+                }
+                push(iterator, page.getItems());
+            }
+            return page;
+        }
+        finally {
+            cancel(window);
+        }
+    }
+
+    /**
+     * @return the page numbered <code>pageCount</code>
+     */
+    private @Nonnull Page<T> populateAsCompleted(@Nonnull Jiterator<T> iterator, int pageCount) throws CloudException, InternalException {
+        LinkedBlockingQueue<Future<Page<T>>> completed = new LinkedBlockingQueue<Future<Page<T>>>();
+        ArrayDeque<Future<Page<T>>> outstanding = new ArrayDeque<Future<Page<T>>>();
+        int fanOut = getFanOut();
+        int nextPage = 2;
+        Future<Page<T>> lastFuture = null;
+        Page<T> last = null;
+
+        try {
+            while( nextPage <= pageCount && outstanding.size() < fanOut ) {
+                Future<Page<T>> future = start(nextPage++, completed);
+
+                if( nextPage > pageCount ) {
+                    lastFuture = future;
+                }
+                outstanding.add(future);
+            }
+            while( !outstanding.isEmpty() ) {
+                Future<Page<T>> done;
+
+                try {
+                    done = completed.take();
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalException(e);
+                }
+                outstanding.remove(done);
+                Page<T> page = await(done);
+
+                if( done == lastFuture ) {
+                    last = page;
+                }
+                if( nextPage <= pageCount ) {
+                    Future<Page<T>> future = start(nextPage++, completed);
+
+                    if( nextPage > pageCount ) {
+                        lastFuture = future;
+                    }
+                    outstanding.add(future);
+                }
+                push(iterator, page.getItems());
+            }
+            return last;
+        }
+        finally {
+            cancel(outstanding);
+        }
+    }
+
+    /**
+     * Starts fetching a page on the provider's fetch pool, or fetches it right away if the pool is saturated.
+     * @param completed the queue the page's future is added to once it is done, if any
+     */
+    private @Nonnull Future<Page<T>> start(final int pageNumber, @Nullable final BlockingQueue<Future<Page<T>>> completed) {
+        final FutureTask<Page<T>> task = new FutureTask<Page<T>>(new Callable<Page<T>>() {
+            public Page<T> call() throws Exception {
+                return source.fetch(pageNumber);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if( completed != null ) {
+                    completed.add(this);
+                }
+            }
+        };
+
+        try {
+            provider.getExecutors().execute(OpSourceExecutors.Pool.FETCH, null, task);
+        }
+        catch( RejectedExecutionException e ) {
+            task.run();
+        }
+        return task;
+    }
+
+    private void push(@Nonnull Jiterator<T> iterator, @Nonnull Collection<T> items) {
+        for( T item : items ) {
+            iterator.push(item);
+        }
+    }
+
+    private void cancel(@Nonnull Collection<Future<Page<T>>> futures) {
+        for( Future<Page<T>> future : futures ) {
+            future.cancel(true);
+        }
+    }
+
+    private @Nonnull Page<T> await(@Nonnull Future<Page<T>> future) throws CloudException, InternalException {
+        try {
+            return future.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+}
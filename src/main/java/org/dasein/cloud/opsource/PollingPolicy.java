@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource;
+
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+/**
+ * How long to wait between polls of a slow operation. The first wait is short and each following one is
+ * longer by the multiplier, up to a maximum, so an operation that finishes quickly is seen quickly and one
+ * that takes long is not polled needlessly. Every wait is moved up or down at random by the jitter, so that
+ * many operations started together do not poll together.
+ * <p>
+ * The waits of each {@link Operation} follow from how long it usually takes: the first wait is a twentieth of
+ * the expected duration, at least a second, and the longest is half of it, at most a minute. The system
+ * properties <code>dasein.opsource.poll.&lt;operation&gt;.expected</code>, <code>.initial</code> and
+ * <code>.max</code>, where <code>&lt;operation&gt;</code> is the lower case operation name, override these in
+ * milliseconds; <code>dasein.opsource.poll.multiplier</code> and <code>dasein.opsource.poll.jitter</code>
+ * set the growth (2 by default) and the jitter (0.2, meaning up to 20% either way) of every policy.
+ * </p>
+ */
+public class PollingPolicy {
+    static public final String PROPERTY_PREFIX = "dasein.opsource.poll.";
+
+    static private final double DEFAULT_MULTIPLIER = 2.0;
+    static private final double DEFAULT_JITTER     = 0.2;
+    static private final long   MINIMUM_INITIAL    = 1000L;
+    static private final long   MAXIMUM_INTERVAL   = 60000L;
+
+    static private final Random random = new Random();
+
+    static public enum Operation {
+        /** a stopped server becoming running */
+        START(60000L),
+        /** a running server becoming stopped */
+        STOP(60000L),
+        /** a server going down and coming back up */
+        REBOOT(120000L),
+        /** a new server becoming usable, about six minutes */
+        DEPLOY(360000L),
+        /** a change of CPU, memory or storage, refused while the server is still busy */
+        MODIFY(360000L),
+        /** a stopped server being killed and disappearing */
+        TERMINATE(120000L);
+
+        private final long expectedMillis;
+
+        private Operation(long expectedMillis) {
+            this.expectedMillis = expectedMillis;
+        }
+
+        public long getExpectedMillis() {
+            return Math.max(1L, Long.getLong(PROPERTY_PREFIX + name().toLowerCase() + ".expected", expectedMillis));
+        }
+    }
+
+    /**
+     * @return the policy for the operation, as currently configured
+     */
+    static public @Nonnull PollingPolicy getInstance(@Nonnull Operation operation) {
+        String prefix = PROPERTY_PREFIX + operation.name().toLowerCase();
+        long expected = operation.getExpectedMillis();
+        long initial = Math.max(1L, Long.getLong(prefix + ".initial", Math.max(MINIMUM_INITIAL, expected / 20L)));
+        long maximum = Math.max(initial, Long.getLong(prefix + ".max", Math.min(MAXIMUM_INTERVAL, expected / 2L)));
+
+        return new PollingPolicy(initial, maximum, getDouble(PROPERTY_PREFIX + "multiplier", DEFAULT_MULTIPLIER), getDouble(PROPERTY_PREFIX + "jitter", DEFAULT_JITTER));
+    }
+
+    static private double getDouble(@Nonnull String property, double defaultValue) {
+        String value = System.getProperty(property);
+
+        if( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        }
+        catch( NumberFormatException e ) {
+            return defaultValue;
+        }
+    }
+
+    private final long   initialMillis;
+    private final long   maximumMillis;
+    private final double multiplier;
+    private final double jitter;
+
+    /**
+     * @param initialMillis the first wait
+     * @param maximumMillis the longest wait
+     * @param multiplier how much longer each wait is than the one before; 1 for a fixed interval
+     * @param jitter the largest random change of a wait, as a fraction of it; 0 for none
+     */
+    public PollingPolicy(long initialMillis, long maximumMillis, double multiplier, double jitter) {
+        this.initialMillis = Math.max(1L, initialMillis);
+        this.maximumMillis = Math.max(this.initialMillis, maximumMillis);
+        this.multiplier = Math.max(1.0, multiplier);
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+    }
+
+    /**
+     * @param attempt the number of polls already made, starting at 0
+     * @return how long to wait before the next poll, in milliseconds
+     */
+    public long getDelay(int attempt) {
+        double delay = Math.min(maximumMillis, initialMillis * Math.pow(multiplier, Math.max(0, attempt)));
+        double factor = 1.0 + (jitter * ((random.nextDouble() * 2.0) - 1.0));
+
+        return Math.max(1L, Math.round(delay * factor));
+    }
+
+    public long getInitialMillis() {
+        return initialMillis;
+    }
+
+    public long getMaximumMillis() {
+        return maximumMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "[initial=" + initialMillis + ", max=" + maximumMillis + ", multiplier=" + multiplier + ", jitter=" + jitter + "]";
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+
+/**
+ * Remembers which API endpoint serves each OpSource location. Mappings are scoped by the cloud endpoint the
+ * provider is connected to and its account, since different accounts of one cloud may see different locations.
+ * <p>
+ * When the {@link #SNAPSHOT_PROPERTY} system property names a file, the registry is loaded from it on first
+ * use and written back on the background pool whenever a discovery changed a mapping, so new JVMs can skip
+ * discovery entirely.
+ * </p>
+ */
+public class RegionEndpointRegistry {
+    static private final Logger logger = OpSource.getLogger(RegionEndpointRegistry.class);
+
+    static public final String SNAPSHOT_PROPERTY = "dasein.opsource.regionSnapshot";
+
+    static private final String SEPARATOR = "|";
+
+    static private RegionEndpointRegistry registry;
+
+    static public synchronized @Nonnull RegionEndpointRegistry getInstance() {
+        if( registry == null ) {
+            registry = new RegionEndpointRegistry();
+
+            String path = System.getProperty(SNAPSHOT_PROPERTY);
+
+            if( path != null && path.length() > 0 ) {
+                File file = new File(path);
+
+                if( file.exists() ) {
+                    try {
+                        registry.load(file);
+                    }
+                    catch( IOException e ) {
+                        logger.warn("Unable to load region snapshot " + path + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return registry;
+    }
+
+    /** Scope (endpoint and account) to region ID to endpoint */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> endpoints = new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+
+    // guarded by this; dirty once a mapping changed since the last save
+    private boolean dirty = false;
+    private boolean saveScheduled = false;
+
+    RegionEndpointRegistry() { }
+
+    private @Nonnull String getScope(@Nonnull OpSource provider) {
+        ProviderContext ctx = provider.getContext();
+
+        return ctx.getEndpoint() + SEPARATOR + ctx.getAccountNumber();
+    }
+
+    private @Nonnull ConcurrentHashMap<String, String> getRegions(@Nonnull String scope) {
+        ConcurrentHashMap<String, String> regions = endpoints.get(scope);
+
+        if( regions == null ) {
+            ConcurrentHashMap<String, String> created = new ConcurrentHashMap<String, String>();
+
+            regions = endpoints.putIfAbsent(scope, created);
+            if( regions == null ) {
+                regions = created;
+            }
+        }
+        return regions;
+    }
+
+    public @Nullable String getEndpoint(@Nonnull OpSource provider, @Nonnull String regionId) {
+        Map<String, String> regions = endpoints.get(getScope(provider));
+
+        return (regions == null ? null : regions.get(regionId));
+    }
+
+    public void setEndpoint(@Nonnull OpSource provider, @Nonnull String regionId, @Nonnull String endpoint) {
+        String previous = getRegions(getScope(provider)).put(regionId, endpoint);
+
+        if( !endpoint.equals(previous) ) {
+            markDirty();
+        }
+    }
+
+    /**
+     * Forgets every mapping resolved for the provider's endpoint and account.
+     */
+    public void clear(@Nonnull OpSource provider) {
+        Map<String, String> removed = endpoints.remove(getScope(provider));
+
+        if( removed != null && !removed.isEmpty() ) {
+            markDirty();
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Writes the configured snapshot file on the background pool, if there is one and a mapping changed since
+     * the last write; requests made while a write is pending are folded into it. Failures are logged, never
+     * thrown, since the snapshot only ever saves work.
+     */
+    public synchronized void persist() {
+        final String path = System.getProperty(SNAPSHOT_PROPERTY);
+
+        if( path == null || path.length() < 1 || !dirty || saveScheduled ) {
+            return;
+        }
+        saveScheduled = true;
+        try {
+            OpSourceExecutors.executeShared(OpSourceExecutors.Pool.BACKGROUND, new Runnable() {
+                public void run() {
+                    synchronized( RegionEndpointRegistry.this ) {
+                        saveScheduled = false;
+                        dirty = false;
+                    }
+                    try {
+                        save(new File(path));
+                    }
+                    catch( IOException e ) {
+                        markDirty();
+                        logger.warn("Unable to save region snapshot " + path + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e ) {
+            saveScheduled = false;
+        }
+    }
+
+    /**
+     * Writes all resolved mappings to the file. The snapshot is written next to the target and renamed over it,
+     * so concurrent readers never see a partial file.
+     */
+    public synchronized void save(@Nonnull File file) throws IOException {
+        Properties properties = new Properties();
+
+        for( Map.Entry<String, ConcurrentHashMap<String, String>> scope : endpoints.entrySet() ) {
+            for( Map.Entry<String, String> region : scope.getValue().entrySet() ) {
+                properties.setProperty(scope.getKey() + SEPARATOR + region.getKey(), region.getValue());
+            }
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        FileOutputStream out = new FileOutputStream(tmp);
+
+        try {
+            properties.store(out, "OpSource region endpoints");
+        }
+        finally {
+            out.close();
+        }
+        if( !tmp.renameTo(file) ) {
+            // not atomic, but some platforms refuse to rename over an existing file
+            if( !file.delete() || !tmp.renameTo(file) ) {
+                tmp.delete();
+                throw new IOException("Unable to replace " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Adds the mappings in the file to the registry. Mappings already resolved in this JVM win.
+     */
+    public void load(@Nonnull File file) throws IOException {
+        Properties properties = new Properties();
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            properties.load(in);
+        }
+        finally {
+            in.close();
+        }
+        for( String key : properties.stringPropertyNames() ) {
+            int idx = key.lastIndexOf(SEPARATOR);
+
+            if( idx < 1 || idx == key.length() - 1 ) {
+                continue;
+            }
+            getRegions(key.substring(0, idx)).putIfAbsent(key.substring(idx + 1), properties.getProperty(key));
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Loaded " + properties.size() + " region endpoints from " + file.getPath());
+        }
+    }
+}
@@ -0,0 +1,531 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VMLaunchOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.network.RawAddress;
+import org.dasein.cloud.opsource.OpSource;
+import org.dasein.cloud.opsource.OpSourceExecutors;
+import org.dasein.cloud.opsource.PollingPolicy;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * Future-returning variants of the server lifecycle operations. Each operation is a chain of short steps run on
+ * the {@link OpSourceExecutors.Pool#LIFECYCLE} pool; between steps an operation waits on the region's
+ * {@link ServerWatcher} or on the shared timer, never on a thread, so any number of operations can be in flight
+ * on a handful of threads. Waits and retries follow the {@link PollingPolicy} of the operation under way.
+ * Obtained through {@link VirtualMachines#getAsyncLifecycle()}. Once the provider is closed, new operations are
+ * rejected with a {@link RejectedExecutionException} and operations in flight fail before their next step.
+ */
+public class AsyncLifecycle {
+    static private final Logger logger = OpSource.getLogger(AsyncLifecycle.class);
+
+    private interface Step {
+        public void run() throws Exception;
+    }
+
+    private interface Wait {
+        /**
+         * @param vm the server as last read, or <code>null</code> if it is gone
+         */
+        public void met(@Nullable VirtualMachine vm) throws Exception;
+
+        public void timedOut() throws Exception;
+    }
+
+    private final OpSource        provider;
+    private final VirtualMachines support;
+
+    AsyncLifecycle(@Nonnull OpSource provider, @Nonnull VirtualMachines support) {
+        this.provider = provider;
+        this.support = support;
+    }
+
+    /**
+     * Deploys a server and, if its image does not have the requested shape, modifies it before starting it.
+     * Completes with the running server, its root password set, or fails if any step gave up.
+     */
+    public @Nonnull LifecycleOperation launch(@Nonnull final VMLaunchOptions withLaunchOptions) {
+        final LifecycleOperation op = newOperation("launch", null);
+
+        next(op, 0L, new Step() {
+            public void run() throws Exception {
+                VirtualMachines.Deployment deployment;
+
+                op.enter(LifecycleOperation.Phase.DEPLOYING);
+                deployment = support.deployForLaunch(withLaunchOptions);
+                op.setServerId(deployment.server.getProviderVirtualMachineId());
+                if( deployment.needsConfiguration ) {
+                    op.enter(LifecycleOperation.Phase.CONFIGURING);
+                    configure(op, deployment);
+                }
+                else {
+                    op.enter(LifecycleOperation.Phase.STARTING);
+                    awaitRunning(op, deployment, PollingPolicy.getInstance(PollingPolicy.Operation.DEPLOY), CalendarWrapper.MINUTE * 60L);
+                }
+            }
+        });
+        return op;
+    }
+
+    /**
+     * Releases the server's public addresses, stops it and kills it. Completes with <code>null</code> once the
+     * server is gone, including when it was gone to begin with.
+     */
+    public @Nonnull LifecycleOperation terminate(@Nonnull final String serverId) {
+        final LifecycleOperation op = newOperation("terminate", serverId);
+
+        next(op, 0L, new Step() {
+            public void run() throws Exception {
+                op.enter(LifecycleOperation.Phase.RELEASING_ADDRESSES);
+                VirtualMachine server = support.getVirtualMachine(serverId);
+
+                if( server == null ) {
+                    op.succeed(null);
+                    return;
+                }
+                RawAddress[] addresses = server.getPublicAddresses();
+
+                if( addresses != null ) {
+                    for( RawAddress address : addresses ) {
+                        provider.getNetworkServices().getIpAddressSupport().releaseFromServer(address.getIpAddress());
+                    }
+                }
+                op.enter(LifecycleOperation.Phase.STOPPING);
+                stopForTermination(op, serverId, System.currentTimeMillis() + (CalendarWrapper.MINUTE * 20L), 0);
+            }
+        });
+        return op;
+    }
+
+    /**
+     * Completes with the server once it is running.
+     */
+    public @Nonnull LifecycleOperation start(@Nonnull final String serverId) {
+        final LifecycleOperation op = newOperation("start", serverId);
+
+        next(op, 0L, new Step() {
+            public void run() throws Exception {
+                op.enter(LifecycleOperation.Phase.STARTING);
+                support.start(serverId);
+                awaitState(op, serverId, VmState.RUNNING, PollingPolicy.getInstance(PollingPolicy.Operation.START), CalendarWrapper.MINUTE * 15L);
+            }
+        });
+        return op;
+    }
+
+    /**
+     * Completes with the server once it is stopped.
+     */
+    public @Nonnull LifecycleOperation stop(@Nonnull final String serverId, final boolean hardOff) {
+        final LifecycleOperation op = newOperation("stop", serverId);
+
+        next(op, 0L, new Step() {
+            public void run() throws Exception {
+                op.enter(LifecycleOperation.Phase.STOPPING);
+                support.stop(serverId, hardOff);
+                awaitState(op, serverId, VmState.STOPPED, PollingPolicy.getInstance(PollingPolicy.Operation.STOP), CalendarWrapper.MINUTE * 20L);
+            }
+        });
+        return op;
+    }
+
+    /**
+     * Completes with the server once it is running again. A server still reported running is taken to be back
+     * only after it was seen in another state or two polls have passed, since the reboot may not show at first.
+     */
+    public @Nonnull LifecycleOperation reboot(@Nonnull final String serverId) {
+        final LifecycleOperation op = newOperation("reboot", serverId);
+
+        next(op, 0L, new Step() {
+            public void run() throws Exception {
+                op.enter(LifecycleOperation.Phase.REBOOTING);
+                support.reboot(serverId);
+                await(op, serverId, new ServerWatcher.Condition() {
+                    // polls of one watcher never overlap
+                    private int     polls = 0;
+                    private boolean left = false;
+
+                    public boolean isMet(@Nullable VirtualMachine vm) {
+                        if( vm == null || !VmState.RUNNING.equals(vm.getCurrentState()) ) {
+                            left = true;
+                            return (vm == null || VmState.TERMINATED.equals(vm.getCurrentState()));
+                        }
+                        return (left || ++polls > 2);
+                    }
+                }, PollingPolicy.getInstance(PollingPolicy.Operation.REBOOT), CalendarWrapper.MINUTE * 15L, new Wait() {
+                    public void met(@Nullable VirtualMachine vm) throws Exception {
+                        if( vm == null || !VmState.RUNNING.equals(vm.getCurrentState()) ) {
+                            throw new CloudException("Server " + serverId + " disappeared while rebooting");
+                        }
+                        op.succeed(vm);
+                    }
+
+                    public void timedOut() throws Exception {
+                        throw new CloudException("Timed out waiting for " + serverId + " to come back from a reboot");
+                    }
+                });
+            }
+        });
+        return op;
+    }
+
+    private void configure(@Nonnull final LifecycleOperation op, @Nonnull final VirtualMachines.Deployment deployment) throws CloudException, InternalException {
+        String serverId = deployment.server.getProviderVirtualMachineId();
+        VirtualMachine server = support.getVirtualMachine(serverId);
+
+        if( server == null ) {
+            throw new CloudException("Server " + serverId + " disappeared while waiting for deployment to complete");
+        }
+        if( getTag(server, "cpuCount") == deployment.targetCPU && getTag(server, "memory") == deployment.targetMemory ) {
+            op.enter(LifecycleOperation.Phase.STARTING);
+            boot(op, deployment, System.currentTimeMillis() + (CalendarWrapper.MINUTE * 15L), 0);
+        }
+        else {
+            modify(op, deployment, System.currentTimeMillis() + (CalendarWrapper.MINUTE * 90L), 0);
+        }
+    }
+
+    private void modify(@Nonnull final LifecycleOperation op, @Nonnull final VirtualMachines.Deployment deployment, final long timeout, final int attempt) throws CloudException {
+        String serverId = deployment.server.getProviderVirtualMachineId();
+        long delay = PollingPolicy.getInstance(PollingPolicy.Operation.MODIFY).getDelay(attempt);
+        Exception currentException;
+
+        try {
+            if( support.modify(serverId, deployment.targetCPU, deployment.targetMemory) ) {
+                if( logger.isInfoEnabled() ) {
+                    logger.info("Modification of CPU and Memory succeeded for " + serverId);
+                }
+                op.enter(LifecycleOperation.Phase.STARTING);
+                boot(op, deployment, System.currentTimeMillis() + (CalendarWrapper.MINUTE * 15L), 0);
+                return;
+            }
+            currentException = new CloudException("Modification failed without explanation");
+        }
+        catch( Exception e ) {
+            logger.warn("Modification of CPU and Memory failed for " + serverId + ": " + e.getMessage());
+            currentException = e;
+        }
+        if( System.currentTimeMillis() + delay > timeout ) {
+            throw new CloudException("Server " + serverId + " could not be modified: " + currentException.getMessage());
+        }
+        next(op, delay, new Step() {
+            public void run() throws Exception {
+                modify(op, deployment, timeout, attempt + 1);
+            }
+        });
+    }
+
+    /**
+     * Starts the server whenever it is seen stopped until it is running.
+     */
+    private void boot(@Nonnull final LifecycleOperation op, @Nonnull final VirtualMachines.Deployment deployment, final long timeout, final int attempt) {
+        final String serverId = deployment.server.getProviderVirtualMachineId();
+        final PollingPolicy policy = PollingPolicy.getInstance(PollingPolicy.Operation.START);
+
+        await(op, serverId, ServerWatcher.inStateOrRemoved(VmState.RUNNING, VmState.STOPPED), policy, timeout - System.currentTimeMillis(), new Wait() {
+            public void met(@Nullable VirtualMachine vm) throws Exception {
+                if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
+                    throw new CloudException("Server " + serverId + " disappeared while performing bootup");
+                }
+                if( VmState.RUNNING.equals(vm.getCurrentState()) ) {
+                    vm.setRootPassword(deployment.password);
+                    op.succeed(vm);
+                    return;
+                }
+                try {
+                    support.start(serverId);
+                    awaitRunning(op, deployment, policy, timeout - System.currentTimeMillis());
+                }
+                catch( CloudException e ) {
+                    logger.warn("Error during boot process of " + serverId + ", retrying: " + e.getMessage());
+                    next(op, policy.getDelay(attempt), new Step() {
+                        public void run() throws Exception {
+                            boot(op, deployment, timeout, attempt + 1);
+                        }
+                    });
+                }
+            }
+
+            public void timedOut() throws Exception {
+                throw new CloudException("Timed out waiting for " + serverId + " to boot");
+            }
+        });
+    }
+
+    private void awaitRunning(@Nonnull final LifecycleOperation op, @Nonnull final VirtualMachines.Deployment deployment, @Nonnull PollingPolicy policy, long timeoutMillis) {
+        final String serverId = deployment.server.getProviderVirtualMachineId();
+
+        await(op, serverId, ServerWatcher.inStateOrRemoved(VmState.RUNNING), policy, timeoutMillis, new Wait() {
+            public void met(@Nullable VirtualMachine vm) throws Exception {
+                if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
+                    throw new CloudException("Server " + serverId + " disappeared while performing bootup");
+                }
+                vm.setRootPassword(deployment.password);
+                op.succeed(vm);
+            }
+
+            public void timedOut() throws Exception {
+                throw new CloudException("Timed out waiting for " + serverId + " to be RUNNING");
+            }
+        });
+    }
+
+    /**
+     * Completes the operation with the server once it is in the state, or fails it if the server goes away or
+     * the wait times out.
+     */
+    private void awaitState(@Nonnull final LifecycleOperation op, @Nonnull final String serverId, @Nonnull final VmState state, @Nonnull PollingPolicy policy, long timeoutMillis) {
+        await(op, serverId, ServerWatcher.inStateOrRemoved(state), policy, timeoutMillis, new Wait() {
+            public void met(@Nullable VirtualMachine vm) throws Exception {
+                if( vm == null || !state.equals(vm.getCurrentState()) ) {
+                    throw new CloudException("Server " + serverId + " disappeared while waiting for it to be " + state);
+                }
+                op.succeed(vm);
+            }
+
+            public void timedOut() throws Exception {
+                throw new CloudException("Timed out waiting for " + serverId + " to be " + state);
+            }
+        });
+    }
+
+    private void stopForTermination(@Nonnull final LifecycleOperation op, @Nonnull final String serverId, final long timeout, final int attempt) {
+        // a pending server is still being deployed, which takes around 6 minutes
+        await(op, serverId, ServerWatcher.inStateOrRemoved(VmState.STOPPED, VmState.RUNNING), PollingPolicy.getInstance(PollingPolicy.Operation.DEPLOY), timeout - System.currentTimeMillis(), new Wait() {
+            public void met(@Nullable VirtualMachine vm) throws Exception {
+                if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
+                    op.succeed(null);
+                    return;
+                }
+                if( VmState.STOPPED.equals(vm.getCurrentState()) ) {
+                    kill(op, serverId, System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L), 0);
+                    return;
+                }
+                try {
+                    support.stop(serverId);
+                }
+                catch( Exception e ) {
+                    long delay = PollingPolicy.getInstance(PollingPolicy.Operation.STOP).getDelay(attempt);
+
+                    logger.warn("Error stopping " + serverId + ": " + e.getMessage());
+                    if( System.currentTimeMillis() + delay < timeout ) {
+                        next(op, delay, new Step() {
+                            public void run() throws Exception {
+                                stopForTermination(op, serverId, timeout, attempt + 1);
+                            }
+                        });
+                        return;
+                    }
+                }
+                awaitStopped(op, serverId);
+            }
+
+            public void timedOut() throws Exception {
+                awaitStopped(op, serverId);
+            }
+        });
+    }
+
+    private void awaitStopped(@Nonnull final LifecycleOperation op, @Nonnull final String serverId) {
+        await(op, serverId, ServerWatcher.inStateOrRemoved(VmState.STOPPED), PollingPolicy.getInstance(PollingPolicy.Operation.STOP), CalendarWrapper.MINUTE * 10L, new Wait() {
+            public void met(@Nullable VirtualMachine vm) throws Exception {
+                if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
+                    op.succeed(null);
+                }
+                else {
+                    kill(op, serverId, System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L), 0);
+                }
+            }
+
+            public void timedOut() throws Exception {
+                logger.warn("Timed out waiting for " + serverId + " to be STOPPED");
+                kill(op, serverId, System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L), 0);
+            }
+        });
+    }
+
+    private void kill(@Nonnull final LifecycleOperation op, @Nonnull final String serverId, final long timeout, final int attempt) throws CloudException, InternalException {
+        long delay = PollingPolicy.getInstance(PollingPolicy.Operation.TERMINATE).getDelay(attempt);
+        String resultCode = null;
+
+        op.enter(LifecycleOperation.Phase.KILLING);
+        try {
+            resultCode = support.killVM(serverId);
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Server " + serverId + " termination result: " + resultCode);
+            }
+        }
+        catch( CloudException e ) {
+            logger.warn("Failed termination attempt for " + serverId + ": " + e.getMessage());
+        }
+        if( "REASON_0".equals(resultCode) || "REASON_395".equals(resultCode) ) {
+            // REASON_395: the server could not be found, which the confirmation checks
+            confirm(op, serverId);
+            return;
+        }
+        if( "REASON_100".equals(resultCode) ) {
+            throw new CloudException(resultCode + ": Illegal access");
+        }
+        if( "REASON_393".equals(resultCode) ) {
+            throw new CloudException("The server with " + serverId + " is associated with a Real-Server in load balancer");
+        }
+        if( System.currentTimeMillis() + delay > timeout ) {
+            // the last attempt may still have gone through
+            confirm(op, serverId);
+            return;
+        }
+        next(op, delay, new Step() {
+            public void run() throws Exception {
+                try {
+                    logger.info("Cleaning failed deployment for " + serverId);
+                    support.cleanFailedVM(serverId);
+                }
+                catch( Exception ignore ) {
+                    // ignore
+                }
+                kill(op, serverId, timeout, attempt + 1);
+            }
+        });
+    }
+
+    private void confirm(@Nonnull final LifecycleOperation op, @Nonnull final String serverId) {
+        op.enter(LifecycleOperation.Phase.CONFIRMING);
+        await(op, serverId, ServerWatcher.inStateOrRemoved(), PollingPolicy.getInstance(PollingPolicy.Operation.TERMINATE), CalendarWrapper.MINUTE * 10L, new Wait() {
+            public void met(@Nullable VirtualMachine vm) throws Exception {
+                if( logger.isInfoEnabled() ) {
+                    logger.info("VM " + serverId + " successfully TERMINATED");
+                }
+                op.succeed(null);
+            }
+
+            public void timedOut() throws Exception {
+                throw new CloudException("Timed out waiting for " + serverId + " to complete termination");
+            }
+        });
+    }
+
+    /**
+     * @throws RejectedExecutionException if the provider has been closed
+     */
+    private @Nonnull LifecycleOperation newOperation(@Nonnull String action, @Nullable String serverId) {
+        if( provider.getExecutors().isShutdown() ) {
+            throw new RejectedExecutionException("The provider has been closed");
+        }
+        return new LifecycleOperation(provider, action, serverId);
+    }
+
+    /**
+     * Runs the step on the lifecycle pool once the delay has passed, unless the operation is over by then. A
+     * step that throws fails the operation, and so does the provider having been closed in the meantime.
+     */
+    private void next(@Nonnull final LifecycleOperation op, long delayMillis, @Nonnull final Step step) {
+        OpSourceExecutors.scheduleShared(OpSourceExecutors.Pool.LIFECYCLE, new Runnable() {
+            public void run() {
+                if( op.isDone() ) {
+                    return;
+                }
+                if( provider.getExecutors().isShutdown() ) {
+                    op.fail(new CloudException("The provider was closed before the operation completed"));
+                    return;
+                }
+                try {
+                    step.run();
+                }
+                catch( Throwable t ) {
+                    op.fail(t);
+                }
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Watches the server and runs the matching half of the wait as the operation's next step, once the condition
+     * holds or the timeout passes. The watch is cancelled along with the operation, and the timeout is dropped
+     * as soon as the watch is over.
+     */
+    private void await(@Nonnull final LifecycleOperation op, @Nonnull String serverId, @Nonnull ServerWatcher.Condition condition, @Nonnull PollingPolicy policy, long timeoutMillis, @Nonnull final Wait wait) {
+        final AtomicReference<Future<?>> timeout = new AtomicReference<Future<?>>();
+        final Future<VirtualMachine> watch = ServerWatcher.getInstance(provider).watch(provider, serverId, condition, policy, new ServerWatcher.Callback() {
+            public void watched(@Nonnull final Future<VirtualMachine> watch) {
+                Future<?> t = timeout.get();
+
+                if( t != null ) {
+                    OpSourceExecutors.cancelShared(t);
+                }
+                next(op, 0L, new Step() {
+                    public void run() throws Exception {
+                        if( watch.isCancelled() ) {
+                            wait.timedOut();
+                            return;
+                        }
+                        VirtualMachine vm;
+
+                        try {
+                            vm = watch.get();
+                        }
+                        catch( ExecutionException e ) {
+                            Throwable cause = e.getCause();
+
+                            if( cause instanceof Exception ) {
+                                throw (Exception)cause;
+                            }
+                            throw new InternalException(cause);
+                        }
+                        wait.met(vm);
+                    }
+                });
+            }
+        });
+
+        op.waitOn(watch);
+        timeout.set(OpSourceExecutors.scheduleShared(OpSourceExecutors.Pool.BACKGROUND, new Runnable() {
+            public void run() {
+                watch.cancel(false);
+            }
+        }, Math.max(0L, timeoutMillis)));
+        // the watch may have been over before there was a timeout to drop
+        if( watch.isDone() ) {
+            OpSourceExecutors.cancelShared(timeout.get());
+        }
+    }
+
+    static private int getTag(@Nonnull VirtualMachine server, @Nonnull String name) {
+        Object value = server.getTag(name);
+
+        try {
+            return (value == null ? 0 : Integer.parseInt(value.toString()));
+        }
+        catch( NumberFormatException e ) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource.compute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.network.RawAddress;
+import org.dasein.cloud.opsource.CacheStatistics;
+import org.dasein.cloud.opsource.MutationBus;
+import org.dasein.cloud.opsource.OpSource;
+import org.dasein.cloud.opsource.OpSourceExecutors;
+
+/**
+ * Optional in-memory index of the servers in one region of one account, kept current by full paged listings run
+ * in the background while the snapshot is being read. Reads are answered from the index only while the data is
+ * younger than the configured staleness bound; otherwise callers go to the cloud and feed the result back in.
+ * <p>
+ * The snapshot is off unless the {@link #MAXIMUM_STALENESS_PROPERTY} system property is set to a positive number
+ * of milliseconds. Pick a bound well below the interval at which callers poll for state changes they care about.
+ * </p>
+ */
+public class FleetSnapshot {
+    static private final Logger logger = OpSource.getLogger(FleetSnapshot.class);
+
+    static public final String MAXIMUM_STALENESS_PROPERTY = "dasein.opsource.fleet.maxStaleness";
+
+    static private final ConcurrentHashMap<String, FleetSnapshot> snapshots = new ConcurrentHashMap<String, FleetSnapshot>();
+
+    /** shared by every scope, the same way the call cache keeps one set of statistics per resource */
+    static private final CacheStatistics statistics = CacheStatistics.getInstance("fleet", new CacheStatistics.EntryCounter() {
+        public long countEntries() {
+            long count = 0L;
+
+            for( FleetSnapshot snapshot : snapshots.values() ) {
+                synchronized( snapshot ) {
+                    count += snapshot.byId.size();
+                }
+            }
+            return count;
+        }
+    });
+
+    static {
+        MutationBus.getInstance().addListener(new MutationBus.Listener() {
+            public void mutated(@Nonnull OpSource provider, @Nonnull MutationBus.Mutation mutation, @Nullable String resourceId, @Nullable String relatedId) {
+                FleetSnapshot snapshot = snapshots.get(getScope(provider));
+
+                if( snapshot == null ) {
+                    return;
+                }
+                switch( mutation ) {
+                    case SERVER_CHANGED:
+                        if( resourceId != null ) {
+                            snapshot.invalidate(resourceId);
+                        }
+                        break;
+                    case ADDRESS_ASSIGNED: case ADDRESS_RELEASED:
+                        if( relatedId != null ) {
+                            snapshot.invalidate(relatedId);
+                        }
+                        if( resourceId != null ) {
+                            snapshot.invalidateAddress(resourceId);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the snapshot for the provider's endpoint, account and region, or <code>null</code> if snapshots are disabled
+     */
+    static public @Nullable FleetSnapshot getInstance(@Nonnull OpSource provider) {
+        long maximumStaleness = Long.getLong(MAXIMUM_STALENESS_PROPERTY, 0L);
+
+        if( maximumStaleness <= 0L ) {
+            return null;
+        }
+        String scope = getScope(provider);
+        FleetSnapshot snapshot = snapshots.get(scope);
+
+        if( snapshot == null ) {
+            FleetSnapshot created = new FleetSnapshot(scope, maximumStaleness);
+
+            snapshot = snapshots.putIfAbsent(scope, created);
+            if( snapshot == null ) {
+                snapshot = created;
+            }
+        }
+        return snapshot;
+    }
+
+    static private @Nonnull String getScope(@Nonnull OpSource provider) {
+        ProviderContext ctx = provider.getContext();
+
+        return ctx.getEndpoint() + "-" + ctx.getAccountNumber() + "-" + ctx.getRegionId();
+    }
+
+    static private class Indexed {
+        private final VirtualMachine vm;
+        private final long seenAt;
+
+        Indexed(VirtualMachine vm, long seenAt) {
+            this.vm = vm;
+            this.seenAt = seenAt;
+        }
+    }
+
+    private final String scope;
+    private final long   maximumStaleness;
+
+    private final HashMap<String, Indexed> byId = new HashMap<String, Indexed>();
+    /** VLAN ID and name to server ID */
+    private final HashMap<String, String> byNameAndVlan = new HashMap<String, String>();
+    private final HashMap<VmState, Set<String>> byState = new HashMap<VmState, Set<String>>();
+    /** server ID to the time it was last invalidated, kept until no listing in flight can predate it */
+    private final HashMap<String, Long> invalidatedAt = new HashMap<String, Long>();
+
+    private long    listedAt = 0L;
+    private boolean listing  = false;
+
+    private FleetSnapshot(@Nonnull String scope, long maximumStaleness) {
+        this.scope = scope;
+        this.maximumStaleness = maximumStaleness;
+    }
+
+    public @Nonnull CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    public long getMaximumStaleness() {
+        return maximumStaleness;
+    }
+
+    /**
+     * @return the indexed server if it was seen within the staleness bound, <code>null</code> if the caller must ask the cloud
+     */
+    public synchronized @Nullable VirtualMachine getVirtualMachine(@Nonnull String serverId) {
+        Indexed indexed = byId.get(serverId);
+
+        if( indexed == null || isStale(indexed.seenAt) ) {
+            statistics.recordMiss();
+            return null;
+        }
+        statistics.recordHit();
+        return indexed.vm;
+    }
+
+    /**
+     * @return the server with the given name in the VLAN, or <code>null</code> if it is unknown or the entry is stale
+     */
+    public synchronized @Nullable VirtualMachine getVirtualMachineByNameAndVlan(@Nonnull String name, @Nonnull String providerVlanId) {
+        String serverId = byNameAndVlan.get(toNameKey(name, providerVlanId));
+
+        if( serverId == null ) {
+            statistics.recordMiss();
+            return null;
+        }
+        return getVirtualMachine(serverId);
+    }
+
+    /**
+     * @return the servers in the given state as of the last full listing, or <code>null</code> if that listing is stale
+     */
+    public synchronized @Nullable List<VirtualMachine> listVirtualMachines(@Nonnull VmState state) {
+        if( isStale(listedAt) ) {
+            return null;
+        }
+        ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
+        Set<String> ids = byState.get(state);
+
+        if( ids != null ) {
+            for( String id : ids ) {
+                Indexed indexed = byId.get(id);
+
+                if( indexed != null && !isStale(indexed.seenAt) && state.equals(indexed.vm.getCurrentState()) ) {
+                    list.add(indexed.vm);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Records a server just read from the cloud.
+     */
+    public synchronized void update(@Nonnull VirtualMachine vm) {
+        index(vm, System.currentTimeMillis());
+    }
+
+    /**
+     * Drops the server from the index and keeps a listing already in flight from putting its old state back.
+     */
+    public synchronized void invalidate(@Nonnull String serverId) {
+        remove(serverId);
+        invalidatedAt.put(serverId, System.currentTimeMillis());
+    }
+
+    private synchronized void invalidateAddress(@Nonnull String address) {
+        ArrayList<String> matches = new ArrayList<String>();
+
+        for( Map.Entry<String, Indexed> entry : byId.entrySet() ) {
+            RawAddress[] addresses = entry.getValue().vm.getPublicAddresses();
+
+            if( addresses != null ) {
+                for( RawAddress a : addresses ) {
+                    if( address.equals(a.getIpAddress()) ) {
+                        matches.add(entry.getKey());
+                        break;
+                    }
+                }
+            }
+        }
+        for( String serverId : matches ) {
+            invalidate(serverId);
+        }
+    }
+
+    /**
+     * Starts a listing on the provider's background pool if the last one is more than half the staleness bound old.
+     */
+    public void refreshIfNeeded(@Nonnull final OpSource provider) {
+        synchronized( this ) {
+            if( listing || System.currentTimeMillis() - listedAt < maximumStaleness / 2 ) {
+                return;
+            }
+            listing = true;
+        }
+        try {
+            provider.getExecutors().execute(OpSourceExecutors.Pool.BACKGROUND, "OpSource Fleet Snapshot " + scope, new Runnable() {
+                public void run() {
+                    long startedAt = System.currentTimeMillis();
+                    boolean listed = false;
+
+                    try {
+                        ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+
+                        for( VirtualMachine vm : new VirtualMachines(provider).listVirtualMachines() ) {
+                            vms.add(vm);
+                        }
+                        replace(vms, startedAt);
+                        listed = true;
+                    }
+                    catch( Throwable t ) {
+                        logger.warn("Fleet listing for " + scope + " failed: " + t.getMessage());
+                    }
+                    finally {
+                        statistics.recordLoad(System.currentTimeMillis() - startedAt, listed);
+                        synchronized( FleetSnapshot.this ) {
+                            listing = false;
+                        }
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e ) {
+            synchronized( this ) {
+                listing = false;
+            }
+        }
+    }
+
+    /**
+     * Replaces the index with a full listing taken at <code>startedAt</code>. Servers read individually after the
+     * listing started are newer and are kept; servers invalidated after it started are left out until read again.
+     */
+    private synchronized void replace(@Nonnull Collection<VirtualMachine> vms, long startedAt) {
+        HashMap<String, Indexed> newer = new HashMap<String, Indexed>();
+
+        for( Map.Entry<String, Indexed> entry : byId.entrySet() ) {
+            if( entry.getValue().seenAt > startedAt ) {
+                newer.put(entry.getKey(), entry.getValue());
+            }
+        }
+        byId.clear();
+        byNameAndVlan.clear();
+        byState.clear();
+        for( VirtualMachine vm : vms ) {
+            String id = vm.getProviderVirtualMachineId();
+            Long invalidated = invalidatedAt.get(id);
+
+            if( !newer.containsKey(id) && (invalidated == null || invalidated < startedAt) ) {
+                index(vm, startedAt);
+            }
+        }
+        for( Indexed indexed : newer.values() ) {
+            index(indexed.vm, indexed.seenAt);
+        }
+        // only one listing runs at a time, so older tombstones can no longer matter
+        Iterator<Long> it = invalidatedAt.values().iterator();
+
+        while( it.hasNext() ) {
+            if( it.next() < startedAt ) {
+                it.remove();
+            }
+        }
+        listedAt = startedAt;
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Indexed " + byId.size() + " servers for " + scope);
+        }
+    }
+
+    private void index(@Nonnull VirtualMachine vm, long seenAt) {
+        String id = vm.getProviderVirtualMachineId();
+
+        if( id == null ) {
+            return;
+        }
+        remove(id);
+        byId.put(id, new Indexed(vm, seenAt));
+        if( vm.getName() != null && vm.getProviderVlanId() != null ) {
+            byNameAndVlan.put(toNameKey(vm.getName(), vm.getProviderVlanId()), id);
+        }
+        if( vm.getCurrentState() != null ) {
+            Set<String> ids = byState.get(vm.getCurrentState());
+
+            if( ids == null ) {
+                ids = new LinkedHashSet<String>();
+                byState.put(vm.getCurrentState(), ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    /**
+     * Removes the server from all three indexes.
+     */
+    private void remove(@Nonnull String serverId) {
+        Indexed indexed = byId.remove(serverId);
+
+        if( indexed == null ) {
+            return;
+        }
+        VirtualMachine vm = indexed.vm;
+
+        if( vm.getName() != null && vm.getProviderVlanId() != null ) {
+            String key = toNameKey(vm.getName(), vm.getProviderVlanId());
+
+            if( serverId.equals(byNameAndVlan.get(key)) ) {
+                byNameAndVlan.remove(key);
+            }
+        }
+        if( vm.getCurrentState() != null ) {
+            Set<String> ids = byState.get(vm.getCurrentState());
+
+            if( ids != null ) {
+                ids.remove(serverId);
+                if( ids.isEmpty() ) {
+                    byState.remove(vm.getCurrentState());
+                }
+            }
+        }
+    }
+
+    private boolean isStale(long seenAt) {
+        return (System.currentTimeMillis() - seenAt > maximumStaleness);
+    }
+
+    static private @Nonnull String toNameKey(@Nonnull String name, @Nonnull String providerVlanId) {
+        return providerVlanId + ":" + name;
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.opsource.OpSource;
+
+/**
+ * A server lifecycle operation started by {@link AsyncLifecycle}. The future completes with the server as last
+ * seen, or <code>null</code> once it is gone, and fails with the cause of a failed step. The phase the operation
+ * is in can be read at any time or followed through listeners. Cancelling stops the operation before its next
+ * step; a request already sent to the cloud is not undone. The operation holds its provider until it is over.
+ */
+public class LifecycleOperation extends FutureTask<VirtualMachine> {
+    static private final Logger logger = OpSource.getLogger(LifecycleOperation.class);
+
+    static public enum Phase {
+        SUBMITTED, DEPLOYING, CONFIGURING, STARTING, STOPPING, REBOOTING, RELEASING_ADDRESSES, KILLING, CONFIRMING,
+        COMPLETE, FAILED, CANCELLED
+    }
+
+    static public interface Listener {
+        /**
+         * Called on the thread that moved the operation on; must not block.
+         */
+        public void phaseChanged(@Nonnull LifecycleOperation operation, @Nonnull Phase phase);
+    }
+
+    static private final Callable<VirtualMachine> NEVER_RUN = new Callable<VirtualMachine>() {
+        public VirtualMachine call() throws Exception {
+            throw new IllegalStateException("A lifecycle operation is completed by its steps, not run");
+        }
+    };
+
+    private final OpSource provider;
+    private final String   action;
+    private final long     startedAt = System.currentTimeMillis();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private volatile String    serverId;
+    private volatile Phase     phase = Phase.SUBMITTED;
+    private volatile long      phaseStartedAt = startedAt;
+    private volatile Future<?> pending;
+
+    LifecycleOperation(@Nonnull OpSource provider, @Nonnull String action, @Nullable String serverId) {
+        super(NEVER_RUN);
+        provider.hold();
+        this.provider = provider;
+        this.action = action;
+        this.serverId = serverId;
+    }
+
+    public @Nonnull String getAction() {
+        return action;
+    }
+
+    /**
+     * @return the server's ID, or <code>null</code> while a launch has not deployed it yet
+     */
+    public @Nullable String getServerId() {
+        return serverId;
+    }
+
+    public @Nonnull Phase getPhase() {
+        return phase;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getPhaseStartedAt() {
+        return phaseStartedAt;
+    }
+
+    /**
+     * Adds a listener; if the operation is already over, the listener is told its final phase right away.
+     */
+    public void addListener(@Nonnull Listener listener) {
+        listeners.add(listener);
+        if( isDone() ) {
+            notify(listener, phase);
+        }
+    }
+
+    void setServerId(@Nonnull String serverId) {
+        this.serverId = serverId;
+    }
+
+    void enter(@Nonnull Phase next) {
+        if( isDone() ) {
+            return;
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug(action + " " + serverId + ": " + phase + " -> " + next);
+        }
+        phase = next;
+        phaseStartedAt = System.currentTimeMillis();
+        for( Listener listener : listeners ) {
+            notify(listener, next);
+        }
+    }
+
+    /**
+     * @param wait the watch or timer the operation waits on, cancelled along with the operation
+     */
+    void waitOn(@Nullable Future<?> wait) {
+        pending = wait;
+    }
+
+    void succeed(@Nullable VirtualMachine server) {
+        set(server);
+    }
+
+    void fail(@Nonnull Throwable cause) {
+        setException(cause);
+    }
+
+    @Override
+    protected void done() {
+        Future<?> wait = pending;
+
+        if( wait != null ) {
+            wait.cancel(false);
+        }
+        if( isCancelled() ) {
+            phase = Phase.CANCELLED;
+        }
+        else {
+            try {
+                get();
+                phase = Phase.COMPLETE;
+            }
+            catch( ExecutionException e ) {
+                phase = Phase.FAILED;
+                logger.warn(action + " " + serverId + " failed: " + e.getCause().getMessage());
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        phaseStartedAt = System.currentTimeMillis();
+        provider.release();
+        for( Listener listener : listeners ) {
+            notify(listener, phase);
+        }
+    }
+
+    private void notify(@Nonnull Listener listener, @Nonnull Phase phase) {
+        try {
+            listener.phaseChanged(this, phase);
+        }
+        catch( RuntimeException e ) {
+            logger.warn("Lifecycle listener failed on " + phase + " of " + action + " " + serverId + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return action + " " + serverId + " [" + phase + "]";
+    }
+}
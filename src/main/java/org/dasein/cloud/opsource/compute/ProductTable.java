@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource.compute;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.compute.VirtualMachineProduct;
+
+/**
+ * Immutable list of the server products of one region with constant time lookups by product ID and by shape.
+ * OpSource products are identified by their CPU count and RAM alone, so the ID <code>cpu:ramInMb</code> and the
+ * shape are the same key; any further <code>:disk</code> part of a requested ID is ignored.
+ */
+public class ProductTable extends AbstractList<VirtualMachineProduct> {
+    static private @Nonnull String toKey(int cpuCount, int ramInMb) {
+        return cpuCount + ":" + ramInMb;
+    }
+
+    private final ArrayList<VirtualMachineProduct> products;
+    private final HashMap<String, VirtualMachineProduct> byShape;
+
+    /**
+     * Builds the table, keeping the first product of each shape.
+     */
+    public ProductTable(@Nonnull Collection<VirtualMachineProduct> candidates) {
+        products = new ArrayList<VirtualMachineProduct>(candidates.size());
+        byShape = new HashMap<String, VirtualMachineProduct>();
+        for( VirtualMachineProduct product : candidates ) {
+            if( product.getRamSize() == null ) {
+                continue;
+            }
+            String key = toKey(product.getCpuCount(), product.getRamSize().intValue());
+
+            if( !byShape.containsKey(key) ) {
+                byShape.put(key, product);
+                products.add(product);
+            }
+        }
+        products.trimToSize();
+    }
+
+    /**
+     * @param productId a product ID in the form <code>cpu:ramInMb</code>, optionally followed by <code>:disk</code>
+     * @return the matching product, or <code>null</code> if there is none in this region
+     */
+    public @Nullable VirtualMachineProduct getProduct(@Nonnull String productId) {
+        VirtualMachineProduct product = byShape.get(productId);
+
+        if( product != null ) {
+            return product;
+        }
+        String[] parts = productId.split(":");
+
+        if( parts.length < 2 ) {
+            return null;
+        }
+        try {
+            return getProduct(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        catch( NumberFormatException e ) {
+            return null;
+        }
+    }
+
+    public @Nullable VirtualMachineProduct getProduct(int cpuCount, int ramInMb) {
+        return byShape.get(toKey(cpuCount, ramInMb));
+    }
+
+    @Override
+    public VirtualMachineProduct get(int index) {
+        return products.get(index);
+    }
+
+    @Override
+    public int size() {
+        return products.size();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.util.Jiterator;
+
+/**
+ * The servers of several regions, listed concurrently and merged into one stream by
+ * {@link VirtualMachines#listVirtualMachinesInAllRegions()}. Each server carries its region in
+ * {@link VirtualMachine#getProviderRegionId()}. A region whose listing fails does not end the stream; its
+ * failure is kept and can be read from {@link #getFailures()} once the stream is exhausted, along with any
+ * servers it delivered before failing.
+ */
+public class RegionInventory implements Iterable<VirtualMachine> {
+    private final List<String>                         regionIds;
+    private final Jiterator<VirtualMachine>            servers;
+    private final AtomicInteger                        remaining;
+    private final ConcurrentHashMap<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+
+    RegionInventory(@Nonnull List<String> regionIds) {
+        this.regionIds = Collections.unmodifiableList(regionIds);
+        this.servers = new Jiterator<VirtualMachine>();
+        this.remaining = new AtomicInteger(regionIds.size());
+        if( regionIds.isEmpty() ) {
+            servers.complete();
+        }
+    }
+
+    @Nonnull Jiterator<VirtualMachine> getServers() {
+        return servers;
+    }
+
+    void fail(@Nonnull String regionId, @Nonnull Exception cause) {
+        failures.put(regionId, cause);
+    }
+
+    /**
+     * Marks the region's listing as over; the stream ends with the last region.
+     */
+    void finish() {
+        if( remaining.decrementAndGet() == 0 ) {
+            servers.complete();
+        }
+    }
+
+    public @Nonnull Iterator<VirtualMachine> iterator() {
+        return servers.iterator();
+    }
+
+    /**
+     * @return the regions being listed, in the order {@link org.dasein.cloud.dc.DataCenterServices#listRegions()} returned them
+     */
+    public @Nonnull List<String> getRegionIds() {
+        return regionIds;
+    }
+
+    /**
+     * @return true once every region's listing is over, successfully or not
+     */
+    public boolean isComplete() {
+        return (remaining.get() == 0);
+    }
+
+    /**
+     * @return the failure of each region whose listing failed so far
+     */
+    public @Nonnull Map<String, Exception> getFailures() {
+        return new HashMap<String, Exception>(failures);
+    }
+
+    @Override
+    public String toString() {
+        return "[regions=" + regionIds + ", complete=" + isComplete() + ", failures=" + failures.keySet() + "]";
+    }
+}
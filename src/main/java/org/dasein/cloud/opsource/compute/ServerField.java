@@ -0,0 +1,26 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+/**
+ * The parts of a <code>serverWithState</code> element a {@link ServerVisitor} can ask to have decoded. The
+ * server ID and location are always decoded.
+ */
+public enum ServerField {
+    NAME, DESCRIPTION, NETWORK, IMAGE, OPERATING_SYSTEM, SHAPE, DISKS, ADDRESSES, CREATED, STATE
+}
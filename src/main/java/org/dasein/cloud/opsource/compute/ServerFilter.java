@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.opsource.compute;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+
+/**
+ * Criteria for {@link VirtualMachines#listVirtualMachines(ServerFilter, boolean)}. The name, network, location and
+ * image are sent to the <code>serverWithState</code> call as query parameters; the state has no direct equivalent
+ * in the API, which reports administrative states rather than power states, and is matched locally while the
+ * pages stream in. Server IDs are sent as repeated <code>id</code> parameters only when the
+ * {@link #MULTI_ID_PROPERTY} system property is <code>true</code>; otherwise they are matched locally. Every
+ * criterion is checked locally as well, so a filter the API ignores still holds.
+ */
+public class ServerFilter {
+    static public final String MULTI_ID_PROPERTY = "dasein.opsource.filter.multiId";
+
+    /** The most IDs sent in one query; larger ID sets are matched locally to keep the URL short */
+    static public final int MAXIMUM_QUERY_IDS = 50;
+
+    /**
+     * @return true if the API is known to accept several <code>id</code> parameters in one listing
+     */
+    static public boolean isMultiIdSupported() {
+        return Boolean.getBoolean(MULTI_ID_PROPERTY);
+    }
+
+    static public @Nonnull ServerFilter getInstance() {
+        return new ServerFilter();
+    }
+
+    private String            name;
+    private String            networkId;
+    private String            location;
+    private String            imageId;
+    private EnumSet<VmState>  states;
+    private Set<String>       ids;
+
+    private ServerFilter() { }
+
+    public @Nonnull ServerFilter withName(@Nonnull String name) {
+        this.name = name;
+        return this;
+    }
+
+    public @Nonnull ServerFilter inNetwork(@Nonnull String providerVlanId) {
+        this.networkId = providerVlanId;
+        return this;
+    }
+
+    /**
+     * @param regionId the location to list instead of the context's region
+     */
+    public @Nonnull ServerFilter inLocation(@Nonnull String regionId) {
+        this.location = regionId;
+        return this;
+    }
+
+    public @Nonnull ServerFilter fromImage(@Nonnull String providerMachineImageId) {
+        this.imageId = providerMachineImageId;
+        return this;
+    }
+
+    public @Nonnull ServerFilter withIds(@Nonnull Collection<String> providerVirtualMachineIds) {
+        this.ids = new HashSet<String>(providerVirtualMachineIds);
+        return this;
+    }
+
+    public @Nonnull ServerFilter inState(@Nonnull VmState ... states) {
+        this.states = (states.length == 0 ? null : EnumSet.copyOf(Arrays.asList(states)));
+        return this;
+    }
+
+    public @Nullable String getName() {
+        return name;
+    }
+
+    public @Nullable String getNetworkId() {
+        return networkId;
+    }
+
+    public @Nullable String getLocation() {
+        return location;
+    }
+
+    public @Nullable String getImageId() {
+        return imageId;
+    }
+
+    /**
+     * @return the query parameters for the criteria the API can filter on, each starting with <code>&amp;</code>; the location is left to the caller
+     */
+    public @Nonnull String toQuery() throws InternalException {
+        StringBuilder query = new StringBuilder();
+
+        append(query, "name", name);
+        append(query, "networkId", networkId);
+        append(query, "sourceImageId", imageId);
+        if( ids != null && ids.size() <= MAXIMUM_QUERY_IDS && isMultiIdSupported() ) {
+            for( String id : ids ) {
+                append(query, "id", id);
+            }
+        }
+        return query.toString();
+    }
+
+    public boolean matches(@Nullable VirtualMachine vm) {
+        if( vm == null ) {
+            return false;
+        }
+        if( name != null && !name.equals(vm.getName()) ) {
+            return false;
+        }
+        if( networkId != null && !networkId.equals(vm.getProviderVlanId()) ) {
+            return false;
+        }
+        if( location != null && !location.equals(vm.getProviderRegionId()) ) {
+            return false;
+        }
+        if( imageId != null && !imageId.equals(vm.getProviderMachineImageId()) ) {
+            return false;
+        }
+        if( ids != null && !ids.contains(vm.getProviderVirtualMachineId()) ) {
+            return false;
+        }
+        return (states == null || states.contains(vm.getCurrentState()));
+    }
+
+    /**
+     * @see #matches(VirtualMachine)
+     */
+    public boolean matches(@Nonnull ServerRecord server) {
+        if( name != null && !name.equals(server.getName()) ) {
+            return false;
+        }
+        if( networkId != null && !networkId.equals(server.getProviderVlanId()) ) {
+            return false;
+        }
+        if( location != null && !location.equals(server.getProviderRegionId()) ) {
+            return false;
+        }
+        if( imageId != null && !imageId.equals(server.getProviderMachineImageId()) ) {
+            return false;
+        }
+        if( ids != null && !ids.contains(server.getProviderVirtualMachineId()) ) {
+            return false;
+        }
+        return (states == null || states.contains(server.getCurrentState()));
+    }
+
+    /**
+     * @return the fields a {@link ServerRecord} needs for {@link #matches(ServerRecord)}
+     */
+    @Nonnull EnumSet<ServerField> getRequiredFields() {
+        EnumSet<ServerField> fields = EnumSet.noneOf(ServerField.class);
+
+        if( name != null ) {
+            fields.add(ServerField.NAME);
+        }
+        if( networkId != null ) {
+            fields.add(ServerField.NETWORK);
+        }
+        if( imageId != null ) {
+            fields.add(ServerField.IMAGE);
+        }
+        if( states != null ) {
+            fields.add(ServerField.STATE);
+        }
+        return fields;
+    }
+
+    private void append(@Nonnull StringBuilder query, @Nonnull String key, @Nullable String value) throws InternalException {
+        if( value == null ) {
+            return;
+        }
+        try {
+            query.append("&").append(key).append("=").append(URLEncoder.encode(value, "utf-8"));
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[name=" + name + ", networkId=" + networkId + ", location=" + location + ", imageId=" + imageId + ", states=" + states + ", ids=" + (ids == null ? null : ids.size()) + "]";
+    }
+}
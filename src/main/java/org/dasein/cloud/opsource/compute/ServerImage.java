@@ -21,6 +21,7 @@ package org.dasein.cloud.opsource.compute;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
@@ -29,11 +30,15 @@ import javax.annotation.Nullable;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.compute.*;
+import org.dasein.cloud.opsource.CallCache;
+import org.dasein.cloud.opsource.MutationBus;
 import org.dasein.cloud.opsource.OpSource;
 import org.dasein.cloud.opsource.OpSourceMethod;
 import org.dasein.cloud.opsource.Param;
 
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -61,13 +66,17 @@ public class ServerImage extends AbstractImageSupport {
     }
     
     public MachineImage getOpSourceImage(String imageId) throws InternalException, CloudException{
-    	
+        MachineImage cached = getCachedImage(imageId);
+
+        if( cached != null ) {
+            return cached;
+        }
     	ArrayList<MachineImage> images = (ArrayList<MachineImage>) listCustomerMachineImages(ImageFilterOptions.getInstance());
 
         for( MachineImage img: images) {
 
             if(img.getProviderMachineImageId().equals(imageId)){
-                return img;
+                return cacheImage(img);
             }
         }
 
@@ -77,17 +86,37 @@ public class ServerImage extends AbstractImageSupport {
         for( MachineImage img: images) {       	
             
         	if(img.getProviderMachineImageId().equals(imageId)){
-    			return img;
+    			return cacheImage(img);
     		}    	
         }
         return null;    	
     }
 
+    /**
+     * Active images are immutable apart from removal, so they are cached by ID until the image is captured over
+     * or removed. Pending images are never cached since callers poll them for their state.
+     */
+    private @Nullable MachineImage getCachedImage(@Nonnull String imageId) {
+        return CallCache.getInstance().getIfPresent(provider, CallCache.IMAGE_METADATA, imageId, CacheLevel.REGION_ACCOUNT, CalendarWrapper.DAY);
+    }
+
+    private @Nonnull MachineImage cacheImage(@Nonnull MachineImage image) {
+        if( MachineImageState.ACTIVE.equals(image.getCurrentState()) && image.getProviderMachineImageId() != null ) {
+            CallCache.getInstance().put(provider, CallCache.IMAGE_METADATA, image.getProviderMachineImageId(), CacheLevel.REGION_ACCOUNT, image);
+        }
+        return image;
+    }
+
     @Nullable
     @Override
     public MachineImage getImage(@Nonnull String imageId) throws CloudException, InternalException {
         APITrace.begin(provider, "Image.getImage");
         try {
+            MachineImage cached = getCachedImage(imageId);
+
+            if( cached != null ) {
+                return cached;
+            }
             //First check the pending images, because it is mostly being checked by customers
             ArrayList<MachineImage> list = (ArrayList<MachineImage>) listCustomerMachinePendingImages(null);
             for(MachineImage image : list){
@@ -99,14 +128,14 @@ public class ServerImage extends AbstractImageSupport {
             list = (ArrayList<MachineImage>) this.listCustomerMachineDeployedImages(null);
             for(MachineImage image : list){
                 if(image.getProviderMachineImageId().equals(imageId)){
-                    return image;
+                    return cacheImage(image);
                 }
             }
 
             list = (ArrayList<MachineImage>) listOpSourceMachineImages(null);
             for(MachineImage image : list){
                 if(image.getProviderMachineImageId().equals(imageId)){
-                    return image;
+                    return cacheImage(image);
                 }
             }
 
@@ -221,6 +250,7 @@ public class ServerImage extends AbstractImageSupport {
                 ArrayList<MachineImage> list = (ArrayList<MachineImage>) listCustomerMachinePendingImages(ImageFilterOptions.getInstance());
                 for(MachineImage image : list){
                     if(image.getName().equals(options.getName())){
+                        MutationBus.getInstance().publish(provider, MutationBus.Mutation.IMAGE_CAPTURED, image.getProviderMachineImageId(), vmId);
                         return image;
                     }
                 }
@@ -228,6 +258,7 @@ public class ServerImage extends AbstractImageSupport {
                 list = (ArrayList<MachineImage>) this.listCustomerMachineDeployedImages(ImageFilterOptions.getInstance());
                 for(MachineImage image : list){
                     if(image.getName().equals(options.getName())){
+                        MutationBus.getInstance().publish(provider, MutationBus.Mutation.IMAGE_CAPTURED, image.getProviderMachineImageId(), vmId);
                         return image;
                     }
                 }
@@ -439,40 +470,51 @@ public class ServerImage extends AbstractImageSupport {
         try {
             ArrayList<MachineImage> list = new ArrayList<MachineImage>();
 
-            /** Get OpSource public Image */
-            HashMap<Integer, Param> parameters = new HashMap<Integer, Param>();
-            Param param = new Param(OpSource.IMAGE_BASE_PATH, null);
-            parameters.put(0, param);
+            List<MachineImage> catalog = CallCache.getInstance().get(provider, CallCache.IMAGE_CATALOG, CacheLevel.REGION_ACCOUNT, CalendarWrapper.DAY, new CallCache.Loader<List<MachineImage>>() {
+                public @Nonnull List<MachineImage> load() throws CloudException, InternalException {
+                    return fetchOpSourceMachineImages();
+                }
+            });
+            for( MachineImage image : catalog ) {
+                if( options == null || options.matches(image) ) {
+                    list.add(image);
+                }
+            }
+            return list;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            param = new Param(provider.getDefaultRegionId(), null);
-            parameters.put(1, param);
+    private @Nonnull List<MachineImage> fetchOpSourceMachineImages() throws InternalException, CloudException {
+        ArrayList<MachineImage> list = new ArrayList<MachineImage>();
 
-            OpSourceMethod method = new OpSourceMethod(provider,
-                                provider.buildUrl(null, false, parameters),
-                                provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
+        /** Get OpSource public Image */
+        HashMap<Integer, Param> parameters = new HashMap<Integer, Param>();
+        Param param = new Param(OpSource.IMAGE_BASE_PATH, null);
+        parameters.put(0, param);
 
-            Document doc = method.invoke();
+        param = new Param(provider.getDefaultRegionId(), null);
+        parameters.put(1, param);
 
-            NodeList matches = doc.getElementsByTagName(OpSource_IMAGE_TAG);
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Node node = matches.item(i);
+        OpSourceMethod method = new OpSourceMethod(provider,
+                            provider.buildUrl(null, false, parameters),
+                            provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
 
-                MachineImage image = toImage(node,false,false, "");
+        Document doc = method.invoke();
 
-                if( image != null && (options == null || options.matches(image)) ) {
-                    list.add(image);
-                }
-            }
+        NodeList matches = doc.getElementsByTagName(OpSource_IMAGE_TAG);
+        for( int i=0; i<matches.getLength(); i++ ) {
+            Node node = matches.item(i);
 
-            if( logger.isTraceEnabled() ) {
-                logger.trace("ENTER: " + ServerImage.class.getName() + ".listOpSourceMachineImages()");
-            }
+            MachineImage image = toImage(node,false,false, "");
 
-            return list;
-        }
-        finally {
-            APITrace.end();
+            if( image != null ) {
+                list.add(image);
+            }
         }
+        return Collections.unmodifiableList(list);
     }
 
     @Nonnull
@@ -508,6 +550,7 @@ public class ServerImage extends AbstractImageSupport {
             parameters.put(1, param);
             OpSourceMethod method = new OpSourceMethod(provider, provider.buildUrl(DELETE_IMAGE,true, parameters),provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
             method.requestResult("Removing image",method.invoke());
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.IMAGE_REMOVED, providerImageId);
         }
         finally {
             APITrace.end();
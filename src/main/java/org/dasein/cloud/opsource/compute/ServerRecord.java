@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.compute.VmState;
+
+/**
+ * The decoded parts of one <code>serverWithState</code> element. Only the fields a visitor asked for are set;
+ * the others are <code>null</code>, or -1 for numbers. A listing reuses one record for all of its servers, so
+ * visitors must copy whatever they keep.
+ */
+public class ServerRecord {
+    private String  id;
+    private String  regionId;
+    private String  name;
+    private String  description;
+    private String  vlanId;
+    private String  imageId;
+    private String  operatingSystem;
+    private int     cpuCount;
+    private int     memoryInMb;
+    private String  privateIp;
+    private String  publicIp;
+    private long    creationTimestamp;
+    private VmState state;
+    private final TreeMap<Integer, Integer> disks = new TreeMap<Integer, Integer>();
+
+    ServerRecord() {
+        clear();
+    }
+
+    void clear() {
+        id = null;
+        regionId = null;
+        name = null;
+        description = null;
+        vlanId = null;
+        imageId = null;
+        operatingSystem = null;
+        cpuCount = -1;
+        memoryInMb = -1;
+        privateIp = null;
+        publicIp = null;
+        creationTimestamp = -1L;
+        state = null;
+        disks.clear();
+    }
+
+    public @Nonnull String getProviderVirtualMachineId() {
+        return id;
+    }
+
+    void setProviderVirtualMachineId(@Nonnull String id) {
+        this.id = id;
+    }
+
+    public @Nullable String getProviderRegionId() {
+        return regionId;
+    }
+
+    void setProviderRegionId(@Nullable String regionId) {
+        this.regionId = regionId;
+    }
+
+    /** {@link ServerField#NAME} */
+    public @Nullable String getName() {
+        return name;
+    }
+
+    void setName(@Nullable String name) {
+        this.name = name;
+    }
+
+    /** {@link ServerField#DESCRIPTION} */
+    public @Nullable String getDescription() {
+        return description;
+    }
+
+    void setDescription(@Nullable String description) {
+        this.description = description;
+    }
+
+    /** {@link ServerField#NETWORK} */
+    public @Nullable String getProviderVlanId() {
+        return vlanId;
+    }
+
+    void setProviderVlanId(@Nullable String vlanId) {
+        this.vlanId = vlanId;
+    }
+
+    /** {@link ServerField#IMAGE} */
+    public @Nullable String getProviderMachineImageId() {
+        return imageId;
+    }
+
+    void setProviderMachineImageId(@Nullable String imageId) {
+        this.imageId = imageId;
+    }
+
+    /** {@link ServerField#OPERATING_SYSTEM}: the operating system's display name */
+    public @Nullable String getOperatingSystem() {
+        return operatingSystem;
+    }
+
+    void setOperatingSystem(@Nullable String operatingSystem) {
+        this.operatingSystem = operatingSystem;
+    }
+
+    /** {@link ServerField#SHAPE} */
+    public int getCpuCount() {
+        return cpuCount;
+    }
+
+    void setCpuCount(int cpuCount) {
+        this.cpuCount = cpuCount;
+    }
+
+    /** {@link ServerField#SHAPE} */
+    public int getMemoryInMb() {
+        return memoryInMb;
+    }
+
+    void setMemoryInMb(int memoryInMb) {
+        this.memoryInMb = memoryInMb;
+    }
+
+    /**
+     * {@link ServerField#DISKS}
+     * @return the size in GB of each disk by SCSI ID, the system disk being 0
+     */
+    public @Nonnull Map<Integer, Integer> getDisks() {
+        return Collections.unmodifiableMap(disks);
+    }
+
+    void addDisk(int scsiId, int sizeInGb) {
+        disks.put(scsiId, sizeInGb);
+    }
+
+    /** {@link ServerField#ADDRESSES} */
+    public @Nullable String getPrivateIp() {
+        return privateIp;
+    }
+
+    void setPrivateIp(@Nullable String privateIp) {
+        this.privateIp = privateIp;
+    }
+
+    /** {@link ServerField#ADDRESSES} */
+    public @Nullable String getPublicIp() {
+        return publicIp;
+    }
+
+    void setPublicIp(@Nullable String publicIp) {
+        this.publicIp = publicIp;
+    }
+
+    /** {@link ServerField#CREATED} */
+    public long getCreationTimestamp() {
+        return creationTimestamp;
+    }
+
+    void setCreationTimestamp(long creationTimestamp) {
+        this.creationTimestamp = creationTimestamp;
+    }
+
+    /** {@link ServerField#STATE}: derived as for {@link org.dasein.cloud.compute.VirtualMachine#getCurrentState()} */
+    public @Nullable VmState getCurrentState() {
+        return state;
+    }
+
+    void setCurrentState(@Nullable VmState state) {
+        this.state = state;
+    }
+
+    @Override
+    public String toString() {
+        return id + " [name=" + name + ", region=" + regionId + ", state=" + state + "]";
+    }
+}
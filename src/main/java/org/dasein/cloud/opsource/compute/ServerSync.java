@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.opsource.MutationBus;
+import org.dasein.cloud.opsource.OpSource;
+import org.dasein.cloud.opsource.PagedListing;
+
+/**
+ * Keeps a caller's view of the servers in the provider's region current with as few listing pages as possible.
+ * The first {@link #sync()} lists every server. Later ones page through the servers newest first and stop at the
+ * newest server already known, then look up again only the servers that were being added, changed or deleted
+ * when last seen, along with those this JVM changed since; a periodic reconcile loop thus reads one or two pages
+ * instead of the whole fleet.
+ * <p>
+ * Servers changed or deleted from outside this JVM while in normal state are only noticed by a full listing,
+ * which is repeated every {@link #FULL_SYNC_INTERVAL_PROPERTY} milliseconds (an hour by default). Call
+ * {@link #close()} when done to stop listening for changes made by this JVM.
+ * </p>
+ */
+public class ServerSync {
+    static private final Logger logger = OpSource.getLogger(ServerSync.class);
+
+    static public final String FULL_SYNC_INTERVAL_PROPERTY = "dasein.opsource.sync.fullInterval";
+
+    static private final long DEFAULT_FULL_SYNC_INTERVAL = 60L * 60L * 1000L;
+
+    /**
+     * The changes found by one {@link #sync()}.
+     */
+    static public class Delta {
+        private final boolean              full;
+        private final int                  pages;
+        private final List<VirtualMachine> added;
+        private final List<VirtualMachine> changed;
+        private final List<String>         removed;
+
+        Delta(boolean full, int pages, @Nonnull List<VirtualMachine> added, @Nonnull List<VirtualMachine> changed, @Nonnull List<String> removed) {
+            this.full = full;
+            this.pages = pages;
+            this.added = Collections.unmodifiableList(added);
+            this.changed = Collections.unmodifiableList(changed);
+            this.removed = Collections.unmodifiableList(removed);
+        }
+
+        /**
+         * @return true if the sync listed every server
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * @return the number of listing pages read, not counting single server lookups
+         */
+        public int getPageCount() {
+            return pages;
+        }
+
+        public @Nonnull List<VirtualMachine> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return servers whose state, administrative state, name or product changed
+         */
+        public @Nonnull List<VirtualMachine> getChanged() {
+            return changed;
+        }
+
+        public @Nonnull List<String> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return (added.isEmpty() && changed.isEmpty() && removed.isEmpty());
+        }
+
+        @Override
+        public String toString() {
+            return "[full=" + full + ", pages=" + pages + ", added=" + added.size() + ", changed=" + changed.size() + ", removed=" + removed.size() + "]";
+        }
+    }
+
+    static private @Nonnull String getScope(@Nonnull ProviderContext ctx) {
+        return ctx.getEndpoint() + "-" + ctx.getAccountNumber() + "-" + ctx.getRegionId();
+    }
+
+    /**
+     * @return true if the server was being added, changed or deleted when it was read
+     */
+    static private boolean isPending(@Nonnull VirtualMachine vm) {
+        Object serverState = vm.getTag("serverState");
+
+        if( serverState != null && serverState.toString().startsWith("PENDING_") ) {
+            return true;
+        }
+        VmState state = vm.getCurrentState();
+
+        return (state == null || state.equals(VmState.PENDING) || state.equals(VmState.STOPPING) || state.equals(VmState.REBOOTING));
+    }
+
+    static private boolean isChanged(@Nonnull VirtualMachine before, @Nonnull VirtualMachine after) {
+        return !(equal(before.getCurrentState(), after.getCurrentState())
+                && equal(before.getTag("serverState"), after.getTag("serverState"))
+                && equal(before.getName(), after.getName())
+                && equal(before.getProductId(), after.getProductId()));
+    }
+
+    static private boolean equal(@Nullable Object a, @Nullable Object b) {
+        return (a == null ? b == null : a.equals(b));
+    }
+
+    private final VirtualMachines support;
+    private final String          scope;
+    private final long            fullSyncInterval;
+
+    private final HashMap<String, VirtualMachine> servers = new HashMap<String, VirtualMachine>();
+    private final HashSet<String> pending = new HashSet<String>();
+    /** servers changed by this JVM since the last sync */
+    private final Set<String> touched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** creation time of the newest known server, and the known servers created at that time */
+    private long highWaterMark = -1L;
+    private final HashSet<String> atHighWaterMark = new HashSet<String>();
+    private long fullSyncAt = 0L;
+
+    private final MutationBus.Listener listener = new MutationBus.Listener() {
+        public void mutated(@Nonnull OpSource provider, @Nonnull MutationBus.Mutation mutation, @Nullable String resourceId, @Nullable String relatedId) {
+            if( mutation.equals(MutationBus.Mutation.SERVER_CHANGED) && resourceId != null && scope.equals(getScope(provider.getContext())) ) {
+                touched.add(resourceId);
+            }
+        }
+    };
+
+    public ServerSync(@Nonnull OpSource provider) throws CloudException {
+        this(provider.getComputeServices().getVirtualMachineSupport(), provider.getContext());
+    }
+
+    /**
+     * @param support where listing pages and servers are read from
+     */
+    ServerSync(@Nonnull VirtualMachines support, @Nullable ProviderContext ctx) throws CloudException {
+        if( ctx == null ) {
+            throw new CloudException("No context was set for this request");
+        }
+        this.support = support;
+        this.scope = getScope(ctx);
+        this.fullSyncInterval = Long.getLong(FULL_SYNC_INTERVAL_PROPERTY, DEFAULT_FULL_SYNC_INTERVAL);
+        MutationBus.getInstance().addListener(listener);
+    }
+
+    /**
+     * Stops listening for changes made by this JVM. The view stays readable.
+     */
+    public void close() {
+        MutationBus.getInstance().removeListener(listener);
+    }
+
+    /**
+     * @return the servers as of the last sync
+     */
+    public synchronized @Nonnull Collection<VirtualMachine> getServers() {
+        return new ArrayList<VirtualMachine>(servers.values());
+    }
+
+    /**
+     * Brings the view up to date, listing every server on the first call and whenever the full sync interval has passed.
+     */
+    public synchronized @Nonnull Delta sync() throws CloudException, InternalException {
+        if( highWaterMark < 0L || System.currentTimeMillis() - fullSyncAt >= fullSyncInterval ) {
+            return syncFully();
+        }
+        return syncChanges();
+    }
+
+    private @Nonnull Delta syncFully() throws CloudException, InternalException {
+        HashMap<String, VirtualMachine> listed = new HashMap<String, VirtualMachine>();
+        ArrayList<VirtualMachine> added = new ArrayList<VirtualMachine>();
+        ArrayList<VirtualMachine> changed = new ArrayList<VirtualMachine>();
+        ArrayList<String> removed = new ArrayList<String>();
+        long startedAt = System.currentTimeMillis();
+
+        touched.clear();
+        for( VirtualMachine vm : support.listVirtualMachines() ) {
+            listed.put(vm.getProviderVirtualMachineId(), vm);
+        }
+        for( VirtualMachine vm : listed.values() ) {
+            VirtualMachine known = servers.get(vm.getProviderVirtualMachineId());
+
+            if( known == null ) {
+                added.add(vm);
+            }
+            else if( isChanged(known, vm) ) {
+                changed.add(vm);
+            }
+        }
+        for( String id : servers.keySet() ) {
+            if( !listed.containsKey(id) ) {
+                removed.add(id);
+            }
+        }
+        servers.clear();
+        pending.clear();
+        highWaterMark = 0L;
+        atHighWaterMark.clear();
+        for( VirtualMachine vm : listed.values() ) {
+            remember(vm);
+        }
+        fullSyncAt = startedAt;
+        return new Delta(true, 0, added, changed, removed);
+    }
+
+    private @Nonnull Delta syncChanges() throws CloudException, InternalException {
+        ArrayList<VirtualMachine> added = new ArrayList<VirtualMachine>();
+        ArrayList<VirtualMachine> changed = new ArrayList<VirtualMachine>();
+        ArrayList<String> removed = new ArrayList<String>();
+        HashSet<String> seen = new HashSet<String>();
+        ArrayList<VirtualMachine> newest = new ArrayList<VirtualMachine>();
+        int pageSize = support.nextPageSize();
+        int pages = 0;
+        boolean reachedKnown = false;
+
+        // newest first: everything after the first server older than the mark is already known
+        while( !reachedKnown ) {
+            PagedListing.Page<VirtualMachine> page = support.fetchNewestPage(++pages, pageSize);
+
+            for( VirtualMachine vm : page.getItems() ) {
+                long created = vm.getCreationTimestamp();
+
+                if( created < highWaterMark || (created == highWaterMark && atHighWaterMark.contains(vm.getProviderVirtualMachineId())) ) {
+                    reachedKnown = (created < highWaterMark);
+                    if( reachedKnown ) {
+                        break;
+                    }
+                    continue;
+                }
+                newest.add(vm);
+            }
+            if( page.getItemCount() < pageSize ) {
+                break;
+            }
+        }
+        for( VirtualMachine vm : newest ) {
+            VirtualMachine known = servers.get(vm.getProviderVirtualMachineId());
+
+            seen.add(vm.getProviderVirtualMachineId());
+            if( known == null ) {
+                added.add(vm);
+            }
+            else if( isChanged(known, vm) ) {
+                changed.add(vm);
+            }
+            remember(vm);
+        }
+
+        HashSet<String> recheck = new HashSet<String>(pending);
+
+        for( String id : touched ) {
+            recheck.add(id);
+            touched.remove(id);
+        }
+        recheck.removeAll(seen);
+        if( !recheck.isEmpty() ) {
+            Map<String, VirtualMachine> found = support.getVirtualMachines(recheck);
+
+            for( String id : recheck ) {
+                VirtualMachine vm = found.get(id);
+                VirtualMachine known = servers.get(id);
+
+                if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
+                    if( known != null ) {
+                        servers.remove(id);
+                        removed.add(id);
+                    }
+                    pending.remove(id);
+                }
+                else {
+                    if( known == null ) {
+                        added.add(vm);
+                    }
+                    else if( isChanged(known, vm) ) {
+                        changed.add(vm);
+                    }
+                    remember(vm);
+                }
+            }
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Synced " + scope + " from " + pages + " pages and " + recheck.size() + " lookups");
+        }
+        return new Delta(false, pages, added, changed, removed);
+    }
+
+    private void remember(@Nonnull VirtualMachine vm) {
+        String id = vm.getProviderVirtualMachineId();
+        long created = vm.getCreationTimestamp();
+
+        servers.put(id, vm);
+        if( isPending(vm) ) {
+            pending.add(id);
+        }
+        else {
+            pending.remove(id);
+        }
+        if( created > highWaterMark ) {
+            highWaterMark = created;
+            atHighWaterMark.clear();
+        }
+        if( created == highWaterMark ) {
+            atHighWaterMark.add(id);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+/**
+ * Receives servers one at a time from {@link VirtualMachines#visitVirtualMachines(ServerFilter, java.util.Set, ServerVisitor)}.
+ */
+public interface ServerVisitor {
+    /**
+     * @param server the server just read; only valid until this method returns, since the record is reused
+     * @return true to keep reading, false to stop the listing
+     */
+    public boolean visit(@Nonnull ServerRecord server) throws CloudException, InternalException;
+}
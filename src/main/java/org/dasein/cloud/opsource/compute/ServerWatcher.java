@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+package org.dasein.cloud.opsource.compute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.opsource.OpSource;
+import org.dasein.cloud.opsource.OpSourceExecutors;
+import org.dasein.cloud.opsource.PollingPolicy;
+
+/**
+ * Waits for servers to reach a state on behalf of any number of callers with a single poll loop per region
+ * and account. Each watch is checked right away and then on its own {@link PollingPolicy}, so a server expected
+ * to start in a minute is looked at every few seconds at first while one still deploying is looked at rarely.
+ * Each poll looks up every watched server that is due, or nearly due, in one
+ * {@link VirtualMachines#getVirtualMachines(java.util.Collection)} batch and completes the futures of the watches
+ * whose condition holds. The loop runs on the background pool only while something is being watched. Watches
+ * registered without a policy are checked every {@link #POLL_INTERVAL_PROPERTY} milliseconds (15 seconds by default).
+ * <p>
+ * A watch holds the provider it was registered with until it completes or is cancelled; callers that stop
+ * waiting, for instance after a timeout, should cancel the future. Failed polls are logged and retried. Once
+ * that provider is closed, the next poll fails its watches instead of checking them, and the loop stops when
+ * nothing else is being watched.
+ * </p>
+ */
+public class ServerWatcher {
+    static private final Logger logger = OpSource.getLogger(ServerWatcher.class);
+
+    static public final String POLL_INTERVAL_PROPERTY = "dasein.opsource.watch.interval";
+
+    static private final long DEFAULT_POLL_INTERVAL = 15000L;
+
+    /** Watches due within this long of a poll are checked by it rather than by a poll of their own */
+    static private final long COALESCE_MILLIS = 1000L;
+
+    static private final ConcurrentHashMap<String, ServerWatcher> watchers = new ConcurrentHashMap<String, ServerWatcher>();
+
+    static public interface Condition {
+        /**
+         * @param vm the server as just read, or <code>null</code> if it no longer exists
+         * @return true if the wait is over
+         */
+        public boolean isMet(@Nullable VirtualMachine vm);
+    }
+
+    static public interface Callback {
+        /**
+         * Called once the watch is over, on the thread that ended it; must not block.
+         * @param watch the completed or cancelled watch
+         */
+        public void watched(@Nonnull Future<VirtualMachine> watch);
+    }
+
+    /**
+     * @return a condition met once the server is in one of the states
+     */
+    static public @Nonnull Condition inState(@Nonnull VmState ... states) {
+        final EnumSet<VmState> wanted = EnumSet.copyOf(Arrays.asList(states));
+
+        return new Condition() {
+            public boolean isMet(@Nullable VirtualMachine vm) {
+                return (vm != null && wanted.contains(vm.getCurrentState()));
+            }
+        };
+    }
+
+    /**
+     * @return a condition met once the server is in one of the states, terminated or gone
+     */
+    static public @Nonnull Condition inStateOrRemoved(@Nonnull VmState ... states) {
+        final EnumSet<VmState> wanted = EnumSet.of(VmState.TERMINATED, states);
+
+        return new Condition() {
+            public boolean isMet(@Nullable VirtualMachine vm) {
+                return (vm == null || wanted.contains(vm.getCurrentState()));
+            }
+        };
+    }
+
+    /**
+     * @return a condition met once the time has come and the other condition holds, for waits that should not
+     * end on the first look
+     */
+    static public @Nonnull Condition notBefore(final long timestamp, @Nonnull final Condition condition) {
+        return new Condition() {
+            public boolean isMet(@Nullable VirtualMachine vm) {
+                return (System.currentTimeMillis() >= timestamp && condition.isMet(vm));
+            }
+        };
+    }
+
+    /**
+     * @return the watcher for the provider's endpoint, account and region
+     */
+    static public @Nonnull ServerWatcher getInstance(@Nonnull OpSource provider) {
+        String scope = getScope(provider.getContext());
+        ServerWatcher watcher = watchers.get(scope);
+
+        if( watcher == null ) {
+            ServerWatcher created = new ServerWatcher(scope);
+
+            watcher = watchers.putIfAbsent(scope, created);
+            if( watcher == null ) {
+                watcher = created;
+            }
+        }
+        return watcher;
+    }
+
+    static private @Nonnull String getScope(@Nonnull ProviderContext ctx) {
+        return ctx.getEndpoint() + "-" + ctx.getAccountNumber() + "-" + ctx.getRegionId();
+    }
+
+    static private final Callable<VirtualMachine> NEVER_RUN = new Callable<VirtualMachine>() {
+        public VirtualMachine call() throws Exception {
+            throw new IllegalStateException("A watch is completed by its watcher, not run");
+        }
+    };
+
+    private class Watch extends FutureTask<VirtualMachine> {
+        private final OpSource      provider;
+        private final String        serverId;
+        private final Condition     condition;
+        private final PollingPolicy policy;
+        private final Callback      callback;
+        // read and written by polls, which never overlap, and at registration
+        private volatile long       dueAt = System.currentTimeMillis();
+        private int                 attempt = 0;
+
+        Watch(@Nonnull OpSource provider, @Nonnull String serverId, @Nonnull Condition condition, @Nonnull PollingPolicy policy, @Nullable Callback callback) {
+            super(NEVER_RUN);
+            this.provider = provider;
+            this.serverId = serverId;
+            this.condition = condition;
+            this.policy = policy;
+            this.callback = callback;
+        }
+
+        void check(@Nullable VirtualMachine vm) {
+            try {
+                if( condition.isMet(vm) ) {
+                    set(vm);
+                }
+                else {
+                    dueAt = System.currentTimeMillis() + policy.getDelay(attempt++);
+                }
+            }
+            catch( RuntimeException e ) {
+                setException(e);
+            }
+        }
+
+        void abandon() {
+            setException(new CloudException("The provider was closed while watching " + serverId));
+        }
+
+        @Override
+        protected void done() {
+            watches.remove(this);
+            provider.release();
+            if( callback != null ) {
+                try {
+                    callback.watched(this);
+                }
+                catch( RuntimeException e ) {
+                    logger.warn("Watch callback for " + serverId + " failed: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private final String        scope;
+    private final PollingPolicy defaultPolicy;
+    private final CopyOnWriteArrayList<Watch> watches = new CopyOnWriteArrayList<Watch>();
+    // guarded by this; the one run whose turn it is, or null when no poll is scheduled
+    private Poller  scheduled = null;
+    private boolean polling = false;
+
+    /**
+     * One scheduled poll. Moving the poll earlier schedules a new run; the run it replaced finds it is no longer
+     * the scheduled one when its time comes and returns without polling or scheduling anything.
+     */
+    private class Poller implements Runnable {
+        private final long dueAt;
+
+        Poller(long dueAt) {
+            this.dueAt = dueAt;
+        }
+
+        public void run() {
+            synchronized( ServerWatcher.this ) {
+                if( scheduled != this ) {
+                    return;
+                }
+                scheduled = null;
+                // the poll under way schedules the next one when it ends
+                if( polling ) {
+                    return;
+                }
+                polling = true;
+            }
+            try {
+                poll();
+            }
+            finally {
+                synchronized( ServerWatcher.this ) {
+                    polling = false;
+                    if( !watches.isEmpty() ) {
+                        long next = Long.MAX_VALUE;
+
+                        for( Watch watch : watches ) {
+                            next = Math.min(next, watch.dueAt);
+                        }
+                        schedule(next);
+                    }
+                }
+            }
+        }
+    }
+
+    private ServerWatcher(@Nonnull String scope) {
+        long interval = Math.max(1000L, Long.getLong(POLL_INTERVAL_PROPERTY, DEFAULT_POLL_INTERVAL));
+
+        this.scope = scope;
+        this.defaultPolicy = new PollingPolicy(interval, interval, 1.0, 0.0);
+    }
+
+    /**
+     * Makes sure a poll runs by the given time; must be called holding this watcher's lock.
+     */
+    private void schedule(long dueAt) {
+        if( scheduled != null && scheduled.dueAt <= dueAt ) {
+            return;
+        }
+        scheduled = new Poller(dueAt);
+        OpSourceExecutors.scheduleShared(OpSourceExecutors.Pool.BACKGROUND, scheduled, dueAt - System.currentTimeMillis());
+    }
+
+    /**
+     * Starts watching the server. If no poll is under way, one starts right away; otherwise the watch is
+     * checked by the next one.
+     * @param provider the provider to look the server up with; held until the watch is over
+     * @return a future completed with the server, or <code>null</code> if it is gone, once the condition holds
+     */
+    public @Nonnull Future<VirtualMachine> watch(@Nonnull OpSource provider, @Nonnull String serverId, @Nonnull Condition condition) {
+        return watch(provider, serverId, condition, null, null);
+    }
+
+    /**
+     * @param policy how often to check the server after the first time
+     * @see #watch(OpSource, String, Condition)
+     */
+    public @Nonnull Future<VirtualMachine> watch(@Nonnull OpSource provider, @Nonnull String serverId, @Nonnull Condition condition, @Nonnull PollingPolicy policy) {
+        return watch(provider, serverId, condition, policy, null);
+    }
+
+    /**
+     * @param policy how often to check the server after the first time, or <code>null</code> for the fixed interval
+     * @param callback told when the watch is over, whether its condition held or it was cancelled
+     * @throws RejectedExecutionException if the provider has been closed
+     * @see #watch(OpSource, String, Condition)
+     */
+    public @Nonnull Future<VirtualMachine> watch(@Nonnull OpSource provider, @Nonnull String serverId, @Nonnull Condition condition, @Nullable PollingPolicy policy, @Nullable Callback callback) {
+        if( provider.getExecutors().isShutdown() ) {
+            throw new RejectedExecutionException("The provider has been closed");
+        }
+        Watch watch = new Watch(provider, serverId, condition, policy == null ? defaultPolicy : policy, callback);
+
+        provider.hold();
+        synchronized( this ) {
+            watches.add(watch);
+            schedule(watch.dueAt);
+        }
+        return watch;
+    }
+
+    /**
+     * @return the number of watches not yet over
+     */
+    public int getWatchCount() {
+        return watches.size();
+    }
+
+    private void poll() {
+        long horizon = System.currentTimeMillis() + COALESCE_MILLIS;
+        List<Watch> current = new ArrayList<Watch>();
+
+        for( Watch watch : watches ) {
+            if( watch.provider.getExecutors().isShutdown() ) {
+                watch.abandon();
+            }
+            else if( watch.dueAt <= horizon ) {
+                current.add(watch);
+            }
+        }
+        if( current.isEmpty() ) {
+            return;
+        }
+        LinkedHashSet<String> serverIds = new LinkedHashSet<String>();
+
+        for( Watch watch : current ) {
+            serverIds.add(watch.serverId);
+        }
+        // any watch's provider will do: they all share this watcher's endpoint, account and region
+        OpSource provider = current.get(0).provider;
+
+        // the watch may complete and let go of its provider while the poll still uses it
+        provider.hold();
+        try {
+            Map<String, VirtualMachine> found = provider.getComputeServices().getVirtualMachineSupport().getVirtualMachines(serverIds);
+
+            for( Watch watch : current ) {
+                if( !watch.isDone() ) {
+                    watch.check(found.get(watch.serverId));
+                }
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Polled " + serverIds.size() + " servers for " + current.size() + " watches in " + scope);
+            }
+        }
+        catch( Exception e ) {
+            logger.warn("Unable to poll " + serverIds.size() + " watched servers in " + scope + ": " + e.getMessage());
+            for( Watch watch : current ) {
+                watch.dueAt = System.currentTimeMillis() + watch.policy.getDelay(watch.attempt++);
+            }
+        }
+        finally {
+            provider.release();
+        }
+    }
+}
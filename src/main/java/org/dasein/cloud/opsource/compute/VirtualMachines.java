@@ -23,9 +23,19 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
@@ -34,21 +44,25 @@ import org.dasein.cloud.compute.*;
 import org.dasein.cloud.dc.Region;
 import org.dasein.cloud.network.IPVersion;
 import org.dasein.cloud.network.RawAddress;
+import org.dasein.cloud.opsource.CallCache;
+import org.dasein.cloud.opsource.ContextSnapshot;
+import org.dasein.cloud.opsource.DatacenterLimits;
+import org.dasein.cloud.opsource.MutationBus;
 import org.dasein.cloud.opsource.OpSource;
+import org.dasein.cloud.opsource.OpSourceExecutors;
 import org.dasein.cloud.opsource.OpSourceMethod;
+import org.dasein.cloud.opsource.PageSizeController;
+import org.dasein.cloud.opsource.PagedListing;
+import org.dasein.cloud.opsource.PollingPolicy;
 import org.dasein.cloud.opsource.Param;
 import org.dasein.cloud.util.APITrace;
-import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.CalendarWrapper;
 import org.dasein.util.Jiterator;
 import org.dasein.util.JiteratorPopulator;
-import org.dasein.util.PopulatorThread;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Megabyte;
 import org.dasein.util.uom.storage.Storage;
-import org.dasein.util.uom.time.Day;
-import org.dasein.util.uom.time.TimePeriod;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -68,7 +82,13 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     //static private final String Deployed_Server_Tag = "Server";
     static private final String Pending_Deployed_Server_Tag = "PendingDeployServer";
 
-    long waitTimeToAttempt = 30000L;
+    static public final String BATCH_CONCURRENCY_PROPERTY = "dasein.opsource.batch.concurrency";
+    /** Without a known fleet size, ID sets this large are looked up with one listing */
+    static private final int    BATCH_SCAN_THRESHOLD = 250;
+    /** ID sets covering at least a quarter of the fleet are looked up with one listing */
+    static private final int    BATCH_SCAN_FRACTION = 4;
+    /** OpSource server IDs are UUIDs */
+    static private final Pattern SERVER_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}", Pattern.CASE_INSENSITIVE);
 
     private OpSource provider;
 
@@ -118,13 +138,14 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                     provider.buildUrl(START_VIRTUAL_MACHINE,true, parameters),
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
             method.parseRequestResult("Booting vm",method.invoke(), "result", "resultDetail");
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
         }
         finally{
             APITrace.end();
         }
     }
 
-    private boolean cleanFailedVM(String serverId) throws InternalException, CloudException {
+    boolean cleanFailedVM(String serverId) throws InternalException, CloudException {
         APITrace.begin(provider, "VM.cleanFailedVM");
         try{
             HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
@@ -136,7 +157,10 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
             OpSourceMethod method = new OpSourceMethod(provider,
                     provider.buildUrl(CLEAN_VIRTUAL_MACHINE,true, parameters),
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
-            return method.parseRequestResult("Clean failed vm",method.invoke(),"result", "resultDetail");
+            boolean cleaned = method.parseRequestResult("Clean failed vm",method.invoke(),"result", "resultDetail");
+
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
+            return cleaned;
         }finally{
             APITrace.end();
         }
@@ -247,25 +271,22 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                             try{
                                 final int newDiskSize = Integer.parseInt(newDisks[newDisks.length-1]);
                                 final String fServerId = serverId;
-                                Thread t = new Thread(){
+                                Runnable task = new Runnable(){
                                     public void run(){
-                                        provider.hold();
                                         try{
-                                            try{
-                                                addLocalStorage(fServerId, newDiskSize);
-                                            }
-                                            catch (Throwable th){
-                                                logger.debug("Alter VM failed while adding storage. CPU and RAM alteration may have been sucessful.");
-                                            }
+                                            addLocalStorage(fServerId, newDiskSize);
                                         }
-                                        finally {
-                                            provider.release();
+                                        catch (Throwable th){
+                                            logger.debug("Alter VM failed while adding storage. CPU and RAM alteration may have been sucessful.");
                                         }
                                     }
                                 };
-                                t.setName("Alter OpSource VM: " + vm.getProviderVirtualMachineId());
-                                t.setDaemon(true);
-                                t.start();
+                                try{
+                                    provider.getExecutors().executeEventually(OpSourceExecutors.Pool.LIFECYCLE, "Alter OpSource VM: " + vm.getProviderVirtualMachineId(), task);
+                                }
+                                catch(RejectedExecutionException ex){
+                                    throw new CloudException("CPU and RAM were altered, but the provider was closed before storage could be added to " + serverId);
+                                }
                             }
                             catch(NumberFormatException ex){
                                 throw new CloudException("Invalid format for HDD in product description.");
@@ -290,8 +311,31 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
         parameters.put(1, param);
 
         long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 20L);
+        PollingPolicy policy = PollingPolicy.getInstance(PollingPolicy.Operation.MODIFY);
+        ServerWatcher.Condition settled = ServerWatcher.inStateOrRemoved(VmState.RUNNING, VmState.STOPPED);
+        ServerWatcher.Condition condition = settled;
+        int attempt = 0;
         Exception currentException = null;
         while( timeout > System.currentTimeMillis() ) {
+            try {
+                /** The CPU and RAM change keeps the server pending until it is applied */
+                VirtualMachine server = awaitServer(serverId, condition, policy, timeout - System.currentTimeMillis());
+
+                if( server == null || server.getCurrentState().equals(VmState.TERMINATED) ) {
+                    currentException = new CloudException("Server disappeared while adding local storage");
+                    break;
+                }
+            }
+            catch( TimeoutException ex ) {
+                if( currentException == null ) {
+                    currentException = ex;
+                }
+                break;
+            }
+            catch( Exception ex ) {
+                currentException = ex;
+                break;
+            }
             try{
                 OpSourceMethod method = new OpSourceMethod(provider,
                         provider.buildUrl(ADD_LOCAL_STORAGE + "&amount=" + storageSize, true, parameters),
@@ -308,11 +352,11 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                 logger.warn("Modification of local storage failed: " + ex.getMessage());
                 currentException = ex;
             }
-            try { Thread.sleep(30000L); }
-            catch( InterruptedException ignore ) { }
+            condition = ServerWatcher.notBefore(System.currentTimeMillis() + policy.getDelay(attempt++), settled);
         }
         if( currentException == null ) {
             logger.info("Modification succeeded");
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
         }
         else {
             logger.error("Server could not be modified: " + currentException.getMessage());
@@ -340,12 +384,10 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     public @Nullable VirtualMachineProduct getProduct(@Nonnull String productId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "VM.getProduct");
         try {
-            for( Architecture architecture : Architecture.values() ) {
-                for( VirtualMachineProduct product : listProducts(architecture) ) {
-                    if( product.getProviderProductId().equals(productId) ) {
-                        return product;
-                    }
-                }
+            VirtualMachineProduct product = getProductTable().getProduct(productId);
+
+            if( product != null ) {
+                return product;
             }
             if( logger.isDebugEnabled() ) {
                 logger.debug("Unknown product ID for cloud.com: " + productId);
@@ -366,6 +408,16 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     public VirtualMachine getVirtualMachine(@Nonnull String serverId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "VM.getVirtualMachine");
         try {
+            FleetSnapshot snapshot = FleetSnapshot.getInstance(provider);
+
+            if( snapshot != null ) {
+                snapshot.refreshIfNeeded(provider);
+                VirtualMachine vm = snapshot.getVirtualMachine(serverId);
+
+                if( vm != null ) {
+                    return vm;
+                }
+            }
             HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
             Param param = new Param(OpSource.SERVER_WITH_STATE, null);
             parameters.put(0, param);
@@ -378,7 +430,17 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
 
             NodeList  matches = doc.getElementsByTagName("serverWithState");
             if(matches != null){
-                return toVirtualMachineWithStatus(matches.item(0), "");
+                VirtualMachine vm = toVirtualMachineWithStatus(matches.item(0), "");
+
+                if( snapshot != null ) {
+                    if( vm != null ) {
+                        snapshot.update(vm);
+                    }
+                    else {
+                        snapshot.invalidate(serverId);
+                    }
+                }
+                return vm;
             }
             if( logger.isDebugEnabled() ) {
                 logger.debug("Can not identify VM with ID " + serverId);
@@ -390,23 +452,149 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
         }
     }
 
+    /**
+     * Looks up many servers at once using the cheapest strategy for the number of IDs:
+     * <ul>
+     *     <li>servers known to the fleet snapshot are answered from it</li>
+     *     <li>if the rest are a large share of the region's servers, one listing filtered locally</li>
+     *     <li>otherwise, if the API accepts several IDs per query, listings of up to {@link ServerFilter#MAXIMUM_QUERY_IDS} IDs</li>
+     *     <li>otherwise single lookups, at most {@link #BATCH_CONCURRENCY_PROPERTY} at a time</li>
+     * </ul>
+     * @return the servers found, by ID; servers that do not exist are left out
+     */
+    public @Nonnull Map<String, VirtualMachine> getVirtualMachines(@Nonnull Collection<String> serverIds) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "VM.getVirtualMachines");
+        try {
+            HashMap<String, VirtualMachine> found = new HashMap<String, VirtualMachine>();
+            LinkedHashSet<String> wanted = new LinkedHashSet<String>(serverIds);
+            FleetSnapshot snapshot = FleetSnapshot.getInstance(provider);
+
+            if( snapshot != null ) {
+                snapshot.refreshIfNeeded(provider);
+                Iterator<String> it = wanted.iterator();
+
+                while( it.hasNext() ) {
+                    String id = it.next();
+                    VirtualMachine vm = snapshot.getVirtualMachine(id);
+
+                    if( vm != null ) {
+                        found.put(id, vm);
+                        it.remove();
+                    }
+                }
+            }
+            if( wanted.isEmpty() ) {
+                return found;
+            }
+            Integer fleetSize = CallCache.getInstance().getIfPresent(provider, CallCache.SERVER_COUNT, CacheLevel.REGION_ACCOUNT, CalendarWrapper.HOUR);
+            boolean scan = (fleetSize == null ? wanted.size() >= BATCH_SCAN_THRESHOLD : wanted.size() * BATCH_SCAN_FRACTION >= fleetSize);
+
+            if( scan ) {
+                for( VirtualMachine vm : listVirtualMachines(ServerFilter.getInstance().withIds(wanted), false) ) {
+                    found.put(vm.getProviderVirtualMachineId(), vm);
+                }
+            }
+            else if( ServerFilter.isMultiIdSupported() ) {
+                ArrayList<Iterable<VirtualMachine>> listings = new ArrayList<Iterable<VirtualMachine>>();
+                ArrayList<String> chunk = new ArrayList<String>();
+
+                // every listing starts streaming as soon as it is created
+                for( String id : wanted ) {
+                    chunk.add(id);
+                    if( chunk.size() == ServerFilter.MAXIMUM_QUERY_IDS ) {
+                        listings.add(listVirtualMachines(ServerFilter.getInstance().withIds(chunk), false));
+                        chunk = new ArrayList<String>();
+                    }
+                }
+                if( !chunk.isEmpty() ) {
+                    listings.add(listVirtualMachines(ServerFilter.getInstance().withIds(chunk), false));
+                }
+                for( Iterable<VirtualMachine> listing : listings ) {
+                    for( VirtualMachine vm : listing ) {
+                        found.put(vm.getProviderVirtualMachineId(), vm);
+                    }
+                }
+            }
+            else {
+                getVirtualMachinesOneByOne(wanted, found);
+            }
+            return found;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    private void getVirtualMachinesOneByOne(@Nonnull Collection<String> serverIds, @Nonnull Map<String, VirtualMachine> found) throws InternalException, CloudException {
+        ArrayDeque<Future<VirtualMachine>> window = new ArrayDeque<Future<VirtualMachine>>();
+        Iterator<String> ids = serverIds.iterator();
+        int concurrency = Math.max(1, Integer.getInteger(BATCH_CONCURRENCY_PROPERTY, 8));
+
+        try {
+            while( ids.hasNext() || !window.isEmpty() ) {
+                while( ids.hasNext() && window.size() < concurrency ) {
+                    final String id = ids.next();
+
+                    window.add(provider.getExecutors().fork(new Callable<VirtualMachine>() {
+                        public VirtualMachine call() throws Exception {
+                            return getVirtualMachine(id);
+                        }
+                    }));
+                }
+                VirtualMachine vm;
+
+                try {
+                    vm = window.poll().get();
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalException(e);
+                }
+                catch( ExecutionException e ) {
+                    Throwable cause = e.getCause();
+
+                    if( cause instanceof CloudException ) {
+                        throw (CloudException)cause;
+                    }
+                    if( cause instanceof InternalException ) {
+                        throw (InternalException)cause;
+                    }
+                    throw new InternalException(cause);
+                }
+                if( vm != null ) {
+                    found.put(vm.getProviderVirtualMachineId(), vm);
+                }
+            }
+        }
+        finally {
+            for( Future<VirtualMachine> f : window ) {
+                f.cancel(true);
+            }
+        }
+    }
+
     public VirtualMachine getVirtualMachineByNameAndVlan(String name, String providerVlanId) throws InternalException, CloudException {
         if( logger.isDebugEnabled() ) {
             logger.debug("Identify VM with VM Name " + name);
         }
+        FleetSnapshot snapshot = FleetSnapshot.getInstance(provider);
 
-        //ArrayList<VirtualMachine> list = (ArrayList<VirtualMachine>)listVirtualMachines();
-        for(VirtualMachine vm : listVirtualMachines(true) ){
-            try{
-                if(vm != null && vm.getName().equals(name) && vm.getProviderVlanId().equals(providerVlanId)){
-                    return vm;
-                }
-            }
-            catch(Exception ex){
-                logger.debug(ex.getMessage());
+        if( snapshot != null && name != null && providerVlanId != null ) {
+            snapshot.refreshIfNeeded(provider);
+            VirtualMachine vm = snapshot.getVirtualMachineByNameAndVlan(name, providerVlanId);
+
+            if( vm != null ) {
+                return vm;
             }
         }
 
+        if( name == null || providerVlanId == null ) {
+            return null;
+        }
+        for(VirtualMachine vm : listVirtualMachines(ServerFilter.getInstance().withName(name).inNetwork(providerVlanId), true) ){
+            return vm;
+        }
+
         /*
 		ArrayList<VirtualMachine> list = (ArrayList<VirtualMachine>) listPendingServers();
 		for(VirtualMachine vm : list ){
@@ -489,137 +677,171 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     public @Nonnull VirtualMachine launch(final @Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VM.launch");
         try {
-            //VirtualMachineProduct product = getProduct(withLaunchOptions.getStandardProductId());
-            String imageId = withLaunchOptions.getMachineImageId();
-            String inZoneId = withLaunchOptions.getDataCenterId();
-            final String name = withLaunchOptions.getHostName();
-            String description = withLaunchOptions.getDescription();
-            final String withVlanId = withLaunchOptions.getVlanId();
-
-            /** First step get the target image */
-            if( logger.isInfoEnabled() ) {
-                logger.info("Fetching deployment information from the target image: " + imageId);
-            }
-            ServerImage imageSupport = provider.getComputeServices().getImageSupport();
-            MachineImage origImage = imageSupport.getOpSourceImage(imageId);
+            final Deployment deployment = deployForLaunch(withLaunchOptions);
+            final VirtualMachine server = deployment.server;
 
-            if(logger.isInfoEnabled()){
-                logger.info("Launching vm with product string: " + withLaunchOptions.getStandardProductId());
+            if( !deployment.needsConfiguration ) {
+                return server;
             }
-
-            String productString = withLaunchOptions.getStandardProductId();
-            // product id format cpu:ram
-            String cpuCount;
-            String ramSize;
-            //String volumeSizes;
-            String[] productIds = productString.split(":");
-            if (productIds.length == 2) {
-                cpuCount = productIds[0];
-                ramSize = productIds[1];
+            Runnable task = new Runnable() {
+                public void run() {
+                    try {
+                        //configure(server, name, currentCPU, currentMemory, currentDisk, targetCPU, targetMemory, targetDisk);
+                        configure(server, deployment.currentCPU, deployment.currentMemory, deployment.currentDisk, deployment.targetCPU, deployment.targetMemory);
+                    }
+                    catch( Throwable t ) {
+                        logger.error("Failed to complete configuration of " + server.getProviderVirtualMachineId() + " in OpSource: " + t.getMessage());
+                        t.printStackTrace();
+                    }
+                }
+            };
+            try {
+                // configuring can take over an hour, so a full pool delays it rather than blocking the caller
+                provider.getExecutors().executeEventually(OpSourceExecutors.Pool.LIFECYCLE, "Configure OpSource VM " + server.getProviderVirtualMachineId(), task);
             }
-            else {
-                throw new InternalError("Invalid product id string");
+            catch( RejectedExecutionException e ) {
+                throw new CloudException("Server " + server.getProviderVirtualMachineId() + " was deployed, but the provider was closed before it could be configured");
             }
 
+            return server;
+        }
+        finally{
+            APITrace.end();
+        }
+    }
 
-            if( origImage == null ) {
-                logger.error("No such image to launch VM: " + imageId);
-                throw new CloudException("No such image to launch VM: " + imageId);
-            }
+    /**
+     * A server deployed for a launch, and the shape it still has to be given if the image did not have it.
+     */
+    static class Deployment {
+        final VirtualMachine server;
+        final String         password;
+        final boolean        needsConfiguration;
+        final int            currentCPU;
+        final int            currentMemory;
+        final int            currentDisk;
+        final int            targetCPU;
+        final int            targetMemory;
+
+        Deployment(@Nonnull VirtualMachine server, @Nonnull String password, boolean needsConfiguration, int currentCPU, int currentMemory, int currentDisk, int targetCPU, int targetMemory) {
+            this.server = server;
+            this.password = password;
+            this.needsConfiguration = needsConfiguration;
+            this.currentCPU = currentCPU;
+            this.currentMemory = currentMemory;
+            this.currentDisk = currentDisk;
+            this.targetCPU = targetCPU;
+            this.targetMemory = targetMemory;
+        }
+    }
 
-            final int targetCPU = Integer.parseInt(cpuCount);
-            final int targetMemory = Integer.parseInt(ramSize);
-            //final int targetDisk = Integer.parseInt(volumeSizes);
+    /**
+     * Deploys the server for a launch, started if an image with the requested shape exists and stopped otherwise.
+     */
+    @Nonnull Deployment deployForLaunch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+        //VirtualMachineProduct product = getProduct(withLaunchOptions.getStandardProductId());
+        String imageId = withLaunchOptions.getMachineImageId();
+        String inZoneId = withLaunchOptions.getDataCenterId();
+        final String name = withLaunchOptions.getHostName();
+        String description = withLaunchOptions.getDescription();
+        final String withVlanId = withLaunchOptions.getVlanId();
+
+        /** First step get the target image */
+        if( logger.isInfoEnabled() ) {
+            logger.info("Fetching deployment information from the target image: " + imageId);
+        }
+        ServerImage imageSupport = provider.getComputeServices().getImageSupport();
+        MachineImage origImage = imageSupport.getOpSourceImage(imageId);
+
+        if(logger.isInfoEnabled()){
+            logger.info("Launching vm with product string: " + withLaunchOptions.getStandardProductId());
+        }
+
+        String productString = withLaunchOptions.getStandardProductId();
+        // product id format cpu:ram
+        String cpuCount;
+        String ramSize;
+        //String volumeSizes;
+        String[] productIds = productString.split(":");
+        if (productIds.length == 2) {
+            cpuCount = productIds[0];
+            ramSize = productIds[1];
+        }
+        else {
+            throw new InternalError("Invalid product id string");
+        }
 
-            final int currentCPU = (origImage.getTag("cpuCount") == null) ? 0 : Integer.valueOf((String)origImage.getTag("cpuCount"));
-            final int currentMemory = (origImage.getTag("memory") == null) ? 0 : Integer.valueOf((String)origImage.getTag("memory"));
-            final int currentDisk = 10;
 
-            if( logger.isDebugEnabled() ) {
-                //logger.debug("Launch request for " + targetCPU + "/" + targetMemory + "/" + targetDisk + " against " + currentCPU + "/" + currentMemory);
-                logger.debug("Launch request for " + targetCPU + "/" + targetMemory + " against " + currentCPU + "/" + currentMemory);
-            }
+        if( origImage == null ) {
+            logger.error("No such image to launch VM: " + imageId);
+            throw new CloudException("No such image to launch VM: " + imageId);
+        }
 
-            String password = getRandomPassword();
-            if(withLaunchOptions.getBootstrapPassword() != null && !withLaunchOptions.getBootstrapPassword().equals(""))password = withLaunchOptions.getBootstrapPassword();
-            //if( targetDisk == 0 && currentCPU == targetCPU && currentMemory == targetMemory ){
-            if(currentCPU == targetCPU && currentMemory == targetMemory){
-                if( deploy(origImage.getProviderMachineImageId(), inZoneId, name, description, withVlanId, password, "true") ) {
-                    VirtualMachine server = getVirtualMachineByNameAndVlan(name, withVlanId);
-                    server.setRootPassword(password);
-                    return server;
-                }
-                else {
-                    throw new CloudException("Fail to launch the server");
-                }
+        final int targetCPU = Integer.parseInt(cpuCount);
+        final int targetMemory = Integer.parseInt(ramSize);
+        //final int targetDisk = Integer.parseInt(volumeSizes);
 
-            }
-            //else if( targetDisk == 0 && ((targetCPU == 1 && targetMemory == 2048) || (targetCPU == 2 && targetMemory == 4096) || (targetCPU == 4 && targetMemory == 6144))){
-            else if((targetCPU == 1 && targetMemory == 2048) || (targetCPU == 2 && targetMemory == 4096) || (targetCPU == 4 && targetMemory == 6144)){
-                /**  If it is Opsource OS, then get the target image with the same cpu and memory */
-                MachineImage targetImage = imageSupport.searchImage(origImage.getPlatform(), origImage.getArchitecture(), targetCPU, targetMemory);
+        final int currentCPU = (origImage.getTag("cpuCount") == null) ? 0 : Integer.valueOf((String)origImage.getTag("cpuCount"));
+        final int currentMemory = (origImage.getTag("memory") == null) ? 0 : Integer.valueOf((String)origImage.getTag("memory"));
+        final int currentDisk = 10;
 
-                if(targetImage != null) {
-                    if( deploy(targetImage.getProviderMachineImageId(), inZoneId, name, description, withVlanId, password, "true") ){
-                        VirtualMachine server = getVirtualMachineByNameAndVlan(name, withVlanId);
-                        server.setRootPassword(password);
-                        return server;
-                    }
-                    else {
-                        throw new CloudException("Fail to launch the server");
-                    }
-                }
-            }
-            logger.info("Need to modify server after deployment, pursuing a multi-step deployment operation");
-            /** There is target image with the CPU and memory required, then need to modify the server after deploying */
+        if( logger.isDebugEnabled() ) {
+            //logger.debug("Launch request for " + targetCPU + "/" + targetMemory + "/" + targetDisk + " against " + currentCPU + "/" + currentMemory);
+            logger.debug("Launch request for " + targetCPU + "/" + targetMemory + " against " + currentCPU + "/" + currentMemory);
+        }
 
-            /** Second step deploy VM */
+        String password = getRandomPassword();
+        if(withLaunchOptions.getBootstrapPassword() != null && !withLaunchOptions.getBootstrapPassword().equals(""))password = withLaunchOptions.getBootstrapPassword();
+        //if( targetDisk == 0 && currentCPU == targetCPU && currentMemory == targetMemory ){
+        if(currentCPU == targetCPU && currentMemory == targetMemory){
+            String serverId = deploy(origImage.getProviderMachineImageId(), inZoneId, name, description, withVlanId, password, "true");
+            VirtualMachine server = getDeployedServer(serverId, name, withVlanId);
 
-            if( !deploy(imageId, inZoneId, name, description, withVlanId, password, "false") ) {
-                throw new CloudException("Fail to deploy VM without further information");
+            if( server == null ) {
+                throw new CloudException("Fail to launch the server");
             }
+            server.setRootPassword(password);
+            return new Deployment(server, password, false, currentCPU, currentMemory, currentDisk, targetCPU, targetMemory);
 
-            final VirtualMachine server = getVirtualMachineByNameAndVlan(name, withVlanId);
+        }
+        //else if( targetDisk == 0 && ((targetCPU == 1 && targetMemory == 2048) || (targetCPU == 2 && targetMemory == 4096) || (targetCPU == 4 && targetMemory == 6144))){
+        else if((targetCPU == 1 && targetMemory == 2048) || (targetCPU == 2 && targetMemory == 4096) || (targetCPU == 4 && targetMemory == 6144)){
+            /**  If it is Opsource OS, then get the target image with the same cpu and memory */
+            MachineImage targetImage = imageSupport.searchImage(origImage.getPlatform(), origImage.getArchitecture(), targetCPU, targetMemory);
 
-            /** update the hardware (CPU, memory configuration)*/
-            if(server == null){
-                throw new CloudException("Server failed to deploy without explaination");
-            }
-            server.setRootPassword(password);
+            if(targetImage != null) {
+                String serverId = deploy(targetImage.getProviderMachineImageId(), inZoneId, name, description, withVlanId, password, "true");
+                VirtualMachine server = getDeployedServer(serverId, name, withVlanId);
 
-            Thread t = new Thread() {
-                public void run() {
-                    provider.hold();
-                    try {
-                        try {
-                            //configure(server, name, currentCPU, currentMemory, currentDisk, targetCPU, targetMemory, targetDisk);
-                            configure(server, name, withVlanId, currentCPU, currentMemory, currentDisk, targetCPU, targetMemory);
-                        }
-                        catch( Throwable t ) {
-                            logger.error("Failed to complete configuration of " + server.getProviderVirtualMachineId() + " in OpSource: " + t.getMessage());
-                            t.printStackTrace();
-                        }
-                    }
-                    finally {
-                        provider.release();
-                    }
+                if( server == null ) {
+                    throw new CloudException("Fail to launch the server");
                 }
-            };
-            t.setName("Configure OpSource VM " + server.getProviderVirtualMachineId());
-            t.setDaemon(true);
-            t.start();
-
-            return server;
+                server.setRootPassword(password);
+                return new Deployment(server, password, false, targetCPU, targetMemory, currentDisk, targetCPU, targetMemory);
+            }
         }
-        finally{
-            APITrace.end();
+        logger.info("Need to modify server after deployment, pursuing a multi-step deployment operation");
+        /** There is target image with the CPU and memory required, then need to modify the server after deploying */
+
+        /** Second step deploy VM */
+
+        String serverId = deploy(imageId, inZoneId, name, description, withVlanId, password, "false");
+        VirtualMachine server = getDeployedServer(serverId, name, withVlanId);
+
+        /** update the hardware (CPU, memory configuration)*/
+        if(server == null){
+            throw new CloudException("Server failed to deploy without explaination");
         }
+        server.setRootPassword(password);
+        return new Deployment(server, password, true, currentCPU, currentMemory, currentDisk, targetCPU, targetMemory);
     }
 
     //private void configure(VirtualMachine server, String name, int currentCPU, int currentMemory, int currentDisk, int targetCPU, int targetMemory, int targetDisk) {
-    private void configure(VirtualMachine server, String name, String providerVlanId, int currentCPU, int currentMemory, int currentDisk, int targetCPU, int targetMemory) {
+    private void configure(VirtualMachine server, int currentCPU, int currentMemory, int currentDisk, int targetCPU, int targetMemory) {
         APITrace.begin(getProvider(), "VM.configure");
         try {
+            final String serverId = server.getProviderVirtualMachineId();
+
             if( logger.isInfoEnabled() ) {
                 logger.info("Configuring " + server.getName() + " [#" + server.getProviderVirtualMachineId() + "] - " + server.getCurrentState());
             }
@@ -631,7 +853,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
 
                 /** VM has finished deployment before continuing, therefore wait 15s */
                 try {
-                    server = getVirtualMachineByNameAndVlan(name, providerVlanId);
+                    server = getVirtualMachine(serverId);
                 }
                 catch( Exception e ) {
                     logger.warn("Unable to load server for configuration: " + e.getMessage());
@@ -646,11 +868,33 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                 if( currentCPU != targetCPU || currentMemory != targetMemory ) {
                     //long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 20L);
                     long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 90L);
+                    PollingPolicy policy = PollingPolicy.getInstance(PollingPolicy.Operation.MODIFY);
+                    ServerWatcher.Condition settled = ServerWatcher.inStateOrRemoved(VmState.RUNNING, VmState.STOPPED);
+                    ServerWatcher.Condition condition = settled;
+                    int attempt = 0;
 
                     Exception currentException = null;
 
                     logger.info("Beginning modification process...");
                     while( timeout > System.currentTimeMillis() ) {
+                        try {
+                            VirtualMachine current = awaitServer(serverId, condition, policy, timeout - System.currentTimeMillis());
+
+                            if( current == null || current.getCurrentState().equals(VmState.TERMINATED) ) {
+                                logger.error("Server disappeared while waiting to modify it");
+                                return;
+                            }
+                        }
+                        catch( TimeoutException e ) {
+                            if( currentException == null ) {
+                                currentException = e;
+                            }
+                            break;
+                        }
+                        catch( Exception e ) {
+                            currentException = e;
+                            break;
+                        }
                         try {
                             if( modify(server.getProviderVirtualMachineId(), targetCPU, targetMemory) ) {
                                 currentException = null;
@@ -664,8 +908,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                             logger.warn("Modification of CPU and Memory failed: " + e.getMessage());
                             currentException = e;
                         }
-                        try { Thread.sleep(30000L); }
-                        catch( InterruptedException ignore ) { }
+                        condition = ServerWatcher.notBefore(System.currentTimeMillis() + policy.getDelay(attempt++), settled);
                     }
                     if( currentException == null ) {
                         logger.info("Modification of CPU and Memory succeeded");
@@ -732,33 +975,46 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
             /**  Fourth Step: boot the server */
             /** Update usually take another 10 mins, wait 5 minutes first */
             long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 15L);
+            PollingPolicy policy = PollingPolicy.getInstance(PollingPolicy.Operation.START);
+            int attempt = 0;
 
             if( logger.isInfoEnabled() ) {
                 logger.info("Booting " + server.getProviderVirtualMachineId());
             }
+            ServerWatcher.Condition settled = ServerWatcher.inStateOrRemoved(VmState.RUNNING, VmState.STOPPED);
+            ServerWatcher.Condition condition = settled;
+
             while( System.currentTimeMillis() < timeout ) {
                 try {
-                    /** Begin to start the VM */
-                    server = getVirtualMachineByNameAndVlan(name, providerVlanId);
-                    if( server == null ) {
-                        logger.error("Server disappeared while performing bootup");
-                        return;
-                    }
-                    if( server.getCurrentState().equals(VmState.RUNNING)) {
-                        if( logger.isInfoEnabled() ) {
-                            logger.info(server.getProviderVirtualMachineId() + " is now RUNNING");
-                        }
-                        return;
-                    }
-                    else if( server.getCurrentState().equals(VmState.STOPPED) ) {
-                        start(server.getProviderVirtualMachineId());
+                    server = awaitServer(serverId, condition, policy, timeout - System.currentTimeMillis());
+                }
+                catch( TimeoutException e ) {
+                    logger.warn(serverId + " did not boot in time");
+                    return;
+                }
+                catch( Exception e ) {
+                    logger.warn("Error during boot process: " + e.getMessage());
+                    return;
+                }
+                if( server == null || server.getCurrentState().equals(VmState.TERMINATED) ) {
+                    logger.error("Server disappeared while performing bootup");
+                    return;
+                }
+                if( server.getCurrentState().equals(VmState.RUNNING)) {
+                    if( logger.isInfoEnabled() ) {
+                        logger.info(serverId + " is now RUNNING");
                     }
+                    return;
+                }
+                /** Begin to start the VM */
+                try {
+                    start(serverId);
                 }
                 catch( Exception e ) {
                     logger.warn("Error during boot process, maybe retry?: " + e.getMessage());
                 }
-                try { Thread.sleep(15000L); }
-                catch( InterruptedException ignore ) { }
+                /** The start may not show at first, so look again no sooner than the policy says */
+                condition = ServerWatcher.notBefore(System.currentTimeMillis() + policy.getDelay(attempt++), settled);
             }
         }
         finally {
@@ -766,7 +1022,11 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
         }
     }
 
-    private boolean deploy(@Nonnull String imageId, String inZoneId, String name, String description, String withVlanId, String adminPassword, String isStart) throws InternalException, CloudException {
+    /**
+     * @return the ID of the new server, or <code>null</code> if the response did not name it
+     * @throws CloudException if the deployment was refused
+     */
+    private @Nullable String deploy(@Nonnull String imageId, String inZoneId, String name, String description, String withVlanId, String adminPassword, String isStart) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "VM.deploy");
         try {
             inZoneId = translateZone(inZoneId);
@@ -823,13 +1083,43 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
             OpSourceMethod method = new OpSourceMethod(provider,
                     provider.buildUrl(null,true, parameters),
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "POST", provider.convertDomToString(doc)));
-            return method.parseRequestResult("Deploying server",method.invoke(), "result", "resultDetail");
+            return toServerId(method.findRequestResultId("Deploying server",method.invoke(), "result", "resultDetail", "serverId"));
         }
         finally {
             APITrace.end();
         }
     }
 
+    /**
+     * @param resultId the ID a deploy request reported, if any
+     * @return the ID, or <code>null</code> if there was none or it does not look like a server ID
+     */
+    static @Nullable String toServerId(@Nullable String resultId) {
+        if( resultId != null && !SERVER_ID.matcher(resultId).matches() ) {
+            // better to find the server by name than to track the wrong one
+            logger.warn("Ignoring deploy result ID " + resultId + ", which does not look like a server ID");
+            return null;
+        }
+        return resultId;
+    }
+
+    /**
+     * Finds a server just deployed, by ID if the deploy response named it and by name and VLAN otherwise.
+     */
+    private @Nullable VirtualMachine getDeployedServer(@Nullable String serverId, @Nonnull String name, @Nullable String withVlanId) throws InternalException, CloudException {
+        if( serverId != null ) {
+            VirtualMachine server = getVirtualMachine(serverId);
+
+            if( server != null ) {
+                return server;
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Deployed server " + serverId + " is not listed yet, looking it up by name");
+            }
+        }
+        return getVirtualMachineByNameAndVlan(name, withVlanId == null ? provider.getDefaultVlanId() : withVlanId);
+    }
+
 
     @Override
     public @Nonnull Iterable<String> listFirewalls(@Nonnull String vmId) throws InternalException, CloudException {
@@ -858,93 +1148,87 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     public @Nonnull Iterable<VirtualMachineProduct> listProducts(@Nonnull Architecture architecture) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "VM.listProducts");
         try {
-            Cache<VirtualMachineProduct> cache = Cache.getInstance(provider, "vmProduct" + architecture.name(), VirtualMachineProduct.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-            Iterable<VirtualMachineProduct> cached = cache.get(getContext());
+            ContextSnapshot s = provider.getContextSnapshot();
 
-            if( cached != null ) {
-                return cached;
+            if( s != null ) {
+                return s.getProducts();
             }
-            List<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
-
-            VirtualMachineProduct product;
-            /** OpSource enables any combination of CPU (1 -8 for East 1-4 or west) and RAM (1 - 64G for East and 1-32G for west) */
+            return getProductTable();
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            //int maxCPUNum = 0, maxMemInGB =0,  diskSizeInGB = 0, maxMemInMB = 0;
-            int maxCPUNum = 0, maxMemInGB =0,  maxMemInMB = 0;
+    /**
+     * The products are the same for every architecture, so one table is kept per region.
+     */
+    private @Nonnull ProductTable getProductTable() throws InternalException, CloudException {
+        List<VirtualMachineProduct> products = CallCache.getInstance().get(provider, CallCache.VM_PRODUCTS, CacheLevel.REGION_ACCOUNT, CalendarWrapper.DAY, new CallCache.Loader<List<VirtualMachineProduct>>() {
+            public @Nonnull List<VirtualMachineProduct> load() throws CloudException, InternalException {
+                return fetchProducts();
+            }
+        });
 
-            /** Obtain the maximum CPU and Memory for each data center */
-            String regionId = provider.getDefaultRegionId();
-            HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
-            Param param = new Param(OpSource.LOCATION_BASE_PATH, null);
-            parameters.put(0, param);
+        if( products instanceof ProductTable ) {
+            return (ProductTable)products;
+        }
+        // restored from the catalog snapshot as a plain list; index it once
+        ProductTable table = new ProductTable(products);
 
-            OpSourceMethod method = new OpSourceMethod(provider,
-                    provider.buildUrl(null,true, parameters),
-                    provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
+        CallCache.getInstance().put(provider, CallCache.VM_PRODUCTS, CacheLevel.REGION_ACCOUNT, table);
+        return table;
+    }
 
-            Document doc = method.invoke();
+    private @Nonnull ProductTable fetchProducts() throws InternalException, CloudException {
+        List<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
 
-            String sNS = "";
-            try{
-                sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
-            }
-            catch(IndexOutOfBoundsException ignore){
-                // ignore
-            }
-            NodeList blocks = doc.getElementsByTagName(sNS + "datacenterWithLimits");
+        VirtualMachineProduct product;
+        /** OpSource enables any combination of CPU (1 -8 for East 1-4 or west) and RAM (1 - 64G for East and 1-32G for west) */
 
-            if(blocks != null){
-                for(int i=0; i< blocks.getLength();i++){
-                    Node item = blocks.item(i);
+        //int maxCPUNum = 0, maxMemInGB =0,  diskSizeInGB = 0, maxMemInMB = 0;
+        int maxCPUNum = 0, maxMemInGB =0,  maxMemInMB = 0;
 
-                    RegionComputingPower r = toRegionComputingPower(item, sNS);
-                    if( r.getProviderRegionId().equals(regionId)){
-                        maxCPUNum = r.getMaxCPUNum();
-                        maxMemInMB = r.getMaxMemInMB();
-                    }
-                }
+        /** Obtain the maximum CPU and Memory for each data center */
+        String regionId = provider.getDefaultRegionId();
+        for( DatacenterLimits limits : CallCache.getInstance().getDatacentersWithLimits(provider, "") ) {
+            if( limits.getLocation().equals(regionId) ) {
+                maxCPUNum = limits.getMaxCpu();
+                maxMemInMB = limits.getMaxRamMb();
             }
+        }
 
-            for( int disk = 0 ; disk < 6; disk ++ ){
-                //diskSizeInGB = disk * 50;
-
-                for(int cpuNum =1;cpuNum <= maxCPUNum;cpuNum ++){
-                    /**
-                     * Default cpuNum = 1, 2, max ram = 8
-                     * cpuNum = 3, 4, min ram 4, max ram = 32
-                     * cpuNum = 1, 2, max ram = 8
-                     */
-                    int ramInMB = 1024*cpuNum;
-                    if(cpuNum <=2){
-                        ramInMB = 1024;
-                    }
-                    while((ramInMB/1024) <= 4*cpuNum && ramInMB <=  maxMemInMB){
-                        product = new VirtualMachineProduct();
-                        //product.setProviderProductId(cpuNum + ":" + ramInMB + ":" + diskSizeInGB);
-                        product.setProviderProductId(cpuNum + ":" + ramInMB);
-                        //product.setName(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM/" + diskSizeInGB + " GB Disk)");
-                        product.setName(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM)");
-                        //product.setDescription(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM/" + diskSizeInGB + " GB Disk)");
-                        product.setDescription(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM)");
-                        product.setRamSize(new Storage<Megabyte>(ramInMB, Storage.MEGABYTE));
-                        product.setCpuCount(cpuNum);
-                        product.setRootVolumeSize(new Storage<Gigabyte>(10, Storage.GIGABYTE));
-                        products.add(product);
-
-                        if(cpuNum <=2){
-                            ramInMB = ramInMB + 1024;
-                        }else{
-                            ramInMB = ramInMB + ramInMB;
-                        }
-                    }
+        for(int cpuNum =1;cpuNum <= maxCPUNum;cpuNum ++){
+            /**
+             * Default cpuNum = 1, 2, max ram = 8
+             * cpuNum = 3, 4, min ram 4, max ram = 32
+             * cpuNum = 1, 2, max ram = 8
+             */
+            int ramInMB = 1024*cpuNum;
+            if(cpuNum <=2){
+                ramInMB = 1024;
+            }
+            while((ramInMB/1024) <= 4*cpuNum && ramInMB <=  maxMemInMB){
+                product = new VirtualMachineProduct();
+                //product.setProviderProductId(cpuNum + ":" + ramInMB + ":" + diskSizeInGB);
+                product.setProviderProductId(cpuNum + ":" + ramInMB);
+                //product.setName(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM/" + diskSizeInGB + " GB Disk)");
+                product.setName(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM)");
+                //product.setDescription(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM/" + diskSizeInGB + " GB Disk)");
+                product.setDescription(" (" + cpuNum + " CPU/" + ramInMB + " MB RAM)");
+                product.setRamSize(new Storage<Megabyte>(ramInMB, Storage.MEGABYTE));
+                product.setCpuCount(cpuNum);
+                product.setRootVolumeSize(new Storage<Gigabyte>(10, Storage.GIGABYTE));
+                products.add(product);
+
+                if(cpuNum <=2){
+                    ramInMB = ramInMB + 1024;
+                }else{
+                    ramInMB = ramInMB + ramInMB;
                 }
             }
-            cache.put(getContext(), products);
-            return products;
-        }
-        finally {
-            APITrace.end();
         }
+        return new ProductTable(products);
     }
 
     @Override
@@ -958,97 +1242,501 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     @Nonnull
     @Override
     public Iterable<ResourceStatus> listVirtualMachineStatus() throws InternalException, CloudException {
-        ArrayList<ResourceStatus> list = new ArrayList<ResourceStatus>();
-        for(VirtualMachine vm : listVirtualMachines()){
-            ResourceStatus status = new ResourceStatus(vm.getProviderVirtualMachineId(), vm.getCurrentState());
-            list.add(status);
-        }
-        return list;
-    }
-
-    public @Nonnull Iterable<VirtualMachine> listVirtualMachines(final boolean withOrdering) throws InternalException, CloudException {
-        PopulatorThread<VirtualMachine> populator = new PopulatorThread<VirtualMachine>(new JiteratorPopulator<VirtualMachine>() {
+        return provider.getExecutors().stream(new JiteratorPopulator<ResourceStatus>() {
             @Override
-            public void populate(@Nonnull Jiterator<VirtualMachine> iterator) throws Exception {
-                HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
+            public void populate(@Nonnull Jiterator<ResourceStatus> iterator) throws Exception {
+                final HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
                 Param param = new Param(OpSource.SERVER_WITH_STATE, null);
                 parameters.put(0, param);
 
-                listPage(iterator, 1, 250, parameters, withOrdering);
+                final int pageSize = getPageSizeController(null).nextPageSize();
+                PagedListing.PageSource<ResourceStatus> source = new PagedListing.PageSource<ResourceStatus>() {
+                    public @Nonnull PagedListing.Page<ResourceStatus> fetch(int pageNumber) throws CloudException, InternalException {
+                        return fetchStatusPage(pageNumber, pageSize, parameters);
+                    }
+                };
+
+                new PagedListing<ResourceStatus>(provider, source, pageSize, false).populate(iterator);
             }
         });
+    }
 
-        populator.populate();
-        return populator.getResult();
+    /**
+     * @param withOrdering true to list the servers newest first, in page order; false to list them in whatever order the pages arrive
+     */
+    public @Nonnull Iterable<VirtualMachine> listVirtualMachines(boolean withOrdering) throws InternalException, CloudException {
+        return listVirtualMachines(null, withOrdering);
     }
 
-    @Override
-    public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
-        PopulatorThread<VirtualMachine> populator = new PopulatorThread<VirtualMachine>(new JiteratorPopulator<VirtualMachine>() {
+    /**
+     * Lists the servers matching the filter, letting the API do as much of the filtering as it supports.
+     * @param filter the criteria the servers must match, or <code>null</code> for all servers
+     * @param withOrdering true to list the servers newest first, in page order; false to list them in whatever order the pages arrive
+     */
+    public @Nonnull Iterable<VirtualMachine> listVirtualMachines(@Nullable final ServerFilter filter, final boolean withOrdering) throws InternalException, CloudException {
+        return provider.getExecutors().stream(new JiteratorPopulator<VirtualMachine>() {
             @Override
             public void populate(@Nonnull Jiterator<VirtualMachine> iterator) throws Exception {
                 HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
                 Param param = new Param(OpSource.SERVER_WITH_STATE, null);
                 parameters.put(0, param);
 
-                listPage(iterator, 1, 250, parameters, false);
+                listPages(iterator, getPageSizeController(filter).nextPageSize(), parameters, filter, withOrdering);
             }
         });
+    }
 
-        populator.populate();
-        return populator.getResult();
+    @Override
+    public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
+        return listVirtualMachines(false);
     }
 
-    private void listPage(final Jiterator<VirtualMachine> iterator, final int pageNumber, final int pageSize, final HashMap<Integer,Param> parameters, final boolean withOrdering) throws CloudException, InternalException {
-        boolean completeList = false;
-        String sortAndOrder = "";
-        if(withOrdering){
-            sortAndOrder = "&orderBy=created.desc&state=PENDING_ADD&state=NORMAL&state=PENDING_CHANGE";
+    /**
+     * Reads one page of the servers being added, being changed or in normal state, newest first; see {@link ServerSync}.
+     */
+    @Nonnull PagedListing.Page<VirtualMachine> fetchNewestPage(int pageNumber, int pageSize) throws InternalException, CloudException {
+        HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
+        Param param = new Param(OpSource.SERVER_WITH_STATE, null);
+        parameters.put(0, param);
+
+        return fetchPage(pageNumber, pageSize, parameters, null, true);
+    }
+
+    /**
+     * @return the page size for the next listing in the context's region
+     */
+    int nextPageSize() {
+        return getPageSizeController(null).nextPageSize();
+    }
+
+    /**
+     * Lists the servers of every region the account can reach, each region concurrently on the streaming pool
+     * against its own endpoint, merged into one stream in whatever order they arrive. A failing region is
+     * recorded in the inventory instead of failing the listing.
+     */
+    public @Nonnull RegionInventory listVirtualMachinesInAllRegions() throws InternalException, CloudException {
+        ArrayList<String> regionIds = new ArrayList<String>();
+
+        // listing the regions also registers their endpoints, so no region listing has to look one up
+        for( Region region : provider.getDataCenterServices().listRegions() ) {
+            regionIds.add(region.getProviderRegionId());
         }
+        final RegionInventory inventory = new RegionInventory(regionIds);
 
-        OpSourceMethod method = new OpSourceMethod(provider,
-                provider.buildUrl("pageSize=" + pageSize + "&pageNumber=" + pageNumber + "&location=" + provider.getContext().getRegionId() + sortAndOrder, true, parameters),
-                provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
+        for( final String regionId : regionIds ) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    try {
+                        HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
+                        Param param = new Param(OpSource.SERVER_WITH_STATE, null);
+                        parameters.put(0, param);
 
-        Document doc = method.invoke();
-        NodeList headMatches = doc.getElementsByTagName("ServersWithState");
-        Collection<VirtualMachine> next = null;
+                        ServerFilter filter = ServerFilter.getInstance().inLocation(regionId);
 
-        if(headMatches != null){
+                        listPages(inventory.getServers(), getPageSizeController(filter).nextPageSize(), parameters, filter, false);
+                    }
+                    catch( Exception e ) {
+                        logger.warn("Unable to list the servers in " + regionId + ": " + e.getMessage());
+                        inventory.fail(regionId, e);
+                    }
+                    finally {
+                        inventory.finish();
+                    }
+                }
+            };
 
-            int currentPageSize = Integer.parseInt(headMatches.item(0).getAttributes().getNamedItem("pageCount").getNodeValue());
+            try {
+                provider.getExecutors().execute(OpSourceExecutors.Pool.STREAMING, "OpSource Inventory " + regionId, task);
+            }
+            catch( RejectedExecutionException e ) {
+                task.run();
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Lists the servers matching the filter on the calling thread, handing each one to the visitor as it is read
+     * from the response. Neither pages nor servers are buffered, and only the requested fields, plus those the
+     * filter needs, are decoded. Pages are read one after the other.
+     * @param filter the criteria the servers must match, or <code>null</code> for all servers
+     * @param fields the fields to decode besides the ID and location
+     * @param visitor receives each matching server and may stop the listing
+     */
+    public void visitVirtualMachines(@Nullable ServerFilter filter, @Nonnull Set<ServerField> fields, @Nonnull ServerVisitor visitor) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "VM.visitVirtualMachines");
+        try {
+            EnumSet<ServerField> decoded = EnumSet.noneOf(ServerField.class);
+
+            decoded.addAll(fields);
+            if( filter != null ) {
+                decoded.addAll(filter.getRequiredFields());
+            }
+            HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
+            Param param = new Param(OpSource.SERVER_WITH_STATE, null);
+            parameters.put(0, param);
+
+            PageSizeController controller = getPageSizeController(filter);
+            int pageSize = controller.nextPageSize();
+            ServerPageReader reader = new ServerPageReader(filter, decoded, visitor);
+            int pageNumber = 1;
+
+            do {
+                OpSourceMethod method = new OpSourceMethod(provider,
+                        getServerPageUrl(pageNumber, pageSize, parameters, filter, false),
+                        provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
+                long startedAt = System.currentTimeMillis();
 
-            if( currentPageSize >= pageSize ) {
-                PopulatorThread<VirtualMachine> populator = new PopulatorThread<VirtualMachine>(new JiteratorPopulator<VirtualMachine>() {
-                    @Override
-                    public void populate(@Nonnull Jiterator<VirtualMachine> ignored) throws Exception {
-                        listPage(iterator, pageNumber+1, pageSize, parameters, withOrdering);
+                reader.reset();
+                try {
+                    method.stream(reader);
+                }
+                catch( CloudException e ) {
+                    controller.record(pageSize, 0, System.currentTimeMillis() - startedAt - reader.visitMillis, -1L, false);
+                    throw e;
+                }
+                if( !reader.stopped ) {
+                    controller.record(pageSize, reader.itemCount, System.currentTimeMillis() - startedAt - reader.visitMillis, method.getResponseLength(), true);
+                }
+                if( pageNumber == 1 && filter == null && reader.totalCount >= 0 ) {
+                    CallCache.getInstance().put(provider, CallCache.SERVER_COUNT, CacheLevel.REGION_ACCOUNT, reader.totalCount);
+                }
+                pageNumber++;
+            } while( !reader.stopped && reader.itemCount >= pageSize );
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Reads one page of <code>serverWithState</code> elements into a single reused {@link ServerRecord}.
+     */
+    private class ServerPageReader implements OpSourceMethod.StreamHandler {
+        private final ServerFilter          filter;
+        private final EnumSet<ServerField>  fields;
+        private final ServerVisitor         visitor;
+        private final ServerRecord          record = new ServerRecord();
+        private final DateFormat            dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+        int     itemCount;
+        int     totalCount;
+        long    visitMillis;
+        boolean stopped;
+
+        ServerPageReader(@Nullable ServerFilter filter, @Nonnull EnumSet<ServerField> fields, @Nonnull ServerVisitor visitor) {
+            this.filter = filter;
+            this.fields = fields;
+            this.visitor = visitor;
+        }
+
+        void reset() {
+            itemCount = 0;
+            totalCount = -1;
+            visitMillis = 0L;
+        }
+
+        public void handle(@Nonnull XMLStreamReader reader) throws CloudException, InternalException, XMLStreamException {
+            while( reader.hasNext() ) {
+                if( reader.next() != XMLStreamConstants.START_ELEMENT ) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+
+                if( name.equalsIgnoreCase("ServersWithState") ) {
+                    String count = reader.getAttributeValue(null, "pageCount");
+                    String total = reader.getAttributeValue(null, "totalCount");
+
+                    if( count != null ) {
+                        itemCount = Integer.parseInt(count.trim());
+                    }
+                    if( total != null ) {
+                        totalCount = Integer.parseInt(total.trim());
+                    }
+                }
+                else if( name.equalsIgnoreCase("serverWithState") ) {
+                    if( !readServer(reader) ) {
+                        continue;
                     }
-                });
+                    if( filter == null || filter.matches(record) ) {
+                        long startedAt = System.currentTimeMillis();
+                        boolean more = visitor.visit(record);
 
-                populator.populate();
-                next = populator.getResult();
+                        visitMillis += System.currentTimeMillis() - startedAt;
+                        if( !more ) {
+                            stopped = true;
+                            return;
+                        }
+                    }
+                }
             }
         }
+
+        /**
+         * Reads the server the reader is positioned on, leaving the reader on its end tag.
+         * @return false if the element names no server ID and was skipped
+         */
+        private boolean readServer(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+            Boolean isStarted = null;
+            boolean isDeployed = false;
+            boolean hasStatus = false;
+            String serverState = "";
+            String action = null;
+
+            record.clear();
+            String id = reader.getAttributeValue(null, "id");
+
+            // one malformed record must not end the whole listing
+            if( id == null || id.trim().length() < 1 ) {
+                logger.warn("Skipping a server without an ID in a serverWithState listing");
+                skipElement(reader);
+                return false;
+            }
+            record.setProviderVirtualMachineId(id.trim());
+            record.setProviderRegionId(reader.getAttributeValue(null, "location"));
+            while( reader.next() != XMLStreamConstants.END_ELEMENT ) {
+                if( reader.getEventType() != XMLStreamConstants.START_ELEMENT ) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+
+                if( name.equalsIgnoreCase("name") && fields.contains(ServerField.NAME) ) {
+                    record.setName(reader.getElementText());
+                }
+                else if( name.equalsIgnoreCase("description") && fields.contains(ServerField.DESCRIPTION) ) {
+                    record.setDescription(reader.getElementText());
+                }
+                else if( name.equalsIgnoreCase("networkId") && fields.contains(ServerField.NETWORK) ) {
+                    record.setProviderVlanId(reader.getElementText().trim());
+                }
+                else if( name.equalsIgnoreCase("sourceImageId") && fields.contains(ServerField.IMAGE) ) {
+                    record.setProviderMachineImageId(reader.getElementText().trim());
+                }
+                else if( name.equalsIgnoreCase("operatingSystem") && fields.contains(ServerField.OPERATING_SYSTEM) ) {
+                    String displayName = reader.getAttributeValue(null, "displayName");
+
+                    record.setOperatingSystem(displayName == null ? null : displayName.trim());
+                    skipElement(reader);
+                }
+                else if( name.equalsIgnoreCase("cpuCount") && fields.contains(ServerField.SHAPE) ) {
+                    record.setCpuCount(Integer.parseInt(reader.getElementText().trim()));
+                }
+                else if( name.equalsIgnoreCase("memoryMb") && fields.contains(ServerField.SHAPE) ) {
+                    record.setMemoryInMb(Integer.parseInt(reader.getElementText().trim()));
+                }
+                else if( name.equalsIgnoreCase("disk") && fields.contains(ServerField.DISKS) ) {
+                    String scsiId = reader.getAttributeValue(null, "scsiId");
+                    String size = reader.getAttributeValue(null, "sizeGb");
+
+                    if( scsiId != null && size != null ) {
+                        record.addDisk(Integer.parseInt(scsiId.trim()), Integer.parseInt(size.trim()));
+                    }
+                    skipElement(reader);
+                }
+                else if( name.equalsIgnoreCase("privateIp") && fields.contains(ServerField.ADDRESSES) ) {
+                    record.setPrivateIp(reader.getElementText().trim());
+                }
+                else if( name.equalsIgnoreCase("publicIp") && fields.contains(ServerField.ADDRESSES) ) {
+                    record.setPublicIp(reader.getElementText().trim());
+                }
+                else if( name.equalsIgnoreCase("created") && fields.contains(ServerField.CREATED) ) {
+                    String value = reader.getElementText().trim();
+
+                    try {
+                        record.setCreationTimestamp(dateFormat.parse(value.contains(".") ? value.substring(0, value.indexOf(".")) + "Z" : value).getTime());
+                    }
+                    catch( ParseException e ) {
+                        logger.warn("Invalid date: " + value);
+                    }
+                }
+                else if( name.equalsIgnoreCase("isDeployed") && fields.contains(ServerField.STATE) ) {
+                    isDeployed = "true".equalsIgnoreCase(reader.getElementText().trim());
+                }
+                else if( name.equalsIgnoreCase("isStarted") && fields.contains(ServerField.STATE) ) {
+                    isStarted = "true".equalsIgnoreCase(reader.getElementText().trim());
+                }
+                else if( name.equalsIgnoreCase("state") && fields.contains(ServerField.STATE) ) {
+                    serverState = reader.getElementText().trim();
+                }
+                else if( name.equalsIgnoreCase("status") && fields.contains(ServerField.STATE) ) {
+                    hasStatus = true;
+                    while( reader.next() != XMLStreamConstants.END_ELEMENT ) {
+                        if( reader.getEventType() != XMLStreamConstants.START_ELEMENT ) {
+                            continue;
+                        }
+                        if( reader.getLocalName().equalsIgnoreCase("action") ) {
+                            action = reader.getElementText().trim();
+                        }
+                        else {
+                            skipElement(reader);
+                        }
+                    }
+                }
+                else {
+                    skipElement(reader);
+                }
+            }
+            if( fields.contains(ServerField.STATE) ) {
+                record.setCurrentState(toVmState(isStarted, isDeployed, serverState, action, hasStatus));
+            }
+            return true;
+        }
+
+        /**
+         * Skips the element the reader is positioned on, leaving the reader on its end tag.
+         */
+        private void skipElement(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+            int depth = 1;
+
+            while( depth > 0 ) {
+                int event = reader.next();
+
+                if( event == XMLStreamConstants.START_ELEMENT ) {
+                    depth++;
+                }
+                else if( event == XMLStreamConstants.END_ELEMENT ) {
+                    depth--;
+                }
+            }
+        }
+    }
+
+    private void listPages(@Nonnull Jiterator<VirtualMachine> iterator, final int pageSize, final HashMap<Integer,Param> parameters, @Nullable final ServerFilter filter, final boolean withOrdering) throws CloudException, InternalException {
+        PagedListing.PageSource<VirtualMachine> source = new PagedListing.PageSource<VirtualMachine>() {
+            public @Nonnull PagedListing.Page<VirtualMachine> fetch(int pageNumber) throws CloudException, InternalException {
+                return fetchPage(pageNumber, pageSize, parameters, filter, withOrdering);
+            }
+        };
+
+        new PagedListing<VirtualMachine>(provider, source, pageSize, withOrdering).populate(iterator);
+    }
+
+    /**
+     * @return the page's servers that match the filter; the page's item count is that of the unfiltered page
+     */
+    private @Nonnull PagedListing.Page<VirtualMachine> fetchPage(int pageNumber, int pageSize, HashMap<Integer,Param> parameters, @Nullable ServerFilter filter, boolean withOrdering) throws CloudException, InternalException {
+        Document doc = invokeServerPage(pageNumber, pageSize, parameters, filter, withOrdering);
+        int itemCount = getPageAttribute(doc, "pageCount", 0);
+        int totalCount = getPageAttribute(doc, "totalCount", -1);
+        ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
         NodeList  matches = doc.getElementsByTagName("serverWithState");
 
         if(matches != null){
             for(int i=0;i<matches.getLength();i++){
                 VirtualMachine vm = toVirtualMachineWithStatus(matches.item(i), "");
-                if(vm != null) {
-                    iterator.push(vm);
+                if(vm != null && (filter == null || filter.matches(vm))) {
+                    vms.add(vm);
+                }
+            }
+        }
+        if(pageNumber == 1 && filter == null && !withOrdering && totalCount >= 0){
+            CallCache.getInstance().put(provider, CallCache.SERVER_COUNT, CacheLevel.REGION_ACCOUNT, totalCount);
+        }
+        return new PagedListing.Page<VirtualMachine>(vms, itemCount, totalCount);
+    }
+
+    /**
+     * Reads one page of the fleet's state without building servers; see {@link #toResourceStatus(Node)}.
+     */
+    private @Nonnull PagedListing.Page<ResourceStatus> fetchStatusPage(int pageNumber, int pageSize, HashMap<Integer,Param> parameters) throws CloudException, InternalException {
+        Document doc = invokeServerPage(pageNumber, pageSize, parameters, null, false);
+        int itemCount = getPageAttribute(doc, "pageCount", 0);
+        int totalCount = getPageAttribute(doc, "totalCount", -1);
+        ArrayList<ResourceStatus> list = new ArrayList<ResourceStatus>();
+        NodeList  matches = doc.getElementsByTagName("serverWithState");
+
+        if(matches != null){
+            for(int i=0;i<matches.getLength();i++){
+                ResourceStatus status = toResourceStatus(matches.item(i));
+                if(status != null){
+                    list.add(status);
                 }
             }
         }
-        if( next != null ) {
-            // don't return from this method until ALL results from the next page are done
-            Iterator<VirtualMachine> it = next.iterator();
+        if(pageNumber == 1 && totalCount >= 0){
+            CallCache.getInstance().put(provider, CallCache.SERVER_COUNT, CacheLevel.REGION_ACCOUNT, totalCount);
+        }
+        return new PagedListing.Page<ResourceStatus>(list, itemCount, totalCount);
+    }
+
+    private @Nonnull Document invokeServerPage(int pageNumber, int pageSize, HashMap<Integer,Param> parameters, @Nullable ServerFilter filter, boolean withOrdering) throws CloudException, InternalException {
+        OpSourceMethod method = new OpSourceMethod(provider,
+                getServerPageUrl(pageNumber, pageSize, parameters, filter, withOrdering),
+                provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
+
+        PageSizeController controller = getPageSizeController(filter);
+        long startedAt = System.currentTimeMillis();
+        Document doc;
+
+        try {
+            doc = method.invoke();
+        }
+        catch( CloudException e ) {
+            controller.record(pageSize, 0, System.currentTimeMillis() - startedAt, -1L, false);
+            throw e;
+        }
+        if(doc == null){
+            controller.record(pageSize, 0, System.currentTimeMillis() - startedAt, -1L, false);
+            throw new CloudException("Unable to list servers: the response could not be parsed");
+        }
+        controller.record(pageSize, getPageAttribute(doc, "pageCount", 0), System.currentTimeMillis() - startedAt, method.getResponseLength(), true);
+        return doc;
+    }
+
+    private @Nonnull String getServerPageUrl(int pageNumber, int pageSize, HashMap<Integer,Param> parameters, @Nullable ServerFilter filter, boolean withOrdering) throws CloudException, InternalException {
+        String sortAndOrder = "";
+        if(withOrdering){
+            sortAndOrder = "&orderBy=created.desc&state=PENDING_ADD&state=NORMAL&state=PENDING_CHANGE";
+        }
+        String location = getListingLocation(filter);
+        String criteria = "";
+
+        if(filter != null){
+            criteria = filter.toQuery();
+        }
+
+        String command = "pageSize=" + pageSize + "&pageNumber=" + pageNumber + "&location=" + location + criteria + sortAndOrder;
+
+        if(location != null && !location.equals(provider.getContext().getRegionId())){
+            // another region may be served by another endpoint
+            String endpoint = provider.getEndpoint(location);
+
+            if(endpoint == null){
+                throw new CloudException("No endpoint is known for region " + location);
+            }
+            return provider.buildUrlWithEndpoint(endpoint, command, true, parameters);
+        }
+        return provider.buildUrl(command, true, parameters);
+    }
+
+    private @Nonnull String getListingLocation(@Nullable ServerFilter filter) {
+        if(filter != null && filter.getLocation() != null){
+            return filter.getLocation();
+        }
+        return provider.getContext().getRegionId();
+    }
+
+    /**
+     * @return the controller sizing the pages of server listings in the filter's location
+     */
+    private @Nonnull PageSizeController getPageSizeController(@Nullable ServerFilter filter) {
+        return PageSizeController.getInstance(OpSource.SERVER_WITH_STATE + "@" + getListingLocation(filter));
+    }
+
+    /**
+     * @return the named numeric attribute of the page's <code>ServersWithState</code> element, or the default if it is missing
+     */
+    private int getPageAttribute(@Nonnull Document doc, @Nonnull String name, int defaultValue) {
+        NodeList headMatches = doc.getElementsByTagName("ServersWithState");
+
+        if(headMatches != null && headMatches.getLength() > 0){
+            Node value = headMatches.item(0).getAttributes().getNamedItem(name);
 
-            while( it.hasNext() ) {
-                it.next();
+            if(value != null){
+                return Integer.parseInt(value.getNodeValue());
             }
-            // we're done, it's done -> done, done
         }
+        return defaultValue;
     }
 
     /*
@@ -1159,7 +1847,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     }
 
 	/** Modify VM with the cpu and memory */
-	private boolean modify(String serverId, int cpuCount, int memoryInMb ) throws InternalException, CloudException {
+	boolean modify(String serverId, int cpuCount, int memoryInMb ) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "VM.modify");
         try{
             HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
@@ -1176,7 +1864,10 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
             OpSourceMethod method = new OpSourceMethod(provider,
                     provider.buildUrl(null,true, parameters),
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Modify, "POST", requestBody));
-            return method.parseRequestResultNoError("Modify vm",method.invoke(), "result", "resultDetail");
+            boolean modified = method.parseRequestResultNoError("Modify vm",method.invoke(), "result", "resultDetail");
+
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
+            return modified;
         }
         finally {
             APITrace.end();
@@ -1199,6 +1890,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                         provider.buildUrl(PAUSE_VIRTUAL_MACHINE,true, parameters),
                         provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
                 method.parseRequestResult("Pausing vm",method.invoke(),"result","resultDetail");
+                MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
             }
             else{
                 HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
@@ -1211,6 +1903,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                         provider.buildUrl(HARD_STOP_VIRTUAL_MACHINE,true, parameters),
                         provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
                 method.parseRequestResult("Stopping vm",method.invoke(),"result","resultDetail");
+                MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
             }
         }
         finally {
@@ -1233,6 +1926,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                     provider.buildUrl(REBOOT_VIRTUAL_MACHINE,true, parameters),
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
             method.parseRequestResult("Rebooting vm",method.invoke(),"result","resultDetail");
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
         }
         finally {
             APITrace.end();
@@ -1285,58 +1979,52 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                 logger.info("Stopping the server " + serverId + " prior to termination...");
             }
             long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 20L);
+            PollingPolicy stopPolicy = PollingPolicy.getInstance(PollingPolicy.Operation.STOP);
+            int attempt = 0;
 
             while( System.currentTimeMillis() < timeout ) {
                 try {
                     /** If it is pending, means it is in deployment process, need around 6 mins */
-                    server = getVirtualMachine(serverId);
-
-                    if( server == null ) {
-                        /** VM already killed */
-                        return;
-                    }
-                    if( server.getCurrentState().equals(VmState.STOPPED) ) {
-                        break;
-                    }
-                    if( server.getCurrentState().equals(VmState.RUNNING) ){
-                        stop(serverId);
-                        break;
-                    }
-
+                    server = awaitServer(serverId, ServerWatcher.inStateOrRemoved(VmState.STOPPED, VmState.RUNNING), PollingPolicy.getInstance(PollingPolicy.Operation.DEPLOY), timeout - System.currentTimeMillis());
+                }
+                catch( TimeoutException e ) {
+                    break;
+                }
+                if( server == null || server.getCurrentState().equals(VmState.TERMINATED) ) {
+                    /** VM already killed */
+                    return;
+                }
+                if( server.getCurrentState().equals(VmState.STOPPED) ) {
+                    break;
+                }
+                try {
+                    stop(serverId);
+                    break;
                 }
                 catch( Throwable t ) {
                     logger.warn("Error stopping VM: " + t.getMessage());
                 }
-                try { Thread.sleep(30000L); }
+                try { Thread.sleep(stopPolicy.getDelay(attempt++)); }
                 catch( InterruptedException ignore ) { }
             }
             if( logger.isInfoEnabled() ) {
                 logger.info("Waiting for server " + serverId + " to be STOPPED...");
             }
-            timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
-            while( System.currentTimeMillis() < timeout ) {
-                try {
-                    server = getVirtualMachine(serverId);
-                    if( server == null ) {
-                        return;
-                    }
-                    if( server.getCurrentState().equals(VmState.TERMINATED) ) {
-                        return;
-                    }
-                    if( server.getCurrentState().equals(VmState.STOPPED) ) {
-                        break;
-                    }
-                }
-                catch( Throwable t ) {
-                    logger.warn("Error stopping VM: " + t.getMessage());
+            try {
+                server = awaitServer(serverId, ServerWatcher.inStateOrRemoved(VmState.STOPPED), stopPolicy, CalendarWrapper.MINUTE * 10L);
+                if( server == null || server.getCurrentState().equals(VmState.TERMINATED) ) {
+                    return;
                 }
-                try { Thread.sleep(30000L); }
-                catch( InterruptedException ignore ) { }
+            }
+            catch( TimeoutException e ) {
+                logger.warn("Timed out waiting for " + serverId + " to be STOPPED");
             }
             if( logger.isInfoEnabled() ) {
                 logger.info("Finally terminating " + serverId + " now that it is STOPPED");
             }
             timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
+            PollingPolicy terminatePolicy = PollingPolicy.getInstance(PollingPolicy.Operation.TERMINATE);
+            attempt = 0;
             while( System.currentTimeMillis() < timeout ) {
                 try {
                     String  resultCode = killVM(serverId);
@@ -1361,7 +2049,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                     }
                     else {
                         try {
-                            Thread.sleep(waitTimeToAttempt);
+                            Thread.sleep(terminatePolicy.getDelay(attempt++));
                             logger.info("Cleaning failed deployment for " + serverId);
                             cleanFailedVM(serverId);
                         }
@@ -1373,7 +2061,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
                 catch( CloudException e ) {
                     logger.warn("Failed termination attempt: " + e.getMessage());
                     try{
-                        Thread.sleep(waitTimeToAttempt);
+                        Thread.sleep(terminatePolicy.getDelay(attempt++));
                         logger.info("Cleaning failed deployment for " + serverId);
                         cleanFailedVM(serverId);
                     }
@@ -1385,25 +2073,67 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
             if( logger.isInfoEnabled() ) {
                 logger.info("Waiting for " + serverId + " to be TERMINATED...");
             }
-            while( System.currentTimeMillis() < timeout ) {
-                VirtualMachine vm = getVirtualMachine(serverId);
-
-                if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
-                    if( logger.isInfoEnabled() ) {
-                        logger.info("VM " + serverId + " successfully TERMINATED");
-                    }
-                    return;
+            try {
+                awaitServer(serverId, ServerWatcher.inStateOrRemoved(), terminatePolicy, timeout - System.currentTimeMillis());
+                if( logger.isInfoEnabled() ) {
+                    logger.info("VM " + serverId + " successfully TERMINATED");
                 }
-                try { Thread.sleep(30000L); }
-                catch( InterruptedException ignore ) { }
             }
-            logger.warn("System timed out waiting for " + serverId + " to complete termination");
+            catch( TimeoutException e ) {
+                logger.warn("System timed out waiting for " + serverId + " to complete termination");
+            }
         }
         finally {
             APITrace.end();
         }
     }
 
+    /**
+     * @return future-returning variants of launch, terminate, start, stop and reboot
+     */
+    public @Nonnull AsyncLifecycle getAsyncLifecycle() {
+        return new AsyncLifecycle(provider, this);
+    }
+
+    /**
+     * Waits on the region's shared {@link ServerWatcher} until the server meets the condition.
+     * @param policy how often the watcher checks the server
+     * @return the server as last read, or <code>null</code> if it is gone
+     * @throws TimeoutException if the condition did not hold in time
+     */
+    private @Nullable VirtualMachine awaitServer(@Nonnull String serverId, @Nonnull ServerWatcher.Condition condition, @Nonnull PollingPolicy policy, long timeoutMillis) throws CloudException, InternalException, TimeoutException {
+        Future<VirtualMachine> watch;
+
+        try {
+            watch = ServerWatcher.getInstance(provider).watch(provider, serverId, condition, policy);
+        }
+        catch( RejectedExecutionException e ) {
+            throw new CloudException("The provider was closed while waiting for " + serverId);
+        }
+        try {
+            return watch.get(Math.max(0L, timeoutMillis), TimeUnit.MILLISECONDS);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+        finally {
+            // lets go of the provider if the wait ended early
+            watch.cancel(false);
+        }
+    }
+
     @Override
     public void terminate(@Nonnull String instanceId, @Nullable String explanation) throws InternalException, CloudException {
         terminate(instanceId);
@@ -1419,7 +2149,7 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
         //TODO: Implement for 2013.01
     }
 
-    private String killVM(String serverId) throws InternalException, CloudException {
+    String killVM(String serverId) throws InternalException, CloudException {
         HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
         Param param = new Param(OpSource.SERVER_BASE_PATH, null);
         parameters.put(0, param);
@@ -1429,7 +2159,10 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
         OpSourceMethod method = new OpSourceMethod(provider,
                 provider.buildUrl(DESTROY_VIRTUAL_MACHINE,true, parameters),
                 provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
-        return method.requestResultCode("Terminating vm",method.invoke(),"resultCode");
+        String resultCode = method.requestResultCode("Terminating vm",method.invoke(),"resultCode");
+
+        MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, serverId);
+        return resultCode;
     }
 
     private String translateZone(String zoneId) throws InternalException, CloudException {
@@ -1445,14 +2178,87 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
         return zoneId;
     }
 
-    private VirtualMachineProduct getProduct(Architecture architecture, int cpuCout, int memoryInSize, int diskInGB) throws InternalException, CloudException{
+    /**
+     * Reads only the ID and the state of a <code>serverWithState</code> element, deriving the state exactly as
+     * {@link #toVirtualMachineWithStatus(Node, String)} does. Names, addresses, disks, the operating system and
+     * the dates are skipped.
+     */
+    private @Nullable ResourceStatus toResourceStatus(@Nullable Node node) {
+        if(node == null) {
+            return null;
+        }
+        Node id = node.getAttributes().getNamedItem("id");
 
-        for( VirtualMachineProduct product : listProducts(architecture) ) {
-            if( product.getCpuCount() == cpuCout && product.getRamSize().intValue() == memoryInSize  && diskInGB == product.getRootVolumeSize().intValue() ) {
-                return product;
+        if(id == null || id.getFirstChild() == null) {
+            return null;
+        }
+        NodeList attributes = node.getChildNodes();
+        Boolean isStarted = null;
+        boolean isDeployed = false;
+        boolean hasStatus = false;
+        String serverState = "";
+        String action = null;
+
+        for(int i=0; i<attributes.getLength(); i++){
+            Node attribute = attributes.item(i);
+            if(attribute.getNodeType() != Node.ELEMENT_NODE) continue;
+            String name = attribute.getNodeName();
+            String value = (attribute.getFirstChild() == null ? "" : attribute.getFirstChild().getNodeValue());
+
+            if(name.equalsIgnoreCase("isDeployed")){
+                isDeployed = "true".equalsIgnoreCase(value);
+            }
+            else if(name.equalsIgnoreCase("isStarted")){
+                isStarted = "true".equalsIgnoreCase(value);
+            }
+            else if(name.equalsIgnoreCase("state")){
+                serverState = (value == null ? "" : value.trim());
+            }
+            else if(name.equalsIgnoreCase("status")){
+                NodeList status = attribute.getChildNodes();
+
+                hasStatus = true;
+                for(int j=0;j<status.getLength();j++){
+                    Node statusNode = status.item(j);
+
+                    if(statusNode.getNodeName().equalsIgnoreCase("action") && statusNode.getFirstChild() != null){
+                        action = statusNode.getFirstChild().getNodeValue().trim();
+                    }
+                }
             }
         }
-        return null;
+        return new ResourceStatus(id.getFirstChild().getNodeValue().trim(), toVmState(isStarted, isDeployed, serverState, action, hasStatus));
+    }
+
+    /**
+     * Derives a server's state from its <code>serverWithState</code> flags by the rules
+     * {@link #toVirtualMachineWithStatus(Node, String)} applies.
+     * @param isStarted the <code>isStarted</code> flag, or <code>null</code> if absent
+     * @param serverState the administrative <code>state</code>, or an empty string if absent
+     * @param action the <code>status/action</code> of a pending change, if any
+     * @param hasStatus true if the server carries a <code>status</code> element
+     */
+    static @Nullable VmState toVmState(@Nullable Boolean isStarted, boolean isDeployed, @Nonnull String serverState, @Nullable String action, boolean hasStatus) {
+        VmState state = (isStarted == null ? null : (isStarted ? VmState.RUNNING : VmState.STOPPED));
+
+        if(!isDeployed && serverState.equals("PENDING_ADD")){
+            state = VmState.PENDING;
+        }
+        if(hasStatus){
+            if(isDeployed && serverState.equals("PENDING_CHANGE")){
+                if(action != null){
+                    if(action.equalsIgnoreCase("START_SERVER"))state = VmState.RUNNING;
+                    else if(action.equalsIgnoreCase("POWER_OFF_SERVER"))state = VmState.STOPPING;
+                    else if(action.equalsIgnoreCase("SHUTDOWN_SERVER"))state = VmState.STOPPING;
+                    else if(action.equalsIgnoreCase("RESET_SERVER"))state = VmState.REBOOTING;
+                    else state = VmState.PENDING;
+                }
+            }
+            else if(!serverState.equals("NORMAL") && !serverState.equals("PENDING_ADD") && !serverState.equals("PENDING_CHANGE") && !serverState.equals("PENDING_DELETE")){
+                state = VmState.SUSPENDED;
+            }
+        }
+        return state;
     }
 
     private VirtualMachine toVirtualMachineWithStatus(Node node, String nameSpace) throws InternalException, CloudException{
@@ -1661,8 +2467,10 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
 
             server.setProductId(cpuCount + ":" + memoryInMb + ":" + diskString);
         }
-        if(server.getCurrentState().equals(VmState.SUSPENDED) && !failureReason.equals("")){
+        if(!serverState.equals("")){
             server.setTag("serverState", serverState);
+        }
+        if(server.getCurrentState().equals(VmState.SUSPENDED) && !failureReason.equals("")){
             server.setTag("failureReason", failureReason);
         }
         return server;
@@ -1934,13 +2742,11 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
             int memoryInMb = Integer.valueOf((String) server.getTag("memory"));
             int diskInGb = 1;
 
-            if(server.getTag("additionalLocalStorage") == null){
-                product = getProduct(bestArchitectureGuess, cpuCout, (memoryInMb/1024), 0);
-            }
-            else{
+            if(server.getTag("additionalLocalStorage") != null){
                 diskInGb = Integer.valueOf((String) server.getTag("additionalLocalStorage"));
-                product = getProduct(bestArchitectureGuess, cpuCout, (memoryInMb/1024), diskInGb);
             }
+            // local storage is not part of an OpSource product
+            product = getProductTable().getProduct(cpuCout, memoryInMb);
             if( product == null ) {
                 product = new VirtualMachineProduct();
                 product.setName(cpuCout + " CPU/" + memoryInMb + "MB RAM/" + diskInGb + "GB HD");
@@ -1979,39 +2785,6 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
         return server;
     }
 
-    private RegionComputingPower toRegionComputingPower(Node node, String nameSpace){
-
-        if(node == null){
-            return null;
-        }
-
-        NodeList data;
-
-        data = node.getChildNodes();
-
-        RegionComputingPower r = new RegionComputingPower();
-        for( int i=0; i<data.getLength(); i++ ) {
-            Node item = data.item(i);
-
-
-            if(item.getNodeType() == Node.TEXT_NODE) continue;
-
-            if( item.getNodeName().equals(nameSpace + "location") ) {
-                r.setProviderRegionId(item.getFirstChild().getNodeValue());
-            }
-            else if( item.getNodeName().equals(nameSpace + "displayName") ) {
-                r.setName(item.getFirstChild().getNodeValue());
-            }
-            else if( item.getNodeName().equals(nameSpace + "maxCpu") ) {
-                r.setMaxCPUNum(Integer.valueOf(item.getFirstChild().getNodeValue()));
-            }
-            else if( item.getNodeName().equals(nameSpace + "maxRamMb") ) {
-                r.setMaxMemInMB(Integer.valueOf(item.getFirstChild().getNodeValue()));
-            }
-        }
-        return r;
-    }
-
     static private final Random random = new Random();
     static public String alphabet = "ABCEFGHJKMNPRSUVWXYZabcdefghjkmnpqrstuvwxyz0123456789#@()=+/{}[],.?;':|-_!$%^&*~`";
     public String getRandomPassword() {
@@ -2039,6 +2812,11 @@ public class VirtualMachines extends AbstractVMSupport<OpSource> {
     }
 
 
+    /**
+     * @deprecated no longer built by this class; the CPU and memory limits of a region are read from
+     * {@link org.dasein.cloud.opsource.DatacenterLimits} through the call cache
+     */
+    @Deprecated
     @SuppressWarnings("serial")
     public class RegionComputingPower extends Region{
 
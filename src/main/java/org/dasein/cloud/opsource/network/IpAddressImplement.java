@@ -42,6 +42,7 @@ import org.dasein.cloud.network.RawAddress;
 import org.dasein.cloud.network.Subnet;
 
 import org.dasein.cloud.network.VLAN;
+import org.dasein.cloud.opsource.MutationBus;
 import org.dasein.cloud.opsource.OpSource;
 import org.dasein.cloud.opsource.OpSourceMethod;
 import org.dasein.cloud.opsource.Param;
@@ -116,6 +117,7 @@ public class IpAddressImplement implements IpAddressSupport {
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "POST", provider.convertDomToString(doc)));
 
             method.parseRequestResult("Assign Ip",method.invoke(), "result", "resultDetail");
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.ADDRESS_ASSIGNED, addressId, toServerId);
         }
         finally {
             APITrace.end();
@@ -559,6 +561,7 @@ public class IpAddressImplement implements IpAddressSupport {
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
 
             method.requestResult("Release Ip from server",method.invoke());
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.ADDRESS_RELEASED, addressId);
         }
         finally {
             APITrace.end();
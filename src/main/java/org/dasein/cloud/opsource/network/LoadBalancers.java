@@ -36,6 +36,7 @@ import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.*;
+import org.dasein.cloud.opsource.MutationBus;
 import org.dasein.cloud.opsource.OpSource;
 import org.dasein.cloud.opsource.OpSourceMethod;
 import org.dasein.cloud.opsource.Param;
@@ -676,7 +677,9 @@ serverFarm/{server-farm-id}/addRealServer
 					provider.buildUrl(null,true, parameters),
 					provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "POST", provider.convertDomToString(doc)));
 
-			return method.getRequestResultId("Add load balancer", method.invoke(), "result", "resultDetail");
+			String loadBalancerId = method.getRequestResultId("Add load balancer", method.invoke(), "result", "resultDetail");
+			MutationBus.getInstance().publish(provider, MutationBus.Mutation.LOAD_BALANCER_CREATED, loadBalancerId, networkId);
+			return loadBalancerId;
 		}catch (Exception e){
 			logger.error(e.getMessage());			
 			/** If vip fails,then kill all resources */
@@ -1511,6 +1514,7 @@ serverFarm/{server-farm-id}
                 /** Other balancer/server Farm was using this realserver */
                 logger.error(e);
             }
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.LOAD_BALANCER_REMOVED, loadBalancerId, networkId);
         }
         finally {
             APITrace.end();
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
@@ -39,14 +40,15 @@ import org.dasein.cloud.network.SubnetState;
 import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.network.VLANState;
 import org.dasein.cloud.network.VLANSupport;
+import org.dasein.cloud.opsource.CallCache;
+import org.dasein.cloud.opsource.MutationBus;
+import org.dasein.cloud.opsource.NetworkWithLocation;
 import org.dasein.cloud.opsource.OpSource;
 import org.dasein.cloud.opsource.OpSourceMethod;
 import org.dasein.cloud.opsource.Param;
 import org.dasein.cloud.util.APITrace;
-import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
-import org.dasein.util.uom.time.Minute;
-import org.dasein.util.uom.time.TimePeriod;
+import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -103,43 +105,15 @@ public class Network extends AbstractVLANSupport {
         return true;
     }
 
-    private @Nonnull Iterable<VLAN> fetchVlans() throws CloudException, InternalException {
+    private @Nonnull List<VLAN> fetchVlans() throws CloudException, InternalException {
         ArrayList<VLAN> list = new ArrayList<VLAN>();
-        HashMap<Integer, Param>  parameters = new HashMap<Integer, Param>();
-        Param param = new Param("networkWithLocation", null);
-        parameters.put(0, param);
 
-        //param = new Param(provider.getDefaultRegionId(), null);//Removed this as it appears to break when switching regions
-        //parameters.put(1, param);
-
-        OpSourceMethod method = new OpSourceMethod(provider,
-                provider.buildUrl(null,true, parameters),
-                provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET",null));
-        Document doc = method.invoke();
-        //Document doc = CallCache.getInstance().getAPICall("networkWithLocation", provider, parameters);
-
-        String sNS = "";
-        try{
-            sNS = doc.getDocumentElement().getTagName().substring(0, doc.getDocumentElement().getTagName().indexOf(":") + 1);
-        }
-        catch(IndexOutOfBoundsException ignore){
-            // ignore
-        }
-        NodeList matches = doc.getElementsByTagName(sNS + "network");
-
-        if(matches != null){
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Node node = matches.item(i);
-
-                VLAN vlan = toVLAN(node);
-                if( vlan != null ) {
-                    list.add(vlan);
-                }
+        for( NetworkWithLocation network : CallCache.getInstance().getNetworksWithLocation(provider) ) {
+            VLAN vlan = toVLAN(network);
+            if( vlan != null ) {
+                list.add(vlan);
             }
         }
-        Cache<VLAN> cache = Cache.getInstance(getProvider(), "vlans", VLAN.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(3, TimePeriod.MINUTE));
-
-        cache.put(getContext(), list);
         return list;
     }
 
@@ -147,13 +121,14 @@ public class Network extends AbstractVLANSupport {
     public @Nonnull Iterable<VLAN> listVlans() throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VLAN.listVlans");
         try {
-            Cache<VLAN> cache = Cache.getInstance(getProvider(), "vlans", VLAN.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(3, TimePeriod.MINUTE));
-            Iterable<VLAN> vlans = cache.get(getContext());
+            List<VLAN> vlans = CallCache.getInstance().get(provider, CallCache.VLANS, CacheLevel.REGION_ACCOUNT, CalendarWrapper.MINUTE * 5L, CalendarWrapper.MINUTE * 15L, new CallCache.Loader<List<VLAN>>() {
+                public @Nonnull List<VLAN> load() throws CloudException, InternalException {
+                    return fetchVlans();
+                }
+            });
 
-            if( vlans != null ) {
-                return vlans;
-            }
-            return fetchVlans();
+            // callers cast the result to ArrayList and may change it, so each gets its own copy of the cached list
+            return new ArrayList<VLAN>(vlans);
         }
         finally {
             APITrace.end();
@@ -211,6 +186,7 @@ public class Network extends AbstractVLANSupport {
 
             String vlanId = method.getRequestResultId("Creating VLan", method.invoke(), "result", "resultDetail");
             if(vlanId != null){
+                MutationBus.getInstance().publish(provider, MutationBus.Mutation.VLAN_CREATED, vlanId);
                 return this.getVlan(vlanId);
             }else{
                 throw new CloudException("Creating VLan fails without explaination !!!");
@@ -237,12 +213,7 @@ public class Network extends AbstractVLANSupport {
                     provider.buildUrl("delete",true, parameters),
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
             method.parseRequestResult("Removing Vlan",method.invoke(), "result", "resultDetail");
-            try {
-                fetchVlans(); // resets the cache
-            }
-            catch( Throwable ignore ) {
-                // ignore
-            }
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.VLAN_REMOVED, vlanId);
         }
         finally {
             APITrace.end();
@@ -369,6 +340,25 @@ public class Network extends AbstractVLANSupport {
         return network;
     }
     
+    private @Nullable VLAN toVLAN(@Nonnull NetworkWithLocation network) {
+        if( network.getLocation() != null && !network.getLocation().equals(provider.getContext().getRegionId()) ) {
+            return null;
+        }
+        VLAN vlan = new VLAN();
+
+        vlan.setProviderOwnerId(provider.getContext().getAccountNumber());
+        vlan.setCurrentState(VLANState.AVAILABLE);
+        vlan.setProviderRegionId(network.getLocation() == null ? provider.getContext().getRegionId() : network.getLocation());
+        vlan.setProviderDataCenterId(vlan.getProviderRegionId());
+        vlan.setProviderVlanId(network.getId());
+        vlan.setName(network.getName() == null ? network.getId() : network.getName());
+        vlan.setDescription(network.getDescription() == null ? vlan.getName() : network.getDescription());
+        if( network.getGateway() != null ) {
+            vlan.setCidr("255.255.255.0", network.getGateway());
+        }
+        return vlan;
+    }
+
     public VLAN toNetwork(Node node) {
         if( node == null ) {
             return null;
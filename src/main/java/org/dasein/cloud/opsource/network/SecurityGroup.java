@@ -31,6 +31,7 @@ import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.network.*;
+import org.dasein.cloud.opsource.MutationBus;
 import org.dasein.cloud.opsource.OpSource;
 import org.dasein.cloud.opsource.OpSourceMethod;
 import org.dasein.cloud.opsource.Param;
@@ -279,6 +280,7 @@ public class SecurityGroup extends AbstractFirewallSupport {
                 for( int i=0; i<matches.getLength(); i++ ) {
                     Node node = matches.item(i);
                     if(node.getNodeName().equals(sNS + "id") && node.getFirstChild().getNodeValue() != null ){
+                        MutationBus.getInstance().publish(provider, MutationBus.Mutation.FIREWALL_RULE_ADDED, firewallId, node.getFirstChild().getNodeValue());
                         return node.getFirstChild().getNodeValue() + ":" + positionId;
                     }
 
@@ -617,6 +619,7 @@ public class SecurityGroup extends AbstractFirewallSupport {
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
             Document doc = method.invoke();
             method.parseRequestResult("Revoking firewall rule", doc, "result", "resultDetail");
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.FIREWALL_RULE_REMOVED, firewallId, firewallRuleId);
         }
         finally {
             APITrace.end();
@@ -672,6 +675,7 @@ public class SecurityGroup extends AbstractFirewallSupport {
                     provider.buildUrl("delete",true, parameters),
                     provider.getBasicRequestParameters(OpSource.Content_Type_Value_Single_Para, "GET", null));
             method.parseRequestResult("Revoking firewall rule",method.invoke(), "result", "resultDetail");
+            MutationBus.getInstance().publish(provider, MutationBus.Mutation.FIREWALL_RULE_REMOVED, firewallId, ruleId);
         }
         finally {
             APITrace.end();
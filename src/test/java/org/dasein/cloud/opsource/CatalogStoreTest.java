@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.ImageClass;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.MachineImageFormat;
+import org.dasein.cloud.compute.MachineImageState;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Megabyte;
+import org.dasein.util.uom.storage.Storage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CatalogStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CatalogStore newStore() {
+        return new CatalogStore(new File(folder.getRoot(), "catalog.bin"));
+    }
+
+    @Test
+    public void readsNothingWithoutFile() throws IOException {
+        assertTrue(newStore().read().isEmpty());
+    }
+
+    @Test
+    public void roundTripsStringsAndDatacenters() throws IOException {
+        CatalogStore store = newStore();
+        ArrayList<CatalogStore.Record> records = new ArrayList<CatalogStore.Record>();
+        ArrayList<DatacenterLimits> limits = new ArrayList<DatacenterLimits>();
+
+        limits.add(new DatacenterLimits("NA1", "US - East", "US", 8, 65536));
+        limits.add(new DatacenterLimits("EU1", null, null, 4, 32768));
+        records.add(new CatalogStore.Record("orgId-key", CallCache.ORG_ID, 1000L, "org-1"));
+        records.add(new CatalogStore.Record("limits-key", CallCache.DATACENTER_WITH_LIMITS, 2000L, limits));
+        store.write(records);
+
+        List<CatalogStore.Record> read = store.read();
+
+        assertEquals(2, read.size());
+        assertEquals("orgId-key", read.get(0).getKey());
+        assertEquals(CallCache.ORG_ID, read.get(0).getResource());
+        assertEquals(1000L, read.get(0).getCachedAt());
+        assertEquals("org-1", read.get(0).getValue());
+
+        List<?> readLimits = (List<?>)read.get(1).getValue();
+        DatacenterLimits na1 = (DatacenterLimits)readLimits.get(0);
+        DatacenterLimits eu1 = (DatacenterLimits)readLimits.get(1);
+
+        assertEquals(2, readLimits.size());
+        assertEquals("NA1", na1.getLocation());
+        assertEquals("US - East", na1.getDisplayName());
+        assertEquals("US", na1.getCountry());
+        assertEquals(8, na1.getMaxCpu());
+        assertEquals(65536, na1.getMaxRamMb());
+        assertEquals("EU1", eu1.getLocation());
+        assertEquals(null, eu1.getDisplayName());
+    }
+
+    @Test
+    public void roundTripsProducts() throws IOException {
+        CatalogStore store = newStore();
+        ArrayList<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
+        VirtualMachineProduct product = new VirtualMachineProduct();
+
+        product.setProviderProductId("2:4096");
+        product.setName("medium");
+        product.setDescription("2 CPU/4096 MB RAM");
+        product.setCpuCount(2);
+        product.setRamSize(new Storage<Megabyte>(4096, Storage.MEGABYTE));
+        product.setRootVolumeSize(new Storage<Gigabyte>(10, Storage.GIGABYTE));
+        product.setStandardHourlyRate(0.25f);
+        products.add(product);
+
+        ArrayList<CatalogStore.Record> records = new ArrayList<CatalogStore.Record>();
+
+        records.add(new CatalogStore.Record("products-key", CallCache.VM_PRODUCTS, 3000L, products));
+        store.write(records);
+
+        VirtualMachineProduct read = (VirtualMachineProduct)((List<?>)store.read().get(0).getValue()).get(0);
+
+        assertEquals("2:4096", read.getProviderProductId());
+        assertEquals("medium", read.getName());
+        assertEquals("2 CPU/4096 MB RAM", read.getDescription());
+        assertEquals(2, read.getCpuCount());
+        assertEquals(4096, read.getRamSize().intValue());
+        assertEquals(10, read.getRootVolumeSize().intValue());
+        assertEquals(0.25f, read.getStandardHourlyRate(), 0.0f);
+    }
+
+    @Test
+    public void roundTripsWholeImages() throws IOException {
+        CatalogStore store = newStore();
+        MachineImage image = MachineImage.getImageInstance("owner", "NA1", "image-1", ImageClass.MACHINE, MachineImageState.ACTIVE, "CentOS", "CentOS 6 64-bit", Architecture.I64, Platform.CENT_OS, MachineImageFormat.OVF);
+        HashMap<String,String> tags = new HashMap<String,String>();
+
+        image.createdAt(1234567890L);
+        image.constrainedTo("NA1-dc");
+        image.withSoftware("MySQL");
+        tags.put("os", "centos");
+        image.setTags(tags);
+
+        ArrayList<MachineImage> images = new ArrayList<MachineImage>();
+        ArrayList<CatalogStore.Record> records = new ArrayList<CatalogStore.Record>();
+
+        images.add(image);
+        records.add(new CatalogStore.Record("images-key", CallCache.IMAGE_CATALOG, 4000L, images));
+        store.write(records);
+
+        MachineImage read = (MachineImage)((List<?>)store.read().get(0).getValue()).get(0);
+
+        assertEquals("image-1", read.getProviderMachineImageId());
+        assertEquals("CentOS", read.getName());
+        assertEquals("CentOS 6 64-bit", read.getDescription());
+        assertEquals("owner", read.getProviderOwnerId());
+        assertEquals("NA1", read.getProviderRegionId());
+        assertEquals("NA1-dc", read.getProviderDataCenterId());
+        assertEquals("MySQL", read.getSoftware());
+        assertEquals(Platform.CENT_OS, read.getPlatform());
+        assertEquals(Architecture.I64, read.getArchitecture());
+        assertEquals(ImageClass.MACHINE, read.getImageClass());
+        assertEquals(MachineImageState.ACTIVE, read.getCurrentState());
+        assertEquals(MachineImageFormat.OVF, read.getStorageFormat());
+        assertEquals(1234567890L, read.getCreationTimestamp());
+        assertEquals("centos", read.getTags().get("os"));
+    }
+
+    @Test
+    public void skipsUnknownValues() throws IOException {
+        CatalogStore store = newStore();
+        ArrayList<CatalogStore.Record> records = new ArrayList<CatalogStore.Record>();
+
+        records.add(new CatalogStore.Record("number-key", CallCache.ORG_ID, 1000L, Integer.valueOf(42)));
+        records.add(new CatalogStore.Record("empty-key", CallCache.IMAGE_CATALOG, 1000L, new ArrayList<MachineImage>()));
+        records.add(new CatalogStore.Record("orgId-key", CallCache.ORG_ID, 1000L, "org-1"));
+        store.write(records);
+
+        List<CatalogStore.Record> read = store.read();
+
+        assertEquals(1, read.size());
+        assertEquals("orgId-key", read.get(0).getKey());
+    }
+
+    @Test
+    public void ignoresOtherVersions() throws IOException {
+        CatalogStore store = newStore();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(store.getFile()));
+
+        try {
+            out.writeInt(0x4F505343);
+            out.writeInt(1);
+            out.writeInt(5);
+        }
+        finally {
+            out.close();
+        }
+        assertTrue(store.read().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        CatalogStore store = newStore();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(store.getFile()));
+
+        try {
+            out.writeInt(0x12345678);
+            out.writeInt(2);
+        }
+        finally {
+            out.close();
+        }
+        store.read();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        CatalogStore store = newStore();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(store.getFile()));
+
+        try {
+            out.writeInt(0x4F505343);
+            out.writeInt(2);
+            out.writeInt(1);
+            out.writeInt(100);
+        }
+        finally {
+            out.close();
+        }
+        store.read();
+    }
+}
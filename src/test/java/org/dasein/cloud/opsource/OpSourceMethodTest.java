@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reading the ID of a created resource from a request's status envelope by
+ * {@link OpSourceMethod#findRequestResultId}.
+ */
+public class OpSourceMethodTest {
+    static private final String SERVER_ID = "0c3f7a52-88b1-11e2-b7c8-0030487e0302";
+
+    static private Document status(String result, String detail, String additionalInformation) throws Exception {
+        String xml = "<ns6:Status xmlns:ns6=\"http://oec.api.opsource.net/schemas/general\">" +
+                "<ns6:operation>Deploy Server</ns6:operation>" +
+                "<ns6:result>" + result + "</ns6:result>" +
+                "<ns6:resultDetail>" + detail + "</ns6:resultDetail>" +
+                "<ns6:resultCode>REASON_0</ns6:resultCode>" +
+                additionalInformation +
+                "</ns6:Status>";
+
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    static private String find(Document doc) throws Exception {
+        OpSourceMethod method = new OpSourceMethod(new OpSource(), null, null);
+
+        return method.findRequestResultId("Deploying server", doc, "result", "resultDetail", "serverId");
+    }
+
+    @Test
+    public void readsIdFromAdditionalInformation() throws Exception {
+        String info = "<ns6:additionalInformation name=\"serverId\"><ns6:value>" + SERVER_ID + "</ns6:value></ns6:additionalInformation>";
+
+        assertEquals(SERVER_ID, find(status("SUCCESS", "Server \"Deploy\" issued", info)));
+    }
+
+    @Test
+    public void prefersAdditionalInformationOverDetail() throws Exception {
+        String info = "<ns6:additionalInformation name=\"serverId\"><ns6:value>" + SERVER_ID + "</ns6:value></ns6:additionalInformation>";
+
+        assertEquals(SERVER_ID, find(status("SUCCESS", "Server \"Deploy\" issued (id:1234-abcd)", info)));
+    }
+
+    @Test
+    public void readsIdFromDetail() throws Exception {
+        assertEquals(SERVER_ID, find(status("SUCCESS", "Server \"Deploy\" issued - Server id:" + SERVER_ID, "")));
+        assertEquals(SERVER_ID, find(status("SUCCESS", "Server \"Deploy\" issued (ID: " + SERVER_ID + ")", "")));
+    }
+
+    @Test
+    public void ignoresOtherAdditionalInformation() throws Exception {
+        String info = "<ns6:additionalInformation name=\"imageId\"><ns6:value>" + SERVER_ID + "</ns6:value></ns6:additionalInformation>";
+
+        assertNull(find(status("SUCCESS", "Server \"Deploy\" issued", info)));
+    }
+
+    @Test
+    public void findsNothingInDetailWithoutId() throws Exception {
+        assertNull(find(status("SUCCESS", "Server \"Deploy\" issued", "")));
+    }
+
+    @Test
+    public void ignoresTextThatOnlyLooksLikeId() throws Exception {
+        assertNull(find(status("SUCCESS", "Server \"Deploy\" issued with guid:" + SERVER_ID, "")));
+        assertNull(find(status("SUCCESS", "Server \"Deploy\" issued, see network id: none", "")));
+    }
+
+    @Test(expected = CloudException.class)
+    public void failsOnErrorResult() throws Exception {
+        find(status("ERROR", "Image not found", ""));
+    }
+}
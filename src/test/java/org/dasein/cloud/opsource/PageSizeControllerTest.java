@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PageSizeControllerTest {
+    static private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Controllers are shared by name, so every test gets its own.
+     */
+    static private PageSizeController newController() {
+        return PageSizeController.getInstance("test" + count.incrementAndGet());
+    }
+
+    @Test
+    public void startsAtMaximumWithDefaults() {
+        PageSizeController controller = newController();
+
+        assertEquals(250, controller.getMaximumPageSize());
+        assertEquals(25, controller.getMinimumPageSize());
+        assertEquals(250, controller.nextPageSize());
+    }
+
+    @Test
+    public void neverGrowsBeyondMaximum() {
+        PageSizeController controller = newController();
+
+        controller.record(250, 250, 25L, 1000L, true);
+        assertEquals(250, controller.nextPageSize());
+        assertEquals(0L, controller.getIncreaseCount());
+    }
+
+    @Test
+    public void halvesOnErrorsDownToMinimum() {
+        PageSizeController controller = newController();
+
+        controller.record(250, 0, 100L, -1L, false);
+        assertEquals(125, controller.nextPageSize());
+        controller.record(125, 0, 100L, -1L, false);
+        assertEquals(62, controller.nextPageSize());
+        for( int i = 0; i < 5; i++ ) {
+            controller.record(62, 0, 100L, -1L, false);
+            controller.nextPageSize();
+        }
+        assertEquals(25, controller.getPageSize());
+        assertEquals(7L, controller.getFailureCount());
+    }
+
+    @Test
+    public void shrinksForSlowPagesAtMostByHalf() {
+        PageSizeController controller = newController();
+
+        // 100ms per item fits 50 items in the 5 second target, but a step is at most half
+        controller.record(250, 250, 25000L, -1L, true);
+        assertEquals(125, controller.nextPageSize());
+        assertEquals(1L, controller.getDecreaseCount());
+    }
+
+    @Test
+    public void shrinksForLargeResponses() {
+        PageSizeController controller = newController();
+
+        // 20000 bytes per item fits 200 items in 4000000 bytes
+        controller.record(250, 250, 250L, 5000000L, true);
+        assertEquals(200, controller.nextPageSize());
+    }
+
+    @Test
+    public void growsBackAfterFullFastPages() {
+        PageSizeController controller = newController();
+
+        controller.record(250, 0, 100L, -1L, false);
+        assertEquals(125, controller.nextPageSize());
+        // the error rate has to decay below the limit before the size grows again
+        for( int i = 0; i < 10; i++ ) {
+            controller.record(125, 125, 125L, -1L, true);
+        }
+        assertEquals(250, controller.nextPageSize());
+        assertEquals(1L, controller.getIncreaseCount());
+    }
+
+    @Test
+    public void ignoresShortPages() {
+        PageSizeController controller = newController();
+
+        controller.record(250, 10, 60000L, 5000000L, true);
+        assertEquals(0.0, controller.getMillisPerItem(), 0.0);
+        assertEquals(250, controller.nextPageSize());
+    }
+
+    @Test
+    public void ignoresSmallChanges() {
+        PageSizeController controller = newController();
+
+        controller.record(250, 0, 100L, -1L, false);
+        assertEquals(125, controller.nextPageSize());
+        for( int i = 0; i < 10; i++ ) {
+            // fits 131 items, within a tenth of the current size
+            controller.record(125, 125, 4750L, -1L, true);
+        }
+        assertEquals(125, controller.nextPageSize());
+    }
+
+    @Test
+    public void resetRestoresInitialSize() {
+        PageSizeController controller = newController();
+
+        controller.record(250, 0, 100L, -1L, false);
+        assertEquals(125, controller.nextPageSize());
+        controller.reset();
+        assertEquals(250, controller.getPageSize());
+        assertEquals(0L, controller.getPageCount());
+        assertEquals(0.0, controller.getErrorRate(), 0.0);
+    }
+}
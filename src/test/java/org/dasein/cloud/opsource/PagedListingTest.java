@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.util.Jiterator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PagedListingTest {
+    static private final int PAGE_SIZE = 5;
+
+    /**
+     * Serves a list of numbers in pages, optionally without totals, and lets a test change the list between fetches.
+     */
+    static private class FakeSource implements PagedListing.PageSource<Integer> {
+        private final List<Integer> items = Collections.synchronizedList(new ArrayList<Integer>());
+        private final boolean reportsTotal;
+        private final AtomicInteger fetches = new AtomicInteger();
+        private int growAfterFirst = 0;
+        private int failPage = -1;
+
+        FakeSource(int count, boolean reportsTotal) {
+            for( int i = 0; i < count; i++ ) {
+                items.add(i);
+            }
+            this.reportsTotal = reportsTotal;
+        }
+
+        public PagedListing.Page<Integer> fetch(int pageNumber) throws CloudException, InternalException {
+            if( fetches.incrementAndGet() == 2 ) {
+                // items created after the first page was read
+                for( int i = 0; i < growAfterFirst; i++ ) {
+                    items.add(items.size());
+                }
+            }
+            if( pageNumber == failPage ) {
+                throw new CloudException("Page " + pageNumber + " failed");
+            }
+            try {
+                // later pages come back sooner, so pages finish out of order
+                Thread.sleep(Math.max(0, 20 - pageNumber * 5));
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            ArrayList<Integer> page = new ArrayList<Integer>();
+
+            synchronized( items ) {
+                int from = Math.min(items.size(), (pageNumber - 1) * PAGE_SIZE);
+                int to = Math.min(items.size(), pageNumber * PAGE_SIZE);
+
+                page.addAll(items.subList(from, to));
+                return new PagedListing.Page<Integer>(page, page.size(), reportsTotal ? items.size() : -1);
+            }
+        }
+    }
+
+    static private List<Integer> list(FakeSource source, boolean ordered) throws CloudException, InternalException {
+        Jiterator<Integer> iterator = new Jiterator<Integer>();
+
+        new PagedListing<Integer>(new OpSource(), source, PAGE_SIZE, ordered).populate(iterator);
+        iterator.complete();
+
+        ArrayList<Integer> result = new ArrayList<Integer>();
+
+        for( Integer item : iterator ) {
+            result.add(item);
+        }
+        return result;
+    }
+
+    static private List<Integer> range(int count) {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+
+        for( int i = 0; i < count; i++ ) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    static private List<Integer> sorted(List<Integer> list) {
+        ArrayList<Integer> copy = new ArrayList<Integer>(list);
+
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void readsInPageOrder() throws Exception {
+        assertEquals(range(23), list(new FakeSource(23, true), true));
+    }
+
+    @Test
+    public void readsAsCompleted() throws Exception {
+        assertEquals(range(23), sorted(list(new FakeSource(23, true), false)));
+    }
+
+    @Test
+    public void readsSinglePage() throws Exception {
+        FakeSource source = new FakeSource(3, true);
+
+        assertEquals(range(3), list(source, true));
+        assertEquals(1, source.fetches.get());
+    }
+
+    @Test
+    public void readsUntilShortPageWithoutTotal() throws Exception {
+        FakeSource source = new FakeSource(15, false);
+
+        assertEquals(range(15), list(source, true));
+        // the fourth page is the empty one that ends the listing
+        assertEquals(4, source.fetches.get());
+    }
+
+    @Test
+    public void readsItemsAddedWhileListingInOrder() throws Exception {
+        FakeSource source = new FakeSource(10, true);
+
+        source.growAfterFirst = 1;
+        assertEquals(range(11), list(source, true));
+    }
+
+    @Test
+    public void readsItemsAddedWhileListingAsCompleted() throws Exception {
+        FakeSource source = new FakeSource(20, true);
+
+        source.growAfterFirst = 7;
+        assertEquals(range(27), sorted(list(source, false)));
+    }
+
+    @Test
+    public void readsItemsAddedToSingleFullPage() throws Exception {
+        FakeSource source = new FakeSource(5, true);
+
+        source.growAfterFirst = 2;
+        assertEquals(range(7), list(source, true));
+    }
+
+    @Test
+    public void throwsFailedPage() throws Exception {
+        FakeSource source = new FakeSource(23, true);
+
+        source.failPage = 3;
+        try {
+            list(source, false);
+            fail("The failure of page 3 was not thrown");
+        }
+        catch( CloudException e ) {
+            assertEquals("Page 3 failed", e.getMessage());
+        }
+    }
+}
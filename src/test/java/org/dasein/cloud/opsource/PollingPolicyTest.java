@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PollingPolicyTest {
+    @After
+    public void clearProperties() {
+        System.clearProperty(PollingPolicy.PROPERTY_PREFIX + "start.initial");
+        System.clearProperty(PollingPolicy.PROPERTY_PREFIX + "start.max");
+    }
+
+    @Test
+    public void growsByMultiplierUpToMaximum() {
+        PollingPolicy policy = new PollingPolicy(1000L, 5000L, 2.0, 0.0);
+
+        assertEquals(1000L, policy.getDelay(0));
+        assertEquals(2000L, policy.getDelay(1));
+        assertEquals(4000L, policy.getDelay(2));
+        assertEquals(5000L, policy.getDelay(3));
+        assertEquals(5000L, policy.getDelay(100));
+    }
+
+    @Test
+    public void treatsNegativeAttemptAsFirst() {
+        PollingPolicy policy = new PollingPolicy(1000L, 5000L, 2.0, 0.0);
+
+        assertEquals(1000L, policy.getDelay(-3));
+    }
+
+    @Test
+    public void clampsConstructorArguments() {
+        PollingPolicy policy = new PollingPolicy(0L, -1L, 0.5, 0.0);
+
+        assertEquals(1L, policy.getInitialMillis());
+        assertEquals(1L, policy.getMaximumMillis());
+        // a multiplier below 1 would shrink the waits
+        assertEquals(1L, policy.getDelay(10));
+    }
+
+    @Test
+    public void keepsJitterWithinBounds() {
+        PollingPolicy policy = new PollingPolicy(1000L, 1000L, 2.0, 0.2);
+        boolean varied = false;
+
+        for( int i = 0; i < 1000; i++ ) {
+            long delay = policy.getDelay(i % 5);
+
+            assertTrue("delay " + delay + " out of bounds", delay >= 800L && delay <= 1200L);
+            if( delay != 1000L ) {
+                varied = true;
+            }
+        }
+        assertTrue(varied);
+    }
+
+    @Test
+    public void derivesDefaultsFromExpectedDuration() {
+        PollingPolicy policy = PollingPolicy.getInstance(PollingPolicy.Operation.DEPLOY);
+
+        // a twentieth and a half of six minutes, the latter capped at a minute
+        assertEquals(18000L, policy.getInitialMillis());
+        assertEquals(60000L, policy.getMaximumMillis());
+
+        policy = PollingPolicy.getInstance(PollingPolicy.Operation.START);
+        // a twentieth and a half of a minute
+        assertEquals(3000L, policy.getInitialMillis());
+        assertEquals(30000L, policy.getMaximumMillis());
+    }
+
+    @Test
+    public void readsOverridesFromSystemProperties() {
+        System.setProperty(PollingPolicy.PROPERTY_PREFIX + "start.initial", "500");
+        System.setProperty(PollingPolicy.PROPERTY_PREFIX + "start.max", "100");
+
+        PollingPolicy policy = PollingPolicy.getInstance(PollingPolicy.Operation.START);
+
+        assertEquals(500L, policy.getInitialMillis());
+        // the maximum is never below the first wait
+        assertEquals(500L, policy.getMaximumMillis());
+    }
+}
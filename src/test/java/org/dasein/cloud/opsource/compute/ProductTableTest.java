@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource.compute;
+
+import java.util.ArrayList;
+
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.dasein.util.uom.storage.Megabyte;
+import org.dasein.util.uom.storage.Storage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ProductTableTest {
+    static private VirtualMachineProduct product(int cpuCount, Integer ramInMb, String name) {
+        VirtualMachineProduct product = new VirtualMachineProduct();
+
+        product.setProviderProductId(cpuCount + ":" + ramInMb);
+        product.setName(name);
+        product.setCpuCount(cpuCount);
+        if( ramInMb != null ) {
+            product.setRamSize(new Storage<Megabyte>(ramInMb, Storage.MEGABYTE));
+        }
+        return product;
+    }
+
+    @Test
+    public void keepsFirstProductOfEachShape() {
+        ArrayList<VirtualMachineProduct> candidates = new ArrayList<VirtualMachineProduct>();
+        VirtualMachineProduct first = product(2, 2048, "first");
+
+        candidates.add(product(1, 1024, "small"));
+        candidates.add(first);
+        candidates.add(product(2, 2048, "duplicate"));
+        candidates.add(product(4, 4096, "large"));
+
+        ProductTable table = new ProductTable(candidates);
+
+        assertEquals(3, table.size());
+        assertEquals("small", table.get(0).getName());
+        assertSame(first, table.get(1));
+        assertEquals("large", table.get(2).getName());
+    }
+
+    @Test
+    public void skipsProductsWithoutRam() {
+        ArrayList<VirtualMachineProduct> candidates = new ArrayList<VirtualMachineProduct>();
+
+        candidates.add(product(1, null, "unknown"));
+        candidates.add(product(1, 1024, "small"));
+
+        ProductTable table = new ProductTable(candidates);
+
+        assertEquals(1, table.size());
+        assertEquals("small", table.get(0).getName());
+    }
+
+    @Test
+    public void looksUpByShapeAndId() {
+        ArrayList<VirtualMachineProduct> candidates = new ArrayList<VirtualMachineProduct>();
+        VirtualMachineProduct medium = product(2, 4096, "medium");
+
+        candidates.add(product(1, 1024, "small"));
+        candidates.add(medium);
+
+        ProductTable table = new ProductTable(candidates);
+
+        assertSame(medium, table.getProduct(2, 4096));
+        assertSame(medium, table.getProduct("2:4096"));
+        assertSame(medium, table.getProduct("2:4096:100"));
+        assertSame(medium, table.getProduct(" 2 : 4096 "));
+        assertNull(table.getProduct(2, 2048));
+        assertNull(table.getProduct("2"));
+        assertNull(table.getProduct("two:4096"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void isImmutable() {
+        ArrayList<VirtualMachineProduct> candidates = new ArrayList<VirtualMachineProduct>();
+
+        candidates.add(product(1, 1024, "small"));
+        new ProductTable(candidates).add(product(2, 2048, "medium"));
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource.compute;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ServerFilterTest {
+    static private VirtualMachine vm(String id, String name, String vlanId, String regionId, String imageId, VmState state) {
+        VirtualMachine vm = new VirtualMachine();
+
+        vm.setProviderVirtualMachineId(id);
+        vm.setName(name);
+        vm.setProviderVlanId(vlanId);
+        vm.setProviderRegionId(regionId);
+        vm.setProviderMachineImageId(imageId);
+        vm.setCurrentState(state);
+        return vm;
+    }
+
+    static private ServerRecord server(String id, String name, String vlanId, String regionId, String imageId, VmState state) {
+        ServerRecord server = new ServerRecord();
+
+        server.setProviderVirtualMachineId(id);
+        server.setName(name);
+        server.setProviderVlanId(vlanId);
+        server.setProviderRegionId(regionId);
+        server.setProviderMachineImageId(imageId);
+        server.setCurrentState(state);
+        return server;
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty(ServerFilter.MULTI_ID_PROPERTY);
+    }
+
+    @Test
+    public void sendsNothingWithoutCriteria() throws InternalException {
+        assertEquals("", ServerFilter.getInstance().toQuery());
+    }
+
+    @Test
+    public void encodesQueryParameters() throws InternalException {
+        ServerFilter filter = ServerFilter.getInstance().withName("web 1&2").inNetwork("vlan-1").fromImage("image-1").inLocation("NA1").inState(VmState.RUNNING);
+
+        // location is left to the caller, state is only matched locally
+        assertEquals("&name=web+1%262&networkId=vlan-1&sourceImageId=image-1", filter.toQuery());
+    }
+
+    @Test
+    public void sendsIdsOnlyWhenSupported() throws InternalException {
+        ServerFilter filter = ServerFilter.getInstance().withIds(Arrays.asList("server-1"));
+
+        assertEquals("", filter.toQuery());
+        System.setProperty(ServerFilter.MULTI_ID_PROPERTY, "true");
+        assertEquals("&id=server-1", filter.toQuery());
+    }
+
+    @Test
+    public void matchesIdsLocallyWhenTooMany() throws InternalException {
+        String[] ids = new String[ServerFilter.MAXIMUM_QUERY_IDS + 1];
+
+        for( int i = 0; i < ids.length; i++ ) {
+            ids[i] = "server-" + i;
+        }
+        System.setProperty(ServerFilter.MULTI_ID_PROPERTY, "true");
+
+        ServerFilter filter = ServerFilter.getInstance().withIds(Arrays.asList(ids));
+
+        assertEquals("", filter.toQuery());
+        assertTrue(filter.matches(vm("server-0", "web", "vlan-1", "NA1", "image-1", VmState.RUNNING)));
+        assertFalse(filter.matches(vm("server-x", "web", "vlan-1", "NA1", "image-1", VmState.RUNNING)));
+    }
+
+    @Test
+    public void matchesEveryCriterion() {
+        ServerFilter filter = ServerFilter.getInstance().withName("web").inNetwork("vlan-1").inLocation("NA1").fromImage("image-1").inState(VmState.RUNNING, VmState.PENDING);
+
+        assertTrue(filter.matches(vm("server-1", "web", "vlan-1", "NA1", "image-1", VmState.RUNNING)));
+        assertTrue(filter.matches(vm("server-1", "web", "vlan-1", "NA1", "image-1", VmState.PENDING)));
+        assertFalse(filter.matches(vm("server-1", "db", "vlan-1", "NA1", "image-1", VmState.RUNNING)));
+        assertFalse(filter.matches(vm("server-1", "web", "vlan-2", "NA1", "image-1", VmState.RUNNING)));
+        assertFalse(filter.matches(vm("server-1", "web", "vlan-1", "EU1", "image-1", VmState.RUNNING)));
+        assertFalse(filter.matches(vm("server-1", "web", "vlan-1", "NA1", "image-2", VmState.RUNNING)));
+        assertFalse(filter.matches(vm("server-1", "web", "vlan-1", "NA1", "image-1", VmState.STOPPED)));
+        assertFalse(filter.matches((VirtualMachine)null));
+    }
+
+    @Test
+    public void matchesEverythingWithoutCriteria() {
+        ServerFilter filter = ServerFilter.getInstance().inState();
+
+        assertTrue(filter.matches(vm("server-1", "web", "vlan-1", "NA1", "image-1", VmState.STOPPED)));
+    }
+
+    @Test
+    public void matchesServerRecordsLikeVirtualMachines() {
+        ServerFilter filter = ServerFilter.getInstance().withName("web").inNetwork("vlan-1").inState(VmState.RUNNING);
+
+        assertTrue(filter.matches(server("server-1", "web", "vlan-1", "NA1", "image-1", VmState.RUNNING)));
+        assertFalse(filter.matches(server("server-1", "web", "vlan-2", "NA1", "image-1", VmState.RUNNING)));
+        assertFalse(filter.matches(server("server-1", "web", "vlan-1", "NA1", "image-1", VmState.STOPPED)));
+    }
+
+    @Test
+    public void requiresOnlyFieldsItMatches() {
+        assertEquals(EnumSet.noneOf(ServerField.class), ServerFilter.getInstance().inLocation("NA1").getRequiredFields());
+        assertEquals(EnumSet.of(ServerField.NAME, ServerField.STATE), ServerFilter.getInstance().withName("web").inState(VmState.RUNNING).getRequiredFields());
+    }
+}
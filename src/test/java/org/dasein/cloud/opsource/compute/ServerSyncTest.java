@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource.compute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.opsource.MutationBus;
+import org.dasein.cloud.opsource.OpSource;
+import org.dasein.cloud.opsource.PagedListing;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Incremental syncs by {@link ServerSync} against a fake region listed newest first: where paging stops, servers
+ * created at the same time as the newest known one, and the recheck of pending and locally changed servers.
+ */
+public class ServerSyncTest {
+    static private final int PAGE_SIZE = 3;
+
+    /**
+     * Serves a changeable set of servers, newest first in pages of {@link #PAGE_SIZE}, and records the lookups.
+     */
+    static private class FakeRegion extends VirtualMachines {
+        private final LinkedHashMap<String, VirtualMachine> servers = new LinkedHashMap<String, VirtualMachine>();
+        private final List<String> lookups = new ArrayList<String>();
+
+        FakeRegion(OpSource provider) {
+            super(provider);
+        }
+
+        /**
+         * Adds the server, or replaces it with a new copy so views holding the old one can tell the difference.
+         */
+        VirtualMachine add(String id, long created, String serverState) {
+            VirtualMachine vm = new VirtualMachine();
+
+            vm.setProviderVirtualMachineId(id);
+            vm.setName(id);
+            vm.setCreationTimestamp(created);
+            vm.setCurrentState("NORMAL".equals(serverState) ? VmState.RUNNING : VmState.PENDING);
+            vm.setTag("serverState", serverState);
+            servers.put(id, vm);
+            return vm;
+        }
+
+        @Override
+        public @Nonnull Iterable<VirtualMachine> listVirtualMachines() {
+            return new ArrayList<VirtualMachine>(servers.values());
+        }
+
+        @Override
+        int nextPageSize() {
+            return PAGE_SIZE;
+        }
+
+        @Override
+        @Nonnull PagedListing.Page<VirtualMachine> fetchNewestPage(int pageNumber, int pageSize) {
+            ArrayList<VirtualMachine> newest = new ArrayList<VirtualMachine>(servers.values());
+
+            // stable, so servers created at the same time keep the order they were added in
+            Collections.sort(newest, new Comparator<VirtualMachine>() {
+                public int compare(VirtualMachine a, VirtualMachine b) {
+                    return (a.getCreationTimestamp() > b.getCreationTimestamp() ? -1 : (a.getCreationTimestamp() < b.getCreationTimestamp() ? 1 : 0));
+                }
+            });
+            int from = Math.min(newest.size(), (pageNumber - 1) * pageSize);
+            int to = Math.min(newest.size(), pageNumber * pageSize);
+            List<VirtualMachine> page = new ArrayList<VirtualMachine>(newest.subList(from, to));
+
+            return new PagedListing.Page<VirtualMachine>(page, page.size(), newest.size());
+        }
+
+        @Override
+        public @Nonnull Map<String, VirtualMachine> getVirtualMachines(@Nonnull Collection<String> serverIds) {
+            HashMap<String, VirtualMachine> found = new HashMap<String, VirtualMachine>();
+
+            for( String id : serverIds ) {
+                lookups.add(id);
+                if( servers.containsKey(id) ) {
+                    found.put(id, servers.get(id));
+                }
+            }
+            return found;
+        }
+    }
+
+    static private List<String> ids(Collection<VirtualMachine> servers) {
+        ArrayList<String> ids = new ArrayList<String>();
+
+        for( VirtualMachine vm : servers ) {
+            ids.add(vm.getProviderVirtualMachineId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private OpSource provider;
+    private FakeRegion region;
+    private ServerSync sync;
+
+    @Before
+    public void connect() throws Exception {
+        ProviderContext ctx = new ProviderContext(UUID.randomUUID().toString(), "NA1");
+
+        ctx.setEndpoint("https://api.opsource.invalid");
+        provider = new OpSource();
+        provider.connect(ctx);
+        region = new FakeRegion(provider);
+        for( int i = 1; i <= 10; i++ ) {
+            region.add("server-" + i, i * 1000L, "NORMAL");
+        }
+        sync = new ServerSync(region, ctx);
+    }
+
+    @After
+    public void close() {
+        sync.close();
+        provider.close();
+    }
+
+    @Test
+    public void listsEverythingFirst() throws Exception {
+        ServerSync.Delta delta = sync.sync();
+
+        assertTrue(delta.isFull());
+        assertEquals(10, delta.getAdded().size());
+        assertEquals(10, sync.getServers().size());
+    }
+
+    @Test
+    public void stopsAtFirstServerOlderThanMark() throws Exception {
+        sync.sync();
+        ServerSync.Delta delta = sync.sync();
+
+        assertFalse(delta.isFull());
+        assertTrue(delta.isEmpty());
+        assertEquals(1, delta.getPageCount());
+        assertTrue(region.lookups.isEmpty());
+    }
+
+    @Test
+    public void readsPagesUntilKnownServers() throws Exception {
+        sync.sync();
+        for( int i = 11; i <= 15; i++ ) {
+            region.add("server-" + i, i * 1000L, "NORMAL");
+        }
+        ServerSync.Delta delta = sync.sync();
+
+        assertEquals(15, sync.getServers().size());
+        assertEquals(5, delta.getAdded().size());
+        // 15-13, 12-10 and, since the old mark may be followed by more servers created with it, 9 to stop at
+        assertEquals(3, delta.getPageCount());
+        assertTrue(sync.sync().isEmpty());
+    }
+
+    @Test
+    public void findsNewServersCreatedAtMark() throws Exception {
+        sync.sync();
+        region.add("twin-1", 10000L, "NORMAL");
+        ServerSync.Delta delta = sync.sync();
+
+        assertEquals(Collections.singletonList("twin-1"), ids(delta.getAdded()));
+        assertTrue(delta.getChanged().isEmpty());
+        // both servers at the mark are known now
+        region.add("twin-2", 10000L, "NORMAL");
+        delta = sync.sync();
+        assertEquals(Collections.singletonList("twin-2"), ids(delta.getAdded()));
+        assertTrue(sync.sync().isEmpty());
+    }
+
+    @Test
+    public void rechecksPendingServers() throws Exception {
+        region.add("deploying", 500L, "PENDING_ADD");
+        sync.sync();
+        region.add("deploying", 500L, "NORMAL");
+        ServerSync.Delta delta = sync.sync();
+
+        assertEquals(Collections.singletonList("deploying"), region.lookups);
+        assertEquals(Collections.singletonList("deploying"), ids(delta.getChanged()));
+        // no longer pending, so not looked up again
+        region.lookups.clear();
+        assertTrue(sync.sync().isEmpty());
+        assertTrue(region.lookups.isEmpty());
+    }
+
+    @Test
+    public void removesPendingServersThatAreGone() throws Exception {
+        region.add("deleting", 500L, "PENDING_DELETE");
+        sync.sync();
+        region.servers.remove("deleting");
+        ServerSync.Delta delta = sync.sync();
+
+        assertEquals(Collections.singletonList("deleting"), delta.getRemoved());
+        assertEquals(10, sync.getServers().size());
+    }
+
+    @Test
+    public void rechecksServersChangedLocally() throws Exception {
+        sync.sync();
+        region.add("server-2", 2000L, "NORMAL").setName("renamed");
+        // a change made from outside this JVM goes unnoticed until the next full listing
+        assertTrue(sync.sync().isEmpty());
+        MutationBus.getInstance().publish(provider, MutationBus.Mutation.SERVER_CHANGED, "server-2");
+        ServerSync.Delta delta = sync.sync();
+
+        assertEquals(Collections.singletonList("server-2"), region.lookups);
+        assertEquals(Collections.singletonList("server-2"), ids(delta.getChanged()));
+    }
+}
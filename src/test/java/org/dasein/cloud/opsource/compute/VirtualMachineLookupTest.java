@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource.compute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.opsource.CallCache;
+import org.dasein.cloud.opsource.OpSource;
+import org.dasein.cloud.util.CacheLevel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Choice of strategy by {@link VirtualMachines#getVirtualMachines(java.util.Collection)}: the fleet snapshot, one
+ * listing for a large share of the fleet, multi-ID queries, or single lookups.
+ */
+public class VirtualMachineLookupTest {
+    /**
+     * Answers listings and single lookups from a fixed set of servers and records each call.
+     */
+    static private class FakeServers extends VirtualMachines {
+        private final LinkedHashMap<String, VirtualMachine> servers = new LinkedHashMap<String, VirtualMachine>();
+        private final List<ServerFilter> listings = Collections.synchronizedList(new ArrayList<ServerFilter>());
+        private final List<String> lookups = Collections.synchronizedList(new ArrayList<String>());
+
+        FakeServers(OpSource provider, int count) {
+            super(provider);
+            for( int i = 0; i < count; i++ ) {
+                VirtualMachine vm = server("server-" + i);
+
+                servers.put(vm.getProviderVirtualMachineId(), vm);
+            }
+        }
+
+        @Override
+        public @Nonnull Iterable<VirtualMachine> listVirtualMachines(@Nullable ServerFilter filter, boolean withOrdering) {
+            ArrayList<VirtualMachine> matches = new ArrayList<VirtualMachine>();
+
+            listings.add(filter);
+            for( VirtualMachine vm : servers.values() ) {
+                if( filter == null || filter.matches(vm) ) {
+                    matches.add(vm);
+                }
+            }
+            return matches;
+        }
+
+        @Override
+        public VirtualMachine getVirtualMachine(@Nonnull String serverId) {
+            lookups.add(serverId);
+            return servers.get(serverId);
+        }
+
+        List<String> ids(int from, int to) {
+            return new ArrayList<String>(servers.keySet()).subList(from, to);
+        }
+    }
+
+    static private VirtualMachine server(String id) {
+        VirtualMachine vm = new VirtualMachine();
+
+        vm.setProviderVirtualMachineId(id);
+        vm.setName(id);
+        vm.setCurrentState(VmState.RUNNING);
+        return vm;
+    }
+
+    static private int countQueryIds(ServerFilter filter) throws InternalException {
+        String query = filter.toQuery();
+        int count = 0;
+
+        for( int i = query.indexOf("&id="); i >= 0; i = query.indexOf("&id=", i + 1) ) {
+            count++;
+        }
+        return count;
+    }
+
+    private OpSource provider;
+
+    @Before
+    public void connect() {
+        // an account of its own, so cached fleet sizes and snapshots do not carry over between tests
+        ProviderContext ctx = new ProviderContext(UUID.randomUUID().toString(), "NA1");
+
+        ctx.setEndpoint("https://api.opsource.invalid");
+        provider = new OpSource();
+        provider.connect(ctx);
+    }
+
+    @After
+    public void reset() {
+        System.clearProperty(FleetSnapshot.MAXIMUM_STALENESS_PROPERTY);
+        System.clearProperty(ServerFilter.MULTI_ID_PROPERTY);
+        provider.close();
+    }
+
+    private void setFleetSize(int count) {
+        CallCache.getInstance().put(provider, CallCache.SERVER_COUNT, CacheLevel.REGION_ACCOUNT, count);
+    }
+
+    @Test
+    public void looksUpFewServersOneByOne() throws Exception {
+        FakeServers fake = new FakeServers(provider, 20);
+        List<String> wanted = fake.ids(0, 3);
+        Map<String, VirtualMachine> found = fake.getVirtualMachines(wanted);
+
+        assertEquals(wanted.size(), found.size());
+        assertTrue(found.keySet().containsAll(wanted));
+        assertEquals(0, fake.listings.size());
+        assertEquals(wanted.size(), fake.lookups.size());
+    }
+
+    @Test
+    public void listsOnceForQuarterOfKnownFleet() throws Exception {
+        FakeServers fake = new FakeServers(provider, 20);
+
+        setFleetSize(20);
+        Map<String, VirtualMachine> found = fake.getVirtualMachines(fake.ids(0, 5));
+
+        assertEquals(5, found.size());
+        assertEquals(1, fake.listings.size());
+        assertEquals(0, fake.lookups.size());
+    }
+
+    @Test
+    public void looksUpOneByOneBelowQuarterOfKnownFleet() throws Exception {
+        FakeServers fake = new FakeServers(provider, 20);
+
+        setFleetSize(20);
+        Map<String, VirtualMachine> found = fake.getVirtualMachines(fake.ids(0, 4));
+
+        assertEquals(4, found.size());
+        assertEquals(0, fake.listings.size());
+        assertEquals(4, fake.lookups.size());
+    }
+
+    @Test
+    public void listsOnceForManyIdsWithoutFleetSize() throws Exception {
+        FakeServers fake = new FakeServers(provider, 300);
+        Map<String, VirtualMachine> found = fake.getVirtualMachines(fake.ids(0, 250));
+
+        assertEquals(250, found.size());
+        assertEquals(1, fake.listings.size());
+        assertEquals(0, fake.lookups.size());
+    }
+
+    @Test
+    public void looksUpOneByOneBelowThresholdWithoutFleetSize() throws Exception {
+        FakeServers fake = new FakeServers(provider, 300);
+        Map<String, VirtualMachine> found = fake.getVirtualMachines(fake.ids(0, 249));
+
+        assertEquals(249, found.size());
+        assertEquals(0, fake.listings.size());
+        assertEquals(249, fake.lookups.size());
+    }
+
+    @Test
+    public void queriesIdsInChunksWhenSupported() throws Exception {
+        FakeServers fake = new FakeServers(provider, 300);
+
+        System.setProperty(ServerFilter.MULTI_ID_PROPERTY, "true");
+        Map<String, VirtualMachine> found = fake.getVirtualMachines(fake.ids(0, 120));
+
+        assertEquals(120, found.size());
+        assertEquals(0, fake.lookups.size());
+        assertEquals(3, fake.listings.size());
+        assertEquals(ServerFilter.MAXIMUM_QUERY_IDS, countQueryIds(fake.listings.get(0)));
+        assertEquals(ServerFilter.MAXIMUM_QUERY_IDS, countQueryIds(fake.listings.get(1)));
+        assertEquals(120 - 2 * ServerFilter.MAXIMUM_QUERY_IDS, countQueryIds(fake.listings.get(2)));
+    }
+
+    @Test
+    public void answersKnownServersFromSnapshot() throws Exception {
+        FakeServers fake = new FakeServers(provider, 20);
+
+        System.setProperty(FleetSnapshot.MAXIMUM_STALENESS_PROPERTY, "600000");
+        FleetSnapshot snapshot = FleetSnapshot.getInstance(provider);
+
+        for( String id : fake.ids(0, 3) ) {
+            snapshot.update(fake.servers.get(id));
+        }
+        Map<String, VirtualMachine> found = fake.getVirtualMachines(fake.ids(0, 5));
+
+        assertEquals(5, found.size());
+        assertEquals(0, fake.listings.size());
+        // only the servers the snapshot did not know were looked up
+        ArrayList<String> lookups = new ArrayList<String>(fake.lookups);
+
+        Collections.sort(lookups);
+        assertEquals(fake.ids(3, 5), lookups);
+    }
+
+    @Test
+    public void leavesOutMissingServersWithEveryStrategy() throws Exception {
+        List<String> missing = Arrays.asList("gone-1", "gone-2");
+        FakeServers fake = new FakeServers(provider, 300);
+        ArrayList<String> wanted = new ArrayList<String>(fake.ids(0, 2));
+
+        wanted.addAll(missing);
+        // one by one
+        assertEquals(fake.ids(0, 2), sorted(fake.getVirtualMachines(wanted)));
+        // multi-ID query
+        System.setProperty(ServerFilter.MULTI_ID_PROPERTY, "true");
+        assertEquals(fake.ids(0, 2), sorted(fake.getVirtualMachines(wanted)));
+        // one listing
+        wanted = new ArrayList<String>(fake.ids(0, 250));
+        wanted.addAll(missing);
+        assertEquals(250, fake.getVirtualMachines(wanted).size());
+    }
+
+    static private List<String> sorted(Map<String, VirtualMachine> found) {
+        ArrayList<String> ids = new ArrayList<String>(found.keySet());
+
+        Collections.sort(ids);
+        return ids;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.opsource.compute;
+
+import org.dasein.cloud.compute.VmState;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Mapping of <code>serverWithState</code> fields to {@link VmState} by {@link VirtualMachines#toVmState}, and the
+ * check of deploy result IDs by {@link VirtualMachines#toServerId}.
+ */
+public class VirtualMachinesTest {
+    @Test
+    public void mapsPowerStateOfNormalServers() {
+        assertEquals(VmState.RUNNING, VirtualMachines.toVmState(true, true, "NORMAL", null, true));
+        assertEquals(VmState.STOPPED, VirtualMachines.toVmState(false, true, "NORMAL", null, true));
+        assertNull(VirtualMachines.toVmState(null, true, "NORMAL", null, true));
+    }
+
+    @Test
+    public void mapsUndeployedServersToPending() {
+        assertEquals(VmState.PENDING, VirtualMachines.toVmState(false, false, "PENDING_ADD", null, true));
+        assertEquals(VmState.PENDING, VirtualMachines.toVmState(null, false, "PENDING_ADD", null, false));
+    }
+
+    @Test
+    public void mapsPendingChangesByAction() {
+        assertEquals(VmState.RUNNING, VirtualMachines.toVmState(false, true, "PENDING_CHANGE", "START_SERVER", true));
+        assertEquals(VmState.STOPPING, VirtualMachines.toVmState(true, true, "PENDING_CHANGE", "POWER_OFF_SERVER", true));
+        assertEquals(VmState.STOPPING, VirtualMachines.toVmState(true, true, "PENDING_CHANGE", "shutdown_server", true));
+        assertEquals(VmState.REBOOTING, VirtualMachines.toVmState(true, true, "PENDING_CHANGE", "RESET_SERVER", true));
+        assertEquals(VmState.PENDING, VirtualMachines.toVmState(true, true, "PENDING_CHANGE", "DEPLOY_SERVER", true));
+        // no action reported keeps the power state
+        assertEquals(VmState.RUNNING, VirtualMachines.toVmState(true, true, "PENDING_CHANGE", null, true));
+    }
+
+    @Test
+    public void mapsFailedServersToSuspended() {
+        assertEquals(VmState.SUSPENDED, VirtualMachines.toVmState(true, true, "FAILED_ADD", null, true));
+        assertEquals(VmState.STOPPED, VirtualMachines.toVmState(false, true, "PENDING_DELETE", null, true));
+    }
+
+    @Test
+    public void ignoresStatusFieldsWithoutStatus() {
+        assertEquals(VmState.RUNNING, VirtualMachines.toVmState(true, true, "PENDING_CHANGE", "POWER_OFF_SERVER", false));
+        assertEquals(VmState.RUNNING, VirtualMachines.toVmState(true, true, "FAILED_ADD", null, false));
+    }
+
+    @Test
+    public void acceptsUuidServerIds() {
+        assertEquals("0c3f7a52-88b1-11e2-b7c8-0030487e0302", VirtualMachines.toServerId("0c3f7a52-88b1-11e2-b7c8-0030487e0302"));
+        assertEquals("0C3F7A52-88B1-11E2-B7C8-0030487E0302", VirtualMachines.toServerId("0C3F7A52-88B1-11E2-B7C8-0030487E0302"));
+    }
+
+    @Test
+    public void dropsIdsThatAreNotUuids() {
+        assertNull(VirtualMachines.toServerId("1234-abcd"));
+        assertNull(VirtualMachines.toServerId("0c3f7a52-88b1-11e2-b7c8-0030487e030"));
+        assertNull(VirtualMachines.toServerId("0c3f7a52-88b1-11e2-b7c8-0030487e0302-1"));
+        assertNull(VirtualMachines.toServerId(null));
+    }
+}